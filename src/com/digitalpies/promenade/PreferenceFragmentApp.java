@@ -22,8 +22,8 @@ import com.digitalpies.promenade.walklist.CustomListActivity;
  * Sets an onClickListener on the "reset help toasts" PreferenceScreen which shows
  * a dialogue asking the user to confirm when clicked.<br>
  * <br>
- * Creates a reference to the updateRate ListPreference so that the text can reflect
- * the update rate selected.<br>
+ * Creates references to the updateRate and simplifyTolerance ListPreferences so that the text can reflect
+ * the values selected.<br>
  * 
  * @author Alex Hardwicke
  */
@@ -42,6 +42,7 @@ public class PreferenceFragmentApp extends PreferenceFragment
 		// Get the shared preferences and references to the preference items
 		this.preferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
 		final ListPreference updateRate = (ListPreference) findPreference("map_accuracy");
+		final ListPreference simplifyTolerance = (ListPreference) findPreference("simplify_tolerance");
 		PreferenceScreen resetPreferenceScreen = (PreferenceScreen) findPreference("reset_help_toasts");
 
 		// Setting the onPreferenceChangeListener
@@ -57,6 +58,14 @@ public class PreferenceFragmentApp extends PreferenceFragment
 				return false;
 			}
 		});
+		simplifyTolerance.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+			@Override
+			public boolean onPreferenceChange(Preference preference, Object newValue)
+			{
+				updateToleranceValue((ListPreference) preference, (String) newValue);
+				return true;
+			}
+		});
 
 		// Setting the onPreferenceClickListener
 		resetPreferenceScreen.setOnPreferenceClickListener(new OnPreferenceClickListener() {
@@ -78,6 +87,7 @@ public class PreferenceFragmentApp extends PreferenceFragment
 		// Make sure the updateRate text is already up to date
 		String value = this.preferences.getString("map_accuracy", "20");
 		updateValue(updateRate, value);
+		updateToleranceValue(simplifyTolerance, this.preferences.getString("simplify_tolerance", "5"));
 	}
 
 	public void updateValue(Preference preference, String newValue)
@@ -87,4 +97,14 @@ public class PreferenceFragmentApp extends PreferenceFragment
 				+ getString(R.string.map_accuracy_summary_suffix);
 		preference.setSummary(string);
 	}
+
+	public void updateToleranceValue(ListPreference preference, String newValue)
+	{
+		// Update the text to reflect the chosen distance, or show the "off" entry
+		if (newValue.equals("0"))
+			preference.setSummary(preference.getEntries()[0]);
+		else
+			preference.setSummary(getString(R.string.simplify_tolerance) + " " + newValue + " "
+					+ getString(R.string.simplify_tolerance_summary_suffix));
+	}
 }
\ No newline at end of file
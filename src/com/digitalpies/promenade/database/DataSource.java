@@ -3,43 +3,260 @@ package com.digitalpies.promenade.database;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 import com.digitalpies.promenade.walklist.CustomListActivity;
-import com.google.android.maps.GeoPoint;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
 
 /**
  * Manages all interaction with the database. Contains a large number of methods for adding, removing, retrieving
  * and editing rows in the database.
  * 
  * The entire class barring the constructor consists of static methods and variables - allows access to the same
- * databaseHelper instance regardless of source (and multiple connections to a database end badly in Android).
+ * databaseHelper instance regardless of source (and multiple connections to a database end badly in Android).<br>
+ * <br>
+ * The database uses write-ahead logging. SQLiteDatabase then keeps a pool of read-only connections alongside
+ * its one writing connection, so queries run outside a transaction (the walk list, maps and search) read the
+ * last committed data without waiting for GPS inserts or bulk deletes to finish. Every transaction here is
+ * started with beginTransactionNonExclusive, so that it doesn't lock those readers out either.
  * 
  * @author Alex Hardwicke
  */
 public class DataSource
 {
+	private static final String TAG = "DataSource";
+
 	private static SQLiteDatabase database;
+	private static StatementCache statements;
 	private static SQLiteHelper databaseHelper;
 	private static DataSource datasource = null;
+	// Incremented every time the search_terms table changes, so cached suggestions can tell they're stale
+	private static volatile int searchTermsGeneration = 0;
+	// The most recently read walks, by ID. See getWalkById.
+	private static final int WALK_CACHE_SIZE = 64;
+	private static final LruCache<Long, Walk> walkCache = new LruCache<Long, Walk>(WALK_CACHE_SIZE);
+	// Incremented every time cached walks are invalidated, so a read that overlapped a write isn't cached.
+	// Guarded by walkCacheLock, which is held from the check to the put so an invalidation can't fall between.
+	private static final Object walkCacheLock = new Object();
+	private static int walkCacheGeneration = 0;
+	// The most recently read Tracks, by walk ID, up to TRACK_CACHE_BYTES of points. See getTrackForWalk.
+	private static final int TRACK_CACHE_BYTES = 2 * 1024 * 1024;
+	private static final LruCache<Long, Track> trackCache = new LruCache<Long, Track>(TRACK_CACHE_BYTES) {
+		@Override
+		protected int sizeOf(Long id, Track track)
+		{
+			return track.getByteCount();
+		}
+	};
+	// As walkCacheGeneration, guarded by trackCacheLock
+	private static final Object trackCacheLock = new Object();
+	private static int trackCacheGeneration = 0;
 	public final static String TAG_PADDING = " , ";
+	// The number of points stored in each row of a walk's track
+	public static final int TRACK_CHUNK_SIZE = TrackCodec.CHUNK_SIZE;
+	// The number of walks deleteWalks removes per transaction
+	private static final int DELETE_CHUNK_SIZE = 25;
+
+	/**
+	 * Used by deleteWalks to report its progress and to find out if it should stop. Both methods are
+	 * called on the thread running deleteWalks.
+	 */
+	public interface DeleteListener
+	{
+		/**
+		 * @return	True if deleteWalks should stop before deleting the next chunk of walks
+		 */
+		public boolean isCancelled();
+
+		/**
+		 * Run after each chunk of walks has been deleted.
+		 * 
+		 * @param deleted		The total number of walks deleted so far
+		 * @param photoFiles	The files of the photos that belonged to the walks in this chunk
+		 */
+		public void onChunkDeleted(int deleted, ArrayList<String> photoFiles);
+	}
 
 	// Arrays for each table in the database - each one contains all the columns for tha table
 	private static final String[] walksColumns = { SQLiteHelper.COLUMN_ID, SQLiteHelper.WALKS_NAME,
 			SQLiteHelper.WALKS_DESCRIPTION, SQLiteHelper.WALKS_TAGS, SQLiteHelper.WALKS_DATE };
-	private static final String[] gpsColumns = { SQLiteHelper.COLUMN_ID, SQLiteHelper.GPS_WALK_ID,
-			SQLiteHelper.GPS_LATITUDE, SQLiteHelper.GPS_LONGITUDE };
 	private static final String[] photosColumns = { SQLiteHelper.COLUMN_ID, SQLiteHelper.PHOTOS_WALK_ID,
 			SQLiteHelper.PHOTOS_LATITUDE, SQLiteHelper.PHOTOS_LONGITUDE, SQLiteHelper.PHOTOS_FILE };
 	private static final String[] notesColumns = { SQLiteHelper.COLUMN_ID, SQLiteHelper.NOTES_WALK_ID,
 			SQLiteHelper.NOTES_LATITUDE, SQLiteHelper.NOTES_LONGITUDE, SQLiteHelper.NOTES_NOTE };
-	private static final String[] searchColumns = { SQLiteHelper.SEARCH_WALK_ID, SQLiteHelper.SEARCH_WALK_NAME,
-			SQLiteHelper.SEARCH_WALK_DESCRIPTION, SQLiteHelper.SEARCH_WALK_TAGS };
+	private static final String[] statsColumns = { SQLiteHelper.STATS_WALK_ID, SQLiteHelper.STATS_POINT_COUNT,
+			SQLiteHelper.STATS_PHOTO_COUNT, SQLiteHelper.STATS_NOTE_COUNT, SQLiteHelper.STATS_DISTANCE,
+			SQLiteHelper.STATS_MIN_LATITUDE, SQLiteHelper.STATS_MAX_LATITUDE, SQLiteHelper.STATS_MIN_LONGITUDE,
+			SQLiteHelper.STATS_MAX_LONGITUDE, SQLiteHelper.STATS_LAST_LATITUDE, SQLiteHelper.STATS_LAST_LONGITUDE };
+
+	// A temporary table holding the IDs of the walks changed by changeTags. It only exists on this connection.
+	private static final String TABLE_CHANGED_WALKS = "temp.changed_walks";
+	private static final String CHANGED_WALK_ID = "walk_id";
+	private static final String CHANGED_WALKS_CREATE = "CREATE TEMP TABLE IF NOT EXISTS changed_walks ("
+			+ CHANGED_WALK_ID + " INTEGER PRIMARY KEY)";
+
+	// The SQL for every statement DataSource runs. Values are always bound to the ?s rather than concatenated
+	// in, so each of these is only compiled once by the StatementCache.
+	private static final String WALKS_QUERY = "SELECT " + columnList(walksColumns) + " FROM "
+			+ SQLiteHelper.TABLE_WALKS;
+	private static final String WALK_BY_ID_QUERY = WALKS_QUERY + " WHERE " + SQLiteHelper.COLUMN_ID + " = ?";
+	private static final String NOTES_FOR_WALK_QUERY = "SELECT " + columnList(notesColumns) + " FROM "
+			+ SQLiteHelper.TABLE_NOTES + " WHERE " + SQLiteHelper.NOTES_WALK_ID + " = ?";
+	private static final String NOTE_BY_ID_QUERY = "SELECT " + columnList(notesColumns) + " FROM "
+			+ SQLiteHelper.TABLE_NOTES + " WHERE " + SQLiteHelper.COLUMN_ID + " = ?";
+	private static final String PHOTOS_FOR_WALK_QUERY = "SELECT " + columnList(photosColumns) + " FROM "
+			+ SQLiteHelper.TABLE_PHOTOS + " WHERE " + SQLiteHelper.PHOTOS_WALK_ID + " = ?";
+	private static final String NOTE_COUNT_QUERY = "SELECT COUNT(*) FROM " + SQLiteHelper.TABLE_NOTES + " WHERE "
+			+ SQLiteHelper.NOTES_WALK_ID + " = ?";
+	private static final String PHOTO_COUNT_QUERY = "SELECT COUNT(*) FROM " + SQLiteHelper.TABLE_PHOTOS + " WHERE "
+			+ SQLiteHelper.PHOTOS_WALK_ID + " = ?";
+	private static final String STATS_QUERY = "SELECT " + columnList(statsColumns) + " FROM "
+			+ SQLiteHelper.TABLE_WALK_STATS + " WHERE " + SQLiteHelper.STATS_WALK_ID + " = ?";
+	private static final String TAGS_QUERY = "SELECT " + SQLiteHelper.TAGS_NAME + " FROM " + SQLiteHelper.TABLE_TAGS
+			+ " ORDER BY " + SQLiteHelper.TAGS_NAME;
+	private static final String TAG_COUNTS_QUERY = "SELECT " + SQLiteHelper.TABLE_TAGS + "." + SQLiteHelper.TAGS_NAME
+			+ ", COUNT(*) FROM " + SQLiteHelper.TABLE_TAGS + " JOIN " + SQLiteHelper.TABLE_WALK_TAGS + " ON "
+			+ SQLiteHelper.TABLE_WALK_TAGS + "." + SQLiteHelper.WALK_TAGS_TAG_ID + " = " + SQLiteHelper.TABLE_TAGS
+			+ "." + SQLiteHelper.COLUMN_ID + " GROUP BY " + SQLiteHelper.TABLE_TAGS + "." + SQLiteHelper.COLUMN_ID
+			+ " ORDER BY " + SQLiteHelper.TABLE_TAGS + "." + SQLiteHelper.TAGS_NAME;
+	// Saved walks only - the walk in progress isn't shown in the list
+	private static final String SAVED_WALKS_QUERY = WALKS_QUERY + " WHERE " + SQLiteHelper.WALKS_IN_PROGRESS + " = 0";
+	private static final String SAVED_WALK_COUNT_QUERY = "SELECT COUNT(*) FROM " + SQLiteHelper.TABLE_WALKS
+			+ " WHERE " + SQLiteHelper.WALKS_IN_PROGRESS + " = 0";
+	private static final String WALK_IN_PROGRESS_IDS_QUERY = "SELECT " + SQLiteHelper.COLUMN_ID + " FROM "
+			+ SQLiteHelper.TABLE_WALKS + " WHERE " + SQLiteHelper.WALKS_IN_PROGRESS + " = 1";
+	// The IN list is added to the end, with one ? per tag, followed by tagFilter's GROUP BY (and HAVING)
+	private static final String TAGGED_WALK_IDS_QUERY = "SELECT " + SQLiteHelper.TABLE_WALK_TAGS + "." + SQLiteHelper.WALK_TAGS_WALK_ID + " FROM "
+			+ SQLiteHelper.TABLE_TAGS + " JOIN " + SQLiteHelper.TABLE_WALK_TAGS + " ON " + SQLiteHelper.TABLE_WALK_TAGS
+			+ "." + SQLiteHelper.WALK_TAGS_TAG_ID + " = " + SQLiteHelper.TABLE_TAGS + "." + SQLiteHelper.COLUMN_ID
+			+ " WHERE " + SQLiteHelper.TABLE_TAGS + "." + SQLiteHelper.TAGS_NAME + " IN ";
+	// The IN list is added to the end, with one ? per tag
+	private static final String WALK_IDS_FOR_TAGS_QUERY = "SELECT DISTINCT " + SQLiteHelper.TABLE_WALK_TAGS + "."
+			+ SQLiteHelper.WALK_TAGS_WALK_ID + " FROM " + SQLiteHelper.TABLE_TAGS + " JOIN "
+			+ SQLiteHelper.TABLE_WALK_TAGS + " ON " + SQLiteHelper.TABLE_WALK_TAGS + "." + SQLiteHelper.WALK_TAGS_TAG_ID
+			+ " = " + SQLiteHelper.TABLE_TAGS + "." + SQLiteHelper.COLUMN_ID + " WHERE " + SQLiteHelper.TABLE_TAGS
+			+ "." + SQLiteHelper.TAGS_NAME + " IN ";
+	// The search table's docids are walk IDs, so the matching walks are read by rowid in the same query
+	// The IN list is added to the end, with one ? per walk ID
+	private static final String WALKS_IN_QUERY = WALKS_QUERY + " WHERE " + SQLiteHelper.COLUMN_ID + " IN ";
+	private static final String PHOTO_FILES_IN_QUERY = "SELECT " + SQLiteHelper.PHOTOS_FILE + " FROM "
+			+ SQLiteHelper.TABLE_PHOTOS + " WHERE " + SQLiteHelper.PHOTOS_WALK_ID + " IN ";
+	// The changed walks that are in the search table - the walk in progress isn't added until it's saved
+	private static final String CHANGED_WALKS_QUERY = SAVED_WALKS_QUERY + " AND " + SQLiteHelper.COLUMN_ID
+			+ " IN (SELECT " + CHANGED_WALK_ID + " FROM " + TABLE_CHANGED_WALKS + ")";
+	private static final String SEARCH_MATCH = "SELECT " + SQLiteHelper.SEARCH_DOCID + " FROM "
+			+ SQLiteHelper.TABLE_SEARCH + " WHERE " + SQLiteHelper.TABLE_SEARCH + " MATCH ?";
+	private static final String SEARCH_QUERY = SAVED_WALKS_QUERY + " AND " + SQLiteHelper.COLUMN_ID + " IN ("
+			+ SEARCH_MATCH + ")";
+	// Only saved walks are in the search table, so the matches can be counted without reading the walks
+	private static final String SEARCH_COUNT_QUERY = "SELECT COUNT(*) FROM " + SQLiteHelper.TABLE_SEARCH
+			+ " WHERE " + SQLiteHelper.TABLE_SEARCH + " MATCH ?";
+	// The terms from the first ? (inclusive) to the second (exclusive), most used first
+	private static final String SEARCH_TERMS_QUERY = "SELECT " + SQLiteHelper.SEARCH_TERMS_TERM + " FROM "
+			+ SQLiteHelper.TABLE_SEARCH_TERMS + " WHERE " + SQLiteHelper.SEARCH_TERMS_TERM + " >= ? AND "
+			+ SQLiteHelper.SEARCH_TERMS_TERM + " < ? ORDER BY " + SQLiteHelper.SEARCH_TERMS_WALK_COUNT + " DESC, "
+			+ SQLiteHelper.SEARCH_TERMS_TERM + " LIMIT ?";
+
+	private static final String TEMPORARY_WALK_INSERT = "INSERT INTO " + SQLiteHelper.TABLE_WALKS + " ("
+			+ SQLiteHelper.WALKS_NAME + ", " + SQLiteHelper.WALKS_DESCRIPTION + ", " + SQLiteHelper.WALKS_TAGS + ", "
+			+ SQLiteHelper.WALKS_DATE + ", " + SQLiteHelper.WALKS_IN_PROGRESS + ") VALUES (?, ?, ?, ?, 1)";
+	private static final String PHOTO_INSERT = "INSERT INTO " + SQLiteHelper.TABLE_PHOTOS + " ("
+			+ SQLiteHelper.PHOTOS_WALK_ID + ", " + SQLiteHelper.PHOTOS_LATITUDE + ", " + SQLiteHelper.PHOTOS_LONGITUDE
+			+ ", " + SQLiteHelper.PHOTOS_FILE + ") VALUES (?, ?, ?, ?)";
+	private static final String NOTE_INSERT = "INSERT INTO " + SQLiteHelper.TABLE_NOTES + " ("
+			+ SQLiteHelper.NOTES_WALK_ID + ", " + SQLiteHelper.NOTES_LATITUDE + ", " + SQLiteHelper.NOTES_LONGITUDE
+			+ ", " + SQLiteHelper.NOTES_NOTE + ") VALUES (?, ?, ?, ?)";
+	private static final String SEARCH_INSERT = "INSERT INTO " + SQLiteHelper.TABLE_SEARCH + " ("
+			+ SQLiteHelper.SEARCH_DOCID + ", " + SQLiteHelper.SEARCH_WALK_NAME + ", "
+			+ SQLiteHelper.SEARCH_WALK_DESCRIPTION + ", " + SQLiteHelper.SEARCH_WALK_TAGS + ") VALUES (?, ?, ?, ?)";
+
+	private static final String TAG_INSERT = "INSERT OR IGNORE INTO " + SQLiteHelper.TABLE_TAGS + " ("
+			+ SQLiteHelper.TAGS_NAME + ") VALUES (?)";
+	private static final String WALK_TAG_INSERT = "INSERT OR IGNORE INTO " + SQLiteHelper.TABLE_WALK_TAGS + " ("
+			+ SQLiteHelper.WALK_TAGS_WALK_ID + ", " + SQLiteHelper.WALK_TAGS_TAG_ID + ") SELECT ?, "
+			+ SQLiteHelper.COLUMN_ID + " FROM " + SQLiteHelper.TABLE_TAGS + " WHERE " + SQLiteHelper.TAGS_NAME + " = ?";
+	private static final String SEARCH_TERM_INSERT = "INSERT OR IGNORE INTO " + SQLiteHelper.TABLE_SEARCH_TERMS + " ("
+			+ SQLiteHelper.SEARCH_TERMS_TERM + ", " + SQLiteHelper.SEARCH_TERMS_WALK_COUNT + ") VALUES (?, 0)";
+	// Every walk with any of the tags in the IN list, which is added to the end
+	private static final String CHANGED_WALKS_INSERT = "INSERT OR IGNORE INTO " + TABLE_CHANGED_WALKS + " ("
+			+ CHANGED_WALK_ID + ") " + WALK_IDS_FOR_TAGS_QUERY;
+	// Links every changed walk to the tag with the bound name
+	private static final String CHANGED_WALK_TAGS_INSERT = "INSERT OR IGNORE INTO " + SQLiteHelper.TABLE_WALK_TAGS
+			+ " (" + SQLiteHelper.WALK_TAGS_WALK_ID + ", " + SQLiteHelper.WALK_TAGS_TAG_ID + ") SELECT "
+			+ CHANGED_WALK_ID + ", (SELECT " + SQLiteHelper.COLUMN_ID + " FROM " + SQLiteHelper.TABLE_TAGS + " WHERE "
+			+ SQLiteHelper.TAGS_NAME + " = ?) FROM " + TABLE_CHANGED_WALKS;
+	private static final String STATS_REPLACE = "INSERT OR REPLACE INTO " + SQLiteHelper.TABLE_WALK_STATS + " ("
+			+ columnList(statsColumns) + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String WALK_UPDATE = "UPDATE " + SQLiteHelper.TABLE_WALKS + " SET " + SQLiteHelper.WALKS_NAME
+			+ " = ?, " + SQLiteHelper.WALKS_DESCRIPTION + " = ?, " + SQLiteHelper.WALKS_TAGS + " = ? WHERE "
+			+ SQLiteHelper.COLUMN_ID + " = ?";
+	private static final String WALK_SAVE_UPDATE = "UPDATE " + SQLiteHelper.TABLE_WALKS + " SET "
+			+ SQLiteHelper.WALKS_NAME + " = ?, " + SQLiteHelper.WALKS_DESCRIPTION + " = ?, " + SQLiteHelper.WALKS_TAGS
+			+ " = ?, " + SQLiteHelper.WALKS_IN_PROGRESS + " = 0 WHERE " + SQLiteHelper.COLUMN_ID + " = ?";
+	private static final String SEARCH_UPDATE = "UPDATE " + SQLiteHelper.TABLE_SEARCH + " SET "
+			+ SQLiteHelper.SEARCH_WALK_NAME + " = ?, " + SQLiteHelper.SEARCH_WALK_DESCRIPTION + " = ?, "
+			+ SQLiteHelper.SEARCH_WALK_TAGS + " = ? WHERE " + SQLiteHelper.SEARCH_DOCID + " = ?";
+	private static final String WALK_TAGS_UPDATE = "UPDATE " + SQLiteHelper.TABLE_WALKS + " SET "
+			+ SQLiteHelper.WALKS_TAGS + " = ? WHERE " + SQLiteHelper.COLUMN_ID + " = ?";
+	private static final String SEARCH_TAGS_UPDATE = "UPDATE " + SQLiteHelper.TABLE_SEARCH + " SET "
+			+ SQLiteHelper.SEARCH_WALK_TAGS + " = ? WHERE " + SQLiteHelper.SEARCH_DOCID + " = ?";
+	private static final String NOTE_UPDATE = "UPDATE " + SQLiteHelper.TABLE_NOTES + " SET " + SQLiteHelper.NOTES_NOTE
+			+ " = ? WHERE " + SQLiteHelper.COLUMN_ID + " = ?";
+	private static final String STATS_ADD_PHOTO = "UPDATE " + SQLiteHelper.TABLE_WALK_STATS + " SET "
+			+ SQLiteHelper.STATS_PHOTO_COUNT + " = " + SQLiteHelper.STATS_PHOTO_COUNT + " + 1 WHERE "
+			+ SQLiteHelper.STATS_WALK_ID + " = ?";
+	private static final String STATS_ADD_NOTE = "UPDATE " + SQLiteHelper.TABLE_WALK_STATS + " SET "
+			+ SQLiteHelper.STATS_NOTE_COUNT + " = " + SQLiteHelper.STATS_NOTE_COUNT + " + 1 WHERE "
+			+ SQLiteHelper.STATS_WALK_ID + " = ?";
+	private static final String STATS_REMOVE_PHOTO = "UPDATE " + SQLiteHelper.TABLE_WALK_STATS + " SET "
+			+ SQLiteHelper.STATS_PHOTO_COUNT + " = " + SQLiteHelper.STATS_PHOTO_COUNT + " - 1 WHERE "
+			+ SQLiteHelper.STATS_WALK_ID + " = (SELECT " + SQLiteHelper.PHOTOS_WALK_ID + " FROM "
+			+ SQLiteHelper.TABLE_PHOTOS + " WHERE " + SQLiteHelper.COLUMN_ID + " = ?)";
+	private static final String STATS_REMOVE_NOTE = "UPDATE " + SQLiteHelper.TABLE_WALK_STATS + " SET "
+			+ SQLiteHelper.STATS_NOTE_COUNT + " = " + SQLiteHelper.STATS_NOTE_COUNT + " - 1 WHERE "
+			+ SQLiteHelper.STATS_WALK_ID + " = (SELECT " + SQLiteHelper.NOTES_WALK_ID + " FROM "
+			+ SQLiteHelper.TABLE_NOTES + " WHERE " + SQLiteHelper.COLUMN_ID + " = ?)";
+
+	private static final String PHOTO_DELETE = "DELETE FROM " + SQLiteHelper.TABLE_PHOTOS + " WHERE "
+			+ SQLiteHelper.COLUMN_ID + " = ?";
+	private static final String NOTE_DELETE = "DELETE FROM " + SQLiteHelper.TABLE_NOTES + " WHERE "
+			+ SQLiteHelper.COLUMN_ID + " = ?";
+	private static final String WALK_TAGS_DELETE_FOR_WALK = "DELETE FROM " + SQLiteHelper.TABLE_WALK_TAGS + " WHERE "
+			+ SQLiteHelper.WALK_TAGS_WALK_ID + " = ?";
+	private static final String UNUSED_TAGS_DELETE = "DELETE FROM " + SQLiteHelper.TABLE_TAGS + " WHERE NOT EXISTS "
+			+ "(SELECT 1 FROM " + SQLiteHelper.TABLE_WALK_TAGS + " WHERE " + SQLiteHelper.WALK_TAGS_TAG_ID + " = "
+			+ SQLiteHelper.TABLE_TAGS + "." + SQLiteHelper.COLUMN_ID + ")";
+	private static final String SEARCH_TERM_COUNT_UPDATE = "UPDATE " + SQLiteHelper.TABLE_SEARCH_TERMS + " SET "
+			+ SQLiteHelper.SEARCH_TERMS_WALK_COUNT + " = " + SQLiteHelper.SEARCH_TERMS_WALK_COUNT + " + ? WHERE "
+			+ SQLiteHelper.SEARCH_TERMS_TERM + " = ?";
+	private static final String UNUSED_SEARCH_TERMS_DELETE = "DELETE FROM " + SQLiteHelper.TABLE_SEARCH_TERMS
+			+ " WHERE " + SQLiteHelper.SEARCH_TERMS_WALK_COUNT + " <= 0";
+	// Every row belonging to a chunk of walks deleted by deleteWalks. The IN list of walk IDs is added to the
+	// end of each, and the walks row is deleted last.
+	private static final String[] WALK_CHUNK_DELETES = {
+			"DELETE FROM " + SQLiteHelper.TABLE_GPS + " WHERE " + SQLiteHelper.GPS_WALK_ID + " IN ",
+			"DELETE FROM " + SQLiteHelper.TABLE_TRACKS + " WHERE " + SQLiteHelper.TRACKS_WALK_ID + " IN ",
+			"DELETE FROM " + SQLiteHelper.TABLE_PHOTOS + " WHERE " + SQLiteHelper.PHOTOS_WALK_ID + " IN ",
+			"DELETE FROM " + SQLiteHelper.TABLE_NOTES + " WHERE " + SQLiteHelper.NOTES_WALK_ID + " IN ",
+			"DELETE FROM " + SQLiteHelper.TABLE_WALK_STATS + " WHERE " + SQLiteHelper.STATS_WALK_ID + " IN ",
+			"DELETE FROM " + SQLiteHelper.TABLE_SEARCH + " WHERE " + SQLiteHelper.SEARCH_DOCID + " IN ",
+			"DELETE FROM " + SQLiteHelper.TABLE_WALK_TAGS + " WHERE " + SQLiteHelper.WALK_TAGS_WALK_ID + " IN ",
+			"DELETE FROM " + SQLiteHelper.TABLE_WALKS + " WHERE " + SQLiteHelper.COLUMN_ID + " IN " };
+	private static final String CHANGED_WALKS_CLEAR = "DELETE FROM " + TABLE_CHANGED_WALKS;
+	// The IN list of tag names is added to the end, followed by a closing bracket
+	private static final String WALK_TAGS_DELETE_FOR_TAGS = "DELETE FROM " + SQLiteHelper.TABLE_WALK_TAGS + " WHERE "
+			+ SQLiteHelper.WALK_TAGS_TAG_ID + " IN (SELECT " + SQLiteHelper.COLUMN_ID + " FROM "
+			+ SQLiteHelper.TABLE_TAGS + " WHERE " + SQLiteHelper.TAGS_NAME + " IN ";
 
 	// ///////////////////////////////////////////
 	//
@@ -51,13 +268,27 @@ public class DataSource
 		DataSource.databaseHelper = new SQLiteHelper(context);
 	}
 
-	// Allows static creation of the datasource. Creates a DataSource object and opens it.
-	public static void openDataSource(Context context)
+	// Allows static creation of the datasource. Creates a DataSource object and opens it with write-ahead
+	// logging, then finishes any upgrade data copies in the background. Synchronized as the search
+	// suggestion provider can open it from a binder thread.
+	public static synchronized void openDataSource(Context context)
 	{
 		if (datasource == null)
 		{
 			datasource = new DataSource(context);
 			DataSource.database = DataSource.databaseHelper.getWritableDatabase();
+			if (!DataSource.database.enableWriteAheadLogging())
+				Log.w(TAG, "Write-ahead logging unavailable, reads will wait for writes");
+			DataSource.statements = new StatementCache(DataSource.database);
+
+			Thread thread = new Thread() {
+				@Override
+				public void run()
+				{
+					SQLiteHelper.runDeferredMigrations(DataSource.database, DataSource.statements);
+				}
+			};
+			thread.start();
 		}
 	}
 
@@ -67,78 +298,133 @@ public class DataSource
 	//
 	// ///////////////////////////////////////////
 	/**
-	 * Retrieves all of the Tags from each Walk, skipping duplicates, sorts them into
-	 * alphabetical order and returns them as an ArrayList<Tag>.
+	 * Retrieves every Tag used by at least one Walk, in alphabetical order, and returns them as
+	 * an ArrayList<Tag>.<br>
+	 * <br>
+	 * Each tag is stored once in the tags table, which is indexed by name, so this reads the index
+	 * in order rather than every walk.
 	 * 
 	 * @return	A List containing the Tags
 	 */
 	public static ArrayList<Tag> getAllTags()
 	{
-		// A HashSet, used to filter out duplicates
-		HashSet<Tag> tagHashSet = new HashSet<Tag>();
-		ArrayList<Walk> walks = getAllWalks(0);
+		ArrayList<Tag> tags = new ArrayList<Tag>();
+		Cursor cursor = DataSource.statements.rawQuery(TAGS_QUERY);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast())
+		{
+			tags.add(new Tag(cursor.getString(0)));
+			cursor.moveToNext();
+		}
+		cursor.close();
+		return tags;
+	}
 
-		// Go through each walk, get the tags and add them to the HashSet. This means the HashSet
-		// contains every tag and no duplicates
-		for (Walk walk : walks)
+	/**
+	 * Retrieves the number of Walks that have each Tag, in alphabetical order of Tag.
+	 * 
+	 * @return	A Map from each Tag to its number of Walks
+	 */
+	public static LinkedHashMap<Tag, Integer> getTagCounts()
+	{
+		LinkedHashMap<Tag, Integer> counts = new LinkedHashMap<Tag, Integer>();
+		Cursor cursor = DataSource.statements.rawQuery(TAG_COUNTS_QUERY);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast())
 		{
-			if (walk.getTags() != null) tagHashSet.addAll(walk.getTags());
+			counts.put(new Tag(cursor.getString(0)), cursor.getInt(1));
+			cursor.moveToNext();
 		}
+		cursor.close();
+		return counts;
+	}
 
-		// Convert to ArrayList, sort, return.
-		ArrayList<Tag> tags = new ArrayList<Tag>(tagHashSet);
-		Collections.sort(tags);
-		return tags;
+	/**
+	 * Returns the number of saved Walks in the database (every walk but the in-progress one).
+	 * 
+	 * @return	The number of saved Walks
+	 */
+	public static int getWalkCount()
+	{
+		return (int) DataSource.statements.simpleQueryForLong(SAVED_WALK_COUNT_QUERY);
 	}
 
 	/**
-	 * Retrieves all of the Walks from the database and returns them.<br>
+	 * Retrieves one page of the saved Walks from the database and returns them.<br>
 	 * <br>
-	 * Switches through the sortValue integer provided to sort the database result appropriately.<br>
+	 * Switches through the sortValue integer provided to sort the database result appropriately, and
+	 * then skips offset walks and returns up to limit walks, so only the requested rows are read into
+	 * Walk objects.<br>
 	 * <br>
 	 * @param sortValue	An integer representing the required sort order.
+	 * @param offset	The number of walks to skip
+	 * @param limit		The maximum number of walks to return
 	 * 
 	 * @return	A List containing the Walks
 	 */
-	public static ArrayList<Walk> getAllWalks(int sortValue)
+	public static ArrayList<Walk> getWalks(int sortValue, int offset, int limit)
 	{
-		ArrayList<Walk> walks = new ArrayList<Walk>();
+		Cursor cursor = DataSource.statements.rawQuery(SAVED_WALKS_QUERY + " ORDER BY " + walkSort(sortValue)
+				+ " LIMIT ? OFFSET ?", limit, offset);
+		return cursorToWalks(cursor);
+	}
 
-		String sort = "";
-		switch (sortValue)
-		{
-		case CustomListActivity.DATE_ASCENDING:
-			sort = SQLiteHelper.COLUMN_ID + " ASC";
-			break;
-		case CustomListActivity.DATE_DESCENDING:
-			sort = SQLiteHelper.COLUMN_ID + " DESC";
-			break;
-		case CustomListActivity.NAME_ASCENDING:
-			sort = SQLiteHelper.WALKS_NAME + " ASC";
-			break;
-		case CustomListActivity.NAME_DESCENDING:
-			sort = SQLiteHelper.WALKS_NAME + " DESC";
-			break;
-		}
-		// Retrieve all Walks
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_WALKS, DataSource.walksColumns, null, null,
-				null, null, sort);
-		cursor.moveToFirst();
+	/**
+	 * Returns the number of saved Walks that have any (or all) of the provided Tags.
+	 * 
+	 * @param tags		The Tags to filter by
+	 * @param matchAll	True if a Walk must have every Tag, false if any one Tag is enough
+	 * 
+	 * @return	The number of matching Walks
+	 */
+	public static int getWalkCountForTags(ArrayList<Tag> tags, boolean matchAll)
+	{
+		LinkedHashSet<Tag> uniqueTags = new LinkedHashSet<Tag>(tags);
+		if (uniqueTags.size() == 0) return 0;
 
-		// Add each Walk to the List
-		while (!cursor.isAfterLast())
-		{
-			Walk walk = cursorToWalk(cursor);
-			walks.add(walk);
-			cursor.moveToNext();
-		}
+		String sql = SAVED_WALK_COUNT_QUERY + " AND " + SQLiteHelper.COLUMN_ID + " IN (" + tagFilter(uniqueTags, matchAll)
+				+ ")";
+		return (int) DataSource.statements.simpleQueryForLong(sql, tagFilterArgs(uniqueTags, 0));
+	}
 
-		cursor.close();
-		return walks;
+	/**
+	 * Retrieves one page of the saved Walks that have any (or all) of the provided Tags, sorted by the
+	 * provided sort value.<br>
+	 * <br>
+	 * The filtering, sorting and paging are all done by the database in one query - the tags are looked
+	 * up by name, and their walks found through the walk_tags tag index. When matchAll is true, only
+	 * walks with a walk_tags row for every one of the tags are returned.
+	 * 
+	 * @param tags		The Tags to filter by
+	 * @param matchAll	True if a Walk must have every Tag, false if any one Tag is enough
+	 * @param sortValue	An integer representing the required sort order.
+	 * @param offset	The number of matching walks to skip
+	 * @param limit		The maximum number of walks to return
+	 * 
+	 * @return	A List containing the matching Walks
+	 */
+	public static ArrayList<Walk> getWalksByTags(ArrayList<Tag> tags, boolean matchAll, int sortValue, int offset,
+			int limit)
+	{
+		// Remove any duplicates, so that the HAVING count matches the number of distinct tags
+		LinkedHashSet<Tag> uniqueTags = new LinkedHashSet<Tag>(tags);
+		if (uniqueTags.size() == 0) return new ArrayList<Walk>();
+
+		String sql = SAVED_WALKS_QUERY + " AND " + SQLiteHelper.COLUMN_ID + " IN (" + tagFilter(uniqueTags, matchAll)
+				+ ") ORDER BY " + walkSort(sortValue) + " LIMIT ? OFFSET ?";
+		Object[] args = tagFilterArgs(uniqueTags, 2);
+		args[args.length - 2] = limit;
+		args[args.length - 1] = offset;
+
+		return cursorToWalks(DataSource.statements.rawQuery(sql, args));
 	}
 
 	/**
-	 * Retrieves a walk from the database with an id matching the provided ID.
+	 * Retrieves a walk from the database with an id matching the provided ID.<br>
+	 * <br>
+	 * The last WALK_CACHE_SIZE walks read are kept in memory, so a walk that is asked for again isn't read
+	 * and its tag string split again. Every method that changes a walk invalidates it once its transaction
+	 * has finished. Walks can be changed by their callers, so a copy of the cached walk is returned.
 	 * 
 	 * @param id	The ID of the walk.
 	 * 
@@ -146,12 +432,61 @@ public class DataSource
 	 */
 	public static Walk getWalkById(long id)
 	{
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_WALKS, DataSource.walksColumns,
-				SQLiteHelper.COLUMN_ID + " = " + id, null, null, null, null);
-		cursor.moveToFirst();
-		Walk walk = cursorToWalk(cursor);
+		Walk walk = DataSource.walkCache.get(id);
+		if (walk == null)
+		{
+			int generation;
+			synchronized (DataSource.walkCacheLock)
+			{
+				generation = DataSource.walkCacheGeneration;
+			}
+			Cursor cursor = DataSource.statements.rawQuery(WALK_BY_ID_QUERY, id);
+			cursor.moveToFirst();
+			walk = cursorToWalk(cursor);
+			cursor.close();
+
+			// If the walk was changed while it was being read, what was read may be out of date
+			synchronized (DataSource.walkCacheLock)
+			{
+				if (generation == DataSource.walkCacheGeneration) DataSource.walkCache.put(id, walk);
+			}
+		}
+		return new Walk(walk.getId(), walk.getName(), walk.getDescription(), walk.getDate(),
+				new ArrayList<Tag>(walk.getTags()));
+	}
+
+	/**
+	 * Retrieves the walk that is being recorded, if there is one. Only its ID is read from the database -
+	 * the walk itself comes from getWalkById.
+	 * 
+	 * @return	The walk in progress, or null if there isn't one
+	 */
+	public static Walk getWalkInProgress()
+	{
+		Cursor cursor = DataSource.statements.rawQuery(WALK_IN_PROGRESS_IDS_QUERY);
+		long id = cursor.moveToFirst() ? cursor.getLong(0) : -1;
 		cursor.close();
-		return walk;
+		return id == -1 ? null : getWalkById(id);
+	}
+
+	/**
+	 * Returns the number of times getWalkById has found the walk in the cache.
+	 * 
+	 * @return	The number of cache hits
+	 */
+	public static int getWalkCacheHits()
+	{
+		return DataSource.walkCache.hitCount();
+	}
+
+	/**
+	 * Returns the number of times getWalkById has had to read the walk from the database.
+	 * 
+	 * @return	The number of cache misses
+	 */
+	public static int getWalkCacheMisses()
+	{
+		return DataSource.walkCache.missCount();
 	}
 
 	/**
@@ -164,8 +499,7 @@ public class DataSource
 		ArrayList<Note> notes = new ArrayList<Note>();
 
 		// Get all Notes for the provided Walk
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_NOTES, DataSource.notesColumns,
-				SQLiteHelper.NOTES_WALK_ID + " = " + walk.getId(), null, null, null, null);
+		Cursor cursor = DataSource.statements.rawQuery(NOTES_FOR_WALK_QUERY, walk.getId());
 		cursor.moveToFirst();
 
 		// Add each Note to the List
@@ -181,29 +515,44 @@ public class DataSource
 	}
 
 	/**
-	 * Retrieves all of the GeoPoints from the database for the provided Walk and returns them.
+	 * Retrieves the Track for the provided walk ID.<br>
+	 * <br>
+	 * Saved walks are decoded from the tracks table. If the walk has no rows there (the walk in
+	 * progress, or a walk the upgrade hasn't converted yet), the points are read from the gps table
+	 * instead. Neither read is in a transaction, so they use the write-ahead log's read connections and never
+	 * wait for chunks being recorded or walks being deleted. If the walk is converted between the two reads,
+	 * its gps rows are gone, so the tracks table is read again.<br>
+	 * <br>
+	 * Decoded Tracks are kept in memory up to TRACK_CACHE_BYTES, least recently used first out, so opening
+	 * the same walk again doesn't read it again. The Track is shared with every other caller, so it must
+	 * not be changed. It's invalidated when points are added to the walk or the walk is deleted.
 	 * 
-	 * @return	A List containing the GPS points for the provided Walk
+	 * @param id	The ID of the walk
+	 * 
+	 * @return		The walk's Track
 	 */
-	public static ArrayList<GeoPoint> getGeoPointsForWalk(Walk walk)
+	public static Track getTrackForWalk(long id)
 	{
-		ArrayList<GeoPoint> geoPoints = new ArrayList<GeoPoint>();
+		Track track = DataSource.trackCache.get(id);
+		if (track != null) return track;
 
-		// Retrieve all GPS points for the provided Walk
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_GPS, DataSource.gpsColumns,
-				SQLiteHelper.PHOTOS_WALK_ID + " = " + walk.getId(), null, null, null, null);
-		cursor.moveToFirst();
-
-		// Add each GPS point to the List
-		while (!cursor.isAfterLast())
+		int generation;
+		synchronized (DataSource.trackCacheLock)
 		{
-			GeoPoint geoPoint = cursorToGeoPoint(cursor);
-			geoPoints.add(geoPoint);
-			cursor.moveToNext();
+			generation = DataSource.trackCacheGeneration;
 		}
+		long start = SystemClock.elapsedRealtime();
 
-		cursor.close();
-		return geoPoints;
+		track = readTrack(id);
+
+		Log.d(TAG, "Loaded " + track.size() + " points for walk " + id + " in "
+				+ (SystemClock.elapsedRealtime() - start) + "ms");
+
+		synchronized (DataSource.trackCacheLock)
+		{
+			if (generation == DataSource.trackCacheGeneration) DataSource.trackCache.put(id, track);
+		}
+		return track;
 	}
 
 	/**
@@ -216,8 +565,7 @@ public class DataSource
 		ArrayList<Photo> photos = new ArrayList<Photo>();
 
 		// Get all Photos for the provided Walk
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_PHOTOS, DataSource.photosColumns,
-				SQLiteHelper.PHOTOS_WALK_ID + " = " + walk.getId(), null, null, null, null);
+		Cursor cursor = DataSource.statements.rawQuery(PHOTOS_FOR_WALK_QUERY, walk.getId());
 		cursor.moveToFirst();
 
 		// Add each Photo to the List
@@ -233,27 +581,43 @@ public class DataSource
 	}
 
 	/**
-	 * Retrieves all of the Note objects from the database for the provided Walk and returns them.
+	 * Returns the number of notes the provided walk has, from the walk's stats.
 	 * 
-	 * @return	A List containing the Note objects for the provided WAlk
+	 * @return	The number of Note objects in the database for the provided Walk
 	 */
 	public static int getNoteCountForWalk(Walk walk)
 	{
-		// Get all Notes for the provided Walk
-		return DataSource.database.query(SQLiteHelper.TABLE_NOTES, DataSource.notesColumns,
-				SQLiteHelper.NOTES_WALK_ID + " = " + walk.getId(), null, null, null, null).getCount();
+		return getStatsForWalk(walk.getId()).getNoteCount();
 	}
 
 	/**
-	 * Returns the number of rows from the photo table that match the current walk.
+	 * Returns the number of photos the provided walk has, from the walk's stats.
 	 * 
 	 * @return	The number of Photo objects in the database for the provided Walk
 	 */
 	public static int getPhotoCountForWalk(Walk walk)
 	{
-		// Get all Photos for the provided Walk
-		return DataSource.database.query(SQLiteHelper.TABLE_PHOTOS, DataSource.photosColumns,
-				SQLiteHelper.PHOTOS_WALK_ID + " = " + walk.getId(), null, null, null, null).getCount();
+		return getStatsForWalk(walk.getId()).getPhotoCount();
+	}
+
+	/**
+	 * Retrieves the WalkStats for the provided walk ID - its point, photo and note counts, its distance and
+	 * its bounding box.<br>
+	 * <br>
+	 * The stats are read from a single row of the walk_stats table, outside of a transaction, so the read
+	 * never waits for a write. If the walk doesn't have a row yet (a walk saved before the table existed,
+	 * that the deferred migrations haven't filled in yet), they're calculated from the walk's child tables
+	 * but not stored - only writers and the migrations write to the table.
+	 * 
+	 * @param id	The ID of the walk
+	 * 
+	 * @return		The walk's WalkStats
+	 */
+	public static WalkStats getStatsForWalk(long id)
+	{
+		WalkStats stats = readStats(id);
+		if (stats == null) stats = calculateStats(id);
+		return stats;
 	}
 
 	// ///////////////////////////////////////////
@@ -262,13 +626,14 @@ public class DataSource
 	//
 	// ///////////////////////////////////////////
 	/**
-	 * Inserts a temporary Walk into the database with the id of 0. This ID is reserved for a walk in progress<br>
+	 * Inserts a temporary Walk into the database, flagged as in progress. The walk gets its permanent ID here,
+	 * so its photos, notes and track are stored under that ID from the start and saving it only has to clear
+	 * the flag.<br>
 	 * <br>
-	 * It first clears the GeoPoints, Photos and Notes stored in ID 0 (in case the user was taking a walk and their
-	 * phone crashed, or they killed the app). Then it deletes the actual walk from the database.<br>
+	 * It first deletes any other walk still flagged as in progress (in case the user was taking a walk and their
+	 * phone crashed, or they killed the app).<br>
 	 * <br>
-	 * It then sorts the ArrayList and then iterates through it, adding each tag to a String, divided by the
-	 * TAG_PADDING variable.<br>
+	 * It then converts the tags to their String form with tagString.<br>
 	 * <br>
 	 * Finally, it gets the current time value in milliseconds and inserts that into the database.<br>
 	 * <br>
@@ -280,73 +645,69 @@ public class DataSource
 	 */
 	public static Walk createTemporaryWalk(String name, String description, ArrayList<Tag> tags)
 	{
-		// Deleting the GPS data and photos for the temporary.
-		// Not done async because these must be purged before anything else happens.
-		deleteGeoPointForWalk(0);
-		deletePhotosForWalk(0);
-		deleteNotesForWalk(0);
-
-		// Removing the entry from the database
-		DataSource.database.delete(SQLiteHelper.TABLE_WALKS, SQLiteHelper.COLUMN_ID + " = 0", null);
-
-		Collections.sort(tags);
-		String tagString = "";
-		for (Tag tag : tags)
-		{
-			tagString += tag.getName() + TAG_PADDING;
-		}
+		String tagString = tagString(tags);
 
 		Date date = new Date();
 		Long dateLong = date.getTime();
 
-		// Creating the ContentValues and inserting the appropriate value
-		ContentValues values = new ContentValues();
-		values.put(SQLiteHelper.COLUMN_ID, 0);
-		values.put(SQLiteHelper.WALKS_NAME, name);
-		values.put(SQLiteHelper.WALKS_DESCRIPTION, description);
-		values.put(SQLiteHelper.WALKS_TAGS, tagString);
-		values.put(SQLiteHelper.WALKS_DATE, dateLong);
-
-		// Inserting the object into the database, retrieving it as a Cursor, creating the required object and
-		// returning it.
-		long insertId = DataSource.database.insert(SQLiteHelper.TABLE_WALKS, null, values);
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_WALKS, DataSource.walksColumns,
-				SQLiteHelper.COLUMN_ID + " = " + insertId, null, null, null, null);
-		cursor.moveToFirst();
-		Walk walk = cursorToWalk(cursor);
-		cursor.close();
-
-		return walk;
+		// Inserting the object and an empty stats row into the database, retrieving it, and returning it.
+		// Not done async because the old walk must be purged before anything else happens.
+		long insertId;
+		DataSource.database.beginTransactionNonExclusive();
+		try
+		{
+			deleteWalksInProgress();
+			insertId = DataSource.statements.executeInsert(TEMPORARY_WALK_INSERT, name, description, tagString,
+					dateLong);
+			writeTags(insertId, tags);
+			writeStats(insertId, new WalkStats());
+			DataSource.database.setTransactionSuccessful();
+		}
+		finally
+		{
+			DataSource.database.endTransaction();
+		}
+		invalidateWalks();
+		invalidateTracks();
+		return getWalkById(insertId);
 	}
 
 	/**
-	 * Creates a GeoPoint in the database.<br>
+	 * Adds a chunk of GPS points to the end of the track of the walk in progress, as the next row of the
+	 * tracks table, and adds them to the walk's stats in the same transaction. The stats' point count is the
+	 * number of points already stored, so it gives the chunk's number.<br>
 	 * <br>
-	 * Creates a ContentValues object, inserting the values and inserts it into the database.
-	 * 
-	 * @param walk_id	The id of the walk for which the GPS point belongs
-	 * @param latitude	The latitude of the GPS point
-	 * @param longitude	The longitude of the GPS point
+	 * GPSService adds each chunk as soon as TRACK_CHUNK_SIZE points have been recorded, so when the walk is
+	 * saved there's never more than one chunk left to write.
 	 * 
-	 * @return			Returns the newly created GPS object
+	 * @param walkId	The ID of the walk
+	 * @param points	The points to add - TRACK_CHUNK_SIZE of them, unless it's the walk's last chunk
 	 */
-	public static void createGeoPoint(long walk_id, double latitude, double longitude)
+	public static void addTrackChunk(long walkId, Track points)
 	{
-		// Creating the ContentValues and inserting the appropriate values
-		ContentValues values = new ContentValues();
-		values.put(SQLiteHelper.GPS_WALK_ID, walk_id);
-		values.put(SQLiteHelper.GPS_LATITUDE, latitude);
-		values.put(SQLiteHelper.GPS_LONGITUDE, longitude);
+		if (points.size() == 0) return;
 
-		// Inserting the object into the database
-		if (DataSource.database != null)
-			DataSource.database.insert(SQLiteHelper.TABLE_GPS, null, values);
+		DataSource.database.beginTransactionNonExclusive();
+		try
+		{
+			WalkStats stats = readStats(walkId);
+			if (stats == null) stats = calculateStats(walkId);
+			TrackCodec.insertChunk(DataSource.statements, walkId, stats.getPointCount() / TRACK_CHUNK_SIZE, points);
+			stats.addTrack(points);
+			writeStats(walkId, stats);
+			DataSource.database.setTransactionSuccessful();
+		}
+		finally
+		{
+			DataSource.database.endTransaction();
+		}
+		invalidateTrack(walkId);
 	}
 
 	/**
 	 * Inserts a Photo into the database.<br>
 	 * <br>
-	 * Creates a Photo by creating a ContentValues object, inserting the values and inserts it into the database.
+	 * Creates a Photo by binding the values to the compiled insert statement and running it.
 	 * 
 	 * @param walk_id	The id of the walk to which the Photo belongs
 	 * @param latitude	The latitude of the Photo
@@ -355,22 +716,18 @@ public class DataSource
 	 */
 	public static void createPhoto(long walk_id, double latitude, double longitude, String file)
 	{
-		// Creating the ContentValues and inserting the appropriate values
-		ContentValues values = new ContentValues();
-		values.put(SQLiteHelper.PHOTOS_WALK_ID, walk_id);
-		values.put(SQLiteHelper.PHOTOS_LATITUDE, latitude);
-		values.put(SQLiteHelper.PHOTOS_LONGITUDE, longitude);
-		values.put(SQLiteHelper.PHOTOS_FILE, file);
-
 		// Inserting the object into the database
 		if (DataSource.database != null)
-			DataSource.database.insert(SQLiteHelper.TABLE_PHOTOS, null, values);
+		{
+			DataSource.statements.executeInsert(PHOTO_INSERT, walk_id, latitude, longitude, file);
+			DataSource.statements.executeUpdateDelete(STATS_ADD_PHOTO, walk_id);
+		}
 	}
 
 	/**
-	 * Creates a Note by creating a ContentValues object, inserting the values, inserts it into the database,
-	 * creates a Cursor by retrieving the just-entered row from the database, sends the Cursor to the cursorToNote
-	 * function, and returns the created Note.
+	 * Creates a Note by binding the values to the compiled insert statement and running it, creates a Cursor by
+	 * retrieving the just-entered row from the database, sends the Cursor to the cursorToNote function, and
+	 * returns the created Note.
 	 * 
 	 * @param walk_id	The id of the walk to which the Note belongs
 	 * @param latitude	The latitude of the Note
@@ -381,18 +738,11 @@ public class DataSource
 	 */
 	public static Note createNote(long walk_id, double latitude, double longitude, String noteText)
 	{
-		// Creating the ContentValues and inserting the appropriate values
-		ContentValues values = new ContentValues();
-		values.put(SQLiteHelper.NOTES_WALK_ID, walk_id);
-		values.put(SQLiteHelper.NOTES_LATITUDE, latitude);
-		values.put(SQLiteHelper.NOTES_LONGITUDE, longitude);
-		values.put(SQLiteHelper.NOTES_NOTE, noteText);
-
 		// Inserting the object into the database, retrieving it as a Cursor, creating the required object and
 		// returning it.
-		long insertId = DataSource.database.insert(SQLiteHelper.TABLE_NOTES, null, values);
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_NOTES, DataSource.notesColumns,
-				SQLiteHelper.COLUMN_ID + " = " + insertId, null, null, null, null);
+		long insertId = DataSource.statements.executeInsert(NOTE_INSERT, walk_id, latitude, longitude, noteText);
+		DataSource.statements.executeUpdateDelete(STATS_ADD_NOTE, walk_id);
+		Cursor cursor = DataSource.statements.rawQuery(NOTE_BY_ID_QUERY, insertId);
 		cursor.moveToFirst();
 		Note note = cursorToNote(cursor);
 		cursor.close();
@@ -407,9 +757,9 @@ public class DataSource
 	/**
 	 * Updates a Walk in the database.<br>
 	 * <br>
-	 * Retrieves the details from the Walk object, iterates through the tag ArrayList, adding
-	 * each tag to a String, divided by TAG_PADDING, creates a ContentValues using these
-	 * values, and performs an SQL update with the provided data.
+	 * Retrieves the details from the Walk object, converts the tags to their String form with
+	 * tagString, and binds these values to the compiled update statements for the walks and
+	 * search tables.
 	 * 
 	 * @param walk	The new walk that needs to be entered into the database.
 	 */
@@ -417,38 +767,27 @@ public class DataSource
 	{
 		// Getting the values from the walk object
 		ArrayList<Tag> tags = walk.getTags();
-		Collections.sort(tags);
+		String tagString = tagString(tags);
 		String name = walk.getName();
 		String description = walk.getDescription();
 		long id = walk.getId();
 
-		// Putting all of the tags into String form, padded with the TAG_PADDING string
-		String tagString = "";
-		if (tags != null)
+		// Updating the database, replacing the old walk's search terms with the new walk's
+		DataSource.database.beginTransactionNonExclusive();
+		try
 		{
-			// Converting back to a single String
-			for (Tag tag : tags)
-			{
-				tagString += tag.getName() + TAG_PADDING;
-			}
+			updateSearchTerms(getWalkById(id), -1);
+			DataSource.statements.executeUpdateDelete(WALK_UPDATE, name, description, tagString, id);
+			DataSource.statements.executeUpdateDelete(SEARCH_UPDATE, name, description, tagString, id);
+			updateSearchTerms(walk, 1);
+			writeTags(id, tags);
+			DataSource.database.setTransactionSuccessful();
 		}
-
-		// Creating the ContentValues and inserting the appropriate values
-		ContentValues values = new ContentValues();
-		values.put(SQLiteHelper.WALKS_NAME, name);
-		values.put(SQLiteHelper.WALKS_DESCRIPTION, description);
-		values.put(SQLiteHelper.WALKS_TAGS, tagString);
-
-		// Updating the database
-		DataSource.database.update(SQLiteHelper.TABLE_WALKS, values, SQLiteHelper.COLUMN_ID + " = " + id, null);
-
-		ContentValues fts3Values = new ContentValues();
-		fts3Values.put(SQLiteHelper.SEARCH_WALK_NAME, name);
-		fts3Values.put(SQLiteHelper.SEARCH_WALK_DESCRIPTION, description);
-		fts3Values.put(SQLiteHelper.SEARCH_WALK_TAGS, tagString);
-
-		DataSource.database.update(SQLiteHelper.TABLE_SEARCH, fts3Values,
-				SQLiteHelper.SEARCH_WALK_ID + " = " + id, null);
+		finally
+		{
+			DataSource.database.endTransaction();
+		}
+		invalidateWalk(id);
 	}
 
 	/**
@@ -459,10 +798,7 @@ public class DataSource
 	 */
 	public static void editNote(long id, String note)
 	{
-		ContentValues values = new ContentValues();
-		values.put(SQLiteHelper.NOTES_NOTE, note);
-
-		DataSource.database.update(SQLiteHelper.TABLE_NOTES, values, SQLiteHelper.COLUMN_ID + " = " + id, null);
+		DataSource.statements.executeUpdateDelete(NOTE_UPDATE, note, id);
 	}
 
 	// ///////////////////////////////////////////
@@ -471,140 +807,332 @@ public class DataSource
 	//
 	// ///////////////////////////////////////////
 	/**
-	 * Removes the provided Walk from the database.<br>
+	 * Removes the walks with the provided IDs from the database, along with their GPS points, tracks, photos,
+	 * notes, stats, search rows, search terms and tags.<br>
 	 * <br>
-	 * First deletes the Photos, GeoPoints and Notes for the walk, and the walk entry from the database,
-	 * using a Thread so that it's run in the background and uses the UI thread as little as possible.
-	 * Deletes the actual walk on the UI thread so that the walk cannot be interacted with once it's deleted.
+	 * The walks are deleted DELETE_CHUNK_SIZE at a time, each chunk in one transaction, with one delete per
+	 * table for the whole chunk. The listener (if not null) is told after each chunk, and is asked whether to
+	 * stop before each one - so a cancelled delete always stops between chunks, leaving every walk either
+	 * fully deleted or untouched.<br>
+	 * <br>
+	 * Runs on the calling thread, so should be called from a background thread for more than a few walks.
+	 * 
+	 * @param ids		The IDs of the walks to delete
+	 * @param listener	Told about each deleted chunk, and asked whether to stop. Can be null.
 	 * 
-	 * @param walk	The Walk to be removed from the database.
+	 * @return			The number of walks deleted
 	 */
-	public static void deleteWalk(Walk walk)
+	public static int deleteWalks(long[] ids, DeleteListener listener)
 	{
-		final long id = walk.getId();
+		int deleted = 0;
+		while (deleted < ids.length)
+		{
+			if (listener != null && listener.isCancelled()) break;
+
+			int size = Math.min(DELETE_CHUNK_SIZE, ids.length - deleted);
+			Object[] args = new Object[size];
+			for (int i = 0; i < size; i++)
+				args[i] = ids[deleted + i];
+			String inList = "(" + placeholders(size) + ")";
 
-		Thread thread = new Thread() {
-			@Override
-			public void run()
+			ArrayList<String> photoFiles = new ArrayList<String>();
+			DataSource.database.beginTransactionNonExclusive();
+			try
 			{
-				deletePhotosForWalk(id);
-				deleteGeoPointForWalk(id);
-				deleteNotesForWalk(id);
-				DataSource.database.delete(SQLiteHelper.TABLE_SEARCH, SQLiteHelper.SEARCH_WALK_ID + " = " + id,
-						null);
+				// The walks' text and photo files are read before their rows go
+				for (Walk walk : cursorToWalks(DataSource.statements.rawQuery(WALKS_IN_QUERY + inList, args)))
+					updateSearchTerms(walk, -1);
+
+				Cursor cursor = DataSource.statements.rawQuery(PHOTO_FILES_IN_QUERY + inList, args);
+				cursor.moveToFirst();
+				while (!cursor.isAfterLast())
+				{
+					photoFiles.add(cursor.getString(0));
+					cursor.moveToNext();
+				}
+				cursor.close();
+
+				for (String delete : WALK_CHUNK_DELETES)
+					DataSource.statements.executeUpdateDelete(delete + inList, args);
+				DataSource.statements.executeUpdateDelete(UNUSED_TAGS_DELETE);
+				DataSource.database.setTransactionSuccessful();
+			}
+			finally
+			{
+				DataSource.database.endTransaction();
+			}
+
+			for (int i = 0; i < size; i++)
+			{
+				invalidateWalk(ids[deleted + i]);
+				invalidateTrack(ids[deleted + i]);
 			}
-		};
-		thread.start();
 
-		// Removing the entry from the database
-		DataSource.database.delete(SQLiteHelper.TABLE_WALKS, SQLiteHelper.COLUMN_ID + " = " + id, null);
+			deleted += size;
+			if (listener != null) listener.onChunkDeleted(deleted, photoFiles);
+		}
+		return deleted;
 	}
 
 	/**
-	 * Removes the Notes for the provided walk from the database.
+	 * Removes the provided Note from the database.
 	 * 
-	 * @param walk	The Walk from which the Notes should be removed from the database.
+	 * @param id	The Note to be removed from the database.
 	 */
-	public static void deleteNotesForWalk(long id)
+	public static void deleteNote(Long id)
 	{
-		DataSource.database.delete(SQLiteHelper.TABLE_NOTES, SQLiteHelper.NOTES_WALK_ID + " = " + id, null);
+		DataSource.statements.executeUpdateDelete(STATS_REMOVE_NOTE, id);
+		DataSource.statements.executeUpdateDelete(NOTE_DELETE, id);
 	}
 
 	/**
-	 * Removes the GeoPoints for the provided walk id from the database.
+	 * Removes the provided Photo from the database.
 	 * 
-	 * @param id	The Walk ID for which the GeoPoints should be removed from the database.
+	 * @param id	The Photo to be removed from the database.
 	 */
-	private static void deleteGeoPointForWalk(long id)
+	public static void deletePhoto(long id)
 	{
-		DataSource.database.delete(SQLiteHelper.TABLE_GPS, SQLiteHelper.GPS_WALK_ID + " = " + id, null);
+		DataSource.statements.executeUpdateDelete(STATS_REMOVE_PHOTO, id);
+		DataSource.statements.executeUpdateDelete(PHOTO_DELETE, id);
 	}
 
 	/**
-	 * Removes the Photos for the provided walk from the database.
+	 * Removes the provided tags from all walks in the database, in one transaction. See changeTags.
 	 * 
-	 * @param walk	The Walk from which the Photos should be removed from the database.
+	 * @param checkedTags	The tags that should be removed.
 	 */
-	public static void deletePhotosForWalk(long id)
+	public static void deleteTags(ArrayList<Tag> checkedTags)
 	{
-		DataSource.database.delete(SQLiteHelper.TABLE_PHOTOS, SQLiteHelper.PHOTOS_WALK_ID + " = " + id, null);
+		changeTags(checkedTags, null);
 	}
 
 	/**
-	 * Removes the provided Note from the database.
+	 * Renames the provided tag on every walk that has it, in one transaction. If a walk already has a tag
+	 * with the new name, the two are merged. See changeTags.
 	 * 
-	 * @param id	The Note to be removed from the database.
+	 * @param tag		The tag to rename
+	 * @param newName	The new name for the tag
 	 */
-	public static void deleteNote(Long id)
+	public static void renameTag(Tag tag, String newName)
 	{
-		DataSource.database.delete(SQLiteHelper.TABLE_NOTES, SQLiteHelper.COLUMN_ID + " = " + id, null);
+		if (newName.length() == 0 || newName.equals(tag.getName())) return;
+
+		ArrayList<Tag> tags = new ArrayList<Tag>();
+		tags.add(tag);
+		changeTags(tags, new Tag(newName));
 	}
 
 	/**
-	 * Removes the provided Photo from the database.
+	 * Removes the provided tags from every walk that has them, and adds the provided new tag (if not null)
+	 * to those walks in their place.<br>
+	 * <br>
+	 * The whole change is one transaction of set-based statements, however many walks are affected. The
+	 * IDs of the walks with the tags are put into the temporary changed_walks table, and walk_tags and tags
+	 * are updated. Each changed walk's new tag string is built with tagString, the same as when the walk is
+	 * saved or edited, and written to the walks and search tables. Only the tags of a walk change, so its
+	 * search terms are worked out from its old and new tags and applied as one set of changes.
 	 * 
-	 * @param id	The Photo to be removed from the database.
+	 * @param oldTags	The tags to remove
+	 * @param newTag	The tag to add to every walk that had any of oldTags, or null
 	 */
-	public static void deletePhoto(long id)
+	private static void changeTags(ArrayList<Tag> oldTags, Tag newTag)
 	{
-		DataSource.database.delete(SQLiteHelper.TABLE_PHOTOS, SQLiteHelper.COLUMN_ID + " = " + id, null);
+		LinkedHashSet<Tag> uniqueTags = new LinkedHashSet<Tag>(oldTags);
+		if (uniqueTags.size() == 0) return;
+
+		Object[] names = tagFilterArgs(uniqueTags, 0);
+		String inList = "(" + placeholders(names.length) + ")";
+
+		DataSource.database.beginTransactionNonExclusive();
+		try
+		{
+			// Note which walks have any of the tags
+			DataSource.database.execSQL(CHANGED_WALKS_CREATE);
+			DataSource.statements.executeUpdateDelete(CHANGED_WALKS_CLEAR);
+			DataSource.statements.executeUpdateDelete(CHANGED_WALKS_INSERT + inList, names);
+
+			// Work out the walks' new tag strings, and how their search terms change
+			HashMap<String, Integer> termChanges = new HashMap<String, Integer>();
+			LinkedHashMap<Long, String> tagStrings = new LinkedHashMap<Long, String>();
+			for (Walk walk : cursorToWalks(DataSource.statements.rawQuery(CHANGED_WALKS_QUERY)))
+			{
+				LinkedHashSet<String> oldTerms = walkTerms(walk);
+				ArrayList<Tag> tags = walk.getTags() == null ? new ArrayList<Tag>() : walk.getTags();
+				tags.removeAll(uniqueTags);
+				if (newTag != null && !tags.contains(newTag)) tags.add(newTag);
+				walk.setTags(tags);
+				tagStrings.put(walk.getId(), tagString(tags));
+				LinkedHashSet<String> newTerms = walkTerms(walk);
+
+				for (String term : oldTerms)
+				{
+					if (!newTerms.contains(term)) addTermChange(termChanges, term, -1);
+				}
+				for (String term : newTerms)
+				{
+					if (!oldTerms.contains(term)) addTermChange(termChanges, term, 1);
+				}
+			}
+
+			// Move the walks from the old tags to the new one, and remove any tag no walk has any more
+			if (newTag != null)
+			{
+				DataSource.statements.executeInsert(TAG_INSERT, newTag.getName());
+				DataSource.statements.executeUpdateDelete(CHANGED_WALK_TAGS_INSERT, newTag.getName());
+			}
+			DataSource.statements.executeUpdateDelete(WALK_TAGS_DELETE_FOR_TAGS + inList + ")", names);
+			DataSource.statements.executeUpdateDelete(UNUSED_TAGS_DELETE);
+
+			// Write the changed walks' tag strings
+			for (Map.Entry<Long, String> entry : tagStrings.entrySet())
+			{
+				DataSource.statements.executeUpdateDelete(WALK_TAGS_UPDATE, entry.getValue(), entry.getKey());
+				DataSource.statements.executeUpdateDelete(SEARCH_TAGS_UPDATE, entry.getValue(), entry.getKey());
+			}
+			changeSearchTerms(termChanges);
+
+			DataSource.database.setTransactionSuccessful();
+		}
+		finally
+		{
+			DataSource.database.endTransaction();
+		}
+		invalidateWalks();
 	}
 
 	/**
-	 * Removes the provided tags from all walks in the database.<br>
-	 * <br>
-	 * Uses the virtual search table to find all walks that match any of the selected tags. Then
-	 * iterates through the Cursor, getting each Walk and the tags for that walk.<br>
-	 * <br>
-	 * It then uses ArrayList.removeAll to remove the Tags inside the checkedTags ArrayList from
-	 * the walk's tag ArrayList, applies this updated ArrayList to the walk, and submits this
-	 * change to the database.<br>
-	 * <br>
-	 * When the cursor has been iterated through, it then closes the cursor and ends.
+	 * Sorts the provided tags by name and converts them to the String form stored in the walks and search
+	 * tables - each name followed by TAG_PADDING. Every write of a tag string goes through here, so a walk's
+	 * tag string is the same however its tags were last changed.
 	 * 
-	 * @param checkedTags	The tags that should be removed.
+	 * @param tags	The walk's tags, or null
+	 * 
+	 * @return		The tags in String form, or an empty String if there are none
 	 */
-	public static void deleteTags(ArrayList<Tag> checkedTags)
+	private static String tagString(ArrayList<Tag> tags)
 	{
-		// Set up the query, using OR if there is more than one tag
-		String query = SQLiteHelper.SEARCH_WALK_TAGS + " MATCH '";
-		if (checkedTags.size() == 1)
+		if (tags == null) return "";
+
+		Collections.sort(tags);
+		String tagString = "";
+		for (Tag tag : tags)
 		{
-			query += checkedTags.get(0).getName() + "'";
+			if (tag.getName().length() == 0) continue;
+			tagString += tag.getName() + TAG_PADDING;
 		}
-		else
+		return tagString;
+	}
+
+	/**
+	 * Replaces the rows in walk_tags for the provided walk ID with the provided tags, adding any tag that
+	 * isn't in the tags table yet and removing any tag that no walk has any more.
+	 * 
+	 * @param id	The ID of the walk
+	 * @param tags	The walk's tags
+	 */
+	private static void writeTags(long id, ArrayList<Tag> tags)
+	{
+		DataSource.database.beginTransactionNonExclusive();
+		try
 		{
-			for (int i = 0; i < checkedTags.size() - 1; i++)
+			DataSource.statements.executeUpdateDelete(WALK_TAGS_DELETE_FOR_WALK, id);
+			if (tags != null)
 			{
-				query += checkedTags.get(i).getName() + " OR ";
+				for (Tag tag : tags)
+				{
+					if (tag.getName().length() == 0) continue;
+					DataSource.statements.executeInsert(TAG_INSERT, tag.getName());
+					DataSource.statements.executeInsert(WALK_TAG_INSERT, id, tag.getName());
+				}
 			}
-			query += checkedTags.get(checkedTags.size() - 1).getName() + "'";
+			DataSource.statements.executeUpdateDelete(UNUSED_TAGS_DELETE);
+			DataSource.database.setTransactionSuccessful();
 		}
+		finally
+		{
+			DataSource.database.endTransaction();
+		}
+	}
 
-		// Retrieve all walks that match this from the database
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_SEARCH, DataSource.searchColumns, query,
-				null, null, null, null);
-
-		if (cursor == null) return;
+	/**
+	 * Adds the provided change to the walk count of every term in the provided walk's name, description
+	 * and tags, adding any term that isn't in the search_terms table yet and removing any term that no
+	 * walk has any more. Only saved walks are in the search table, so this is never called for the walk
+	 * in progress.
+	 * 
+	 * @param walk		The walk whose terms are changed
+	 * @param change	1 when the walk's text is added to the search table, -1 when it's removed
+	 */
+	private static void updateSearchTerms(Walk walk, int change)
+	{
+		HashMap<String, Integer> termChanges = new HashMap<String, Integer>();
+		for (String term : walkTerms(walk))
+			termChanges.put(term, change);
+		changeSearchTerms(termChanges);
+	}
 
-		cursor.moveToFirst();
-		while (!cursor.isAfterLast())
+	/**
+	 * Returns the distinct search terms in the provided walk's name, description and tags.
+	 * 
+	 * @param walk	The walk
+	 * 
+	 * @return		The walk's terms
+	 */
+	private static LinkedHashSet<String> walkTerms(Walk walk)
+	{
+		String tagString = "";
+		if (walk.getTags() != null)
 		{
-			// Get the walk from the cursor
-			Walk walk = getWalkById(cursor.getLong(cursor.getColumnIndexOrThrow(SQLiteHelper.SEARCH_WALK_ID)));
+			for (Tag tag : walk.getTags())
+				tagString += tag.getName() + " ";
+		}
+		return SearchTerms.tokenize(walk.getName(), walk.getDescription(), tagString);
+	}
+
+	/**
+	 * Adds the provided change to a term's entry in a map of search term changes.
+	 * 
+	 * @param termChanges	The changes to each term's walk count
+	 * @param term			The term
+	 * @param change		The change to add
+	 */
+	private static void addTermChange(HashMap<String, Integer> termChanges, String term, int change)
+	{
+		Integer current = termChanges.get(term);
+		termChanges.put(term, current == null ? change : current + change);
+	}
 
-			// Get the tags for the walk in array form and remove the supplied tags to be removed
-			ArrayList<Tag> currentTags = walk.getTags();
-			currentTags.removeAll(checkedTags);
+	/**
+	 * Adds each of the provided changes to its term's walk count in the search_terms table, in one
+	 * transaction. Adds any term that isn't in the table yet and removes any term that no walk has any more.
+	 * 
+	 * @param termChanges	The change to each term's walk count
+	 */
+	private static void changeSearchTerms(HashMap<String, Integer> termChanges)
+	{
+		if (termChanges.size() == 0) return;
 
-			// Set up the walk's new tags and edit it in the database
-			walk.setTags(currentTags);
-			editWalk(walk);
-			cursor.moveToNext();
-		}
+		DataSource.database.beginTransactionNonExclusive();
+		try
+		{
+			boolean removed = false;
+			for (Map.Entry<String, Integer> entry : termChanges.entrySet())
+			{
+				int change = entry.getValue();
+				if (change == 0) continue;
 
-		// Close the cursor and return
-		cursor.close();
+				if (change > 0) DataSource.statements.executeInsert(SEARCH_TERM_INSERT, entry.getKey());
+				DataSource.statements.executeUpdateDelete(SEARCH_TERM_COUNT_UPDATE, change, entry.getKey());
+				if (change < 0) removed = true;
+			}
+			if (removed) DataSource.statements.executeUpdateDelete(UNUSED_SEARCH_TERMS_DELETE);
+			DataSource.database.setTransactionSuccessful();
+		}
+		finally
+		{
+			DataSource.database.endTransaction();
+		}
+		DataSource.searchTermsGeneration++;
 	}
 
 	// ///////////////////////////////////////////
@@ -612,6 +1140,29 @@ public class DataSource
 	// CursorTo... methods
 	//
 	// ///////////////////////////////////////////
+	/**
+	 * Converts every row of the provided Cursor to a Walk, closes the Cursor, and returns the Walks
+	 * 
+	 * @param cursor	Contains the data needed to make the Walk objects
+	 * 
+	 * @return			Returns the created Walks
+	 */
+	private static ArrayList<Walk> cursorToWalks(Cursor cursor)
+	{
+		ArrayList<Walk> walks = new ArrayList<Walk>(cursor.getCount());
+		cursor.moveToFirst();
+
+		// Add each Walk to the List
+		while (!cursor.isAfterLast())
+		{
+			walks.add(cursorToWalk(cursor));
+			cursor.moveToNext();
+		}
+
+		cursor.close();
+		return walks;
+	}
+
 	/**
 	 * Converts the provided Cursor to a Walk and returns it
 	 * 
@@ -652,18 +1203,81 @@ public class DataSource
 	}
 
 	/**
-	 * Converts the provided Cursor to a GeoPoint and returns it
+	 * Reads the stats row for the provided walk ID.
 	 * 
-	 * @param cursor	Contains the data needed to make a  object
+	 * @param id	The ID of the walk
 	 * 
-	 * @return				Returns the created 
+	 * @return		The walk's WalkStats, or null if the walk has no stats row
 	 */
-	private static GeoPoint cursorToGeoPoint(Cursor cursor)
+	private static WalkStats readStats(long id)
 	{
-		double latitude = cursor.getDouble(2);
-		double longitude = cursor.getDouble(3);
+		Cursor cursor = DataSource.statements.rawQuery(STATS_QUERY, id);
+		WalkStats stats = null;
+		if (cursor.moveToFirst())
+		{
+			stats = new WalkStats(cursor.getInt(1), cursor.getInt(2), cursor.getInt(3), cursor.getDouble(4),
+					cursor.getInt(5), cursor.getInt(6), cursor.getInt(7), cursor.getInt(8), cursor.getInt(9),
+					cursor.getInt(10));
+		}
+		cursor.close();
+		return stats;
+	}
+
+	/**
+	 * Calculates the stats for the provided walk ID from its Track and its rows in the photo and note tables.
+	 * Used by the deferred migrations to fill in walks that have no stats row.
+	 * 
+	 * @param id	The ID of the walk
+	 * 
+	 * @return		The walk's WalkStats
+	 */
+	static WalkStats calculateStats(long id)
+	{
+		Track track = readTrack(id);
+
+		WalkStats stats = new WalkStats();
+		stats.addTrack(track);
+		stats.setPhotoCount((int) DataSource.statements.simpleQueryForLong(PHOTO_COUNT_QUERY, id));
+		stats.setNoteCount((int) DataSource.statements.simpleQueryForLong(NOTE_COUNT_QUERY, id));
+		return stats;
+	}
+
+	/**
+	 * Writes the provided stats to the stats row for the provided walk ID, replacing any existing row. Used by
+	 * the deferred migrations as well.
+	 * 
+	 * @param id	The ID of the walk
+	 * @param stats	The walk's stats
+	 */
+	static void writeStats(long id, WalkStats stats)
+	{
+		DataSource.statements.executeInsert(STATS_REPLACE, id, stats.getPointCount(), stats.getPhotoCount(),
+				stats.getNoteCount(), stats.getDistance(), stats.getMinLatitudeE6(), stats.getMaxLatitudeE6(),
+				stats.getMinLongitudeE6(), stats.getMaxLongitudeE6(), stats.getLastLatitudeE6(),
+				stats.getLastLongitudeE6());
+	}
+
+	/**
+	 * Reads the walk's points from the tracks table, or from the gps table if it has no rows there. If the
+	 * deferred migrations convert the walk between the two reads, the gps rows have gone by the second, so the
+	 * tracks table is read once more.
+	 * 
+	 * @param id	The ID of the walk
+	 * 
+	 * @return		The walk's points
+	 */
+	private static Track readTrack(long id)
+	{
+		Track track = TrackCodec.read(DataSource.database, id);
+		if (track != null) return track;
 
-		return new GeoPoint((int) (latitude * 1E6), (int) (longitude * 1E6));
+		track = TrackCodec.readRows(DataSource.database, id);
+		if (track.size() == 0)
+		{
+			Track converted = TrackCodec.read(DataSource.database, id);
+			if (converted != null) return converted;
+		}
+		return track;
 	}
 
 	/**
@@ -690,148 +1304,338 @@ public class DataSource
 	//
 	// ///////////////////////////////////////////
 	/**
-	 * Searches through the virtual search table for the provided query and returns all walks
-	 * that match the query, sorted by the provided sort value.<br>
-	 * <br>
-	 * Sets up a sort String which contains either walk_id or name + ASC or DESC as appropriate.<br>
-	 * <br>
-	 * Then searches the search table for anything that matches the query. If null it returns null.
-	 * Otherwise, it iterates through the Cursor, creating a Walk for each row and adding it to an
-	 * ArrayList<Walk>. When done, it then closes the cursor and returns the walk list.
+	 * Returns the number of saved walks whose name, description or tags match the provided query.
 	 * 
 	 * @param query		The string to search for
-	 * @param sortValue	The sort value (date/name, ASC/DESC)
 	 * 
-	 * @return			An ArrayList of Walk objects that contain text matching the query
+	 * @return			The number of matching walks
 	 */
-	public static ArrayList<Walk> search(String query, int sortValue)
+	public static int getSearchCount(String query)
 	{
-		// Set up the sort value
-		String sort = "";
-		switch (sortValue)
-		{
-		case CustomListActivity.DATE_ASCENDING:
-			sort = SQLiteHelper.SEARCH_WALK_ID + " ASC";
-			break;
-		case CustomListActivity.DATE_DESCENDING:
-			sort = SQLiteHelper.SEARCH_WALK_ID + " DESC";
-			break;
-		case CustomListActivity.NAME_ASCENDING:
-			sort = SQLiteHelper.SEARCH_WALK_NAME + " ASC";
-			break;
-		case CustomListActivity.NAME_DESCENDING:
-			sort = SQLiteHelper.SEARCH_WALK_NAME + " DESC";
-			break;
-		}
+		return (int) DataSource.statements.simpleQueryForLong(SEARCH_COUNT_QUERY, query);
+	}
 
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_SEARCH, DataSource.searchColumns,
-				SQLiteHelper.TABLE_SEARCH + " MATCH '" + query + "'", null, null, null, sort);
+	/**
+	 * Returns the terms used in saved walks that start with the provided prefix, the terms in the most
+	 * walks first. The prefix is normalised as the search table's tokenizer would, and the terms are
+	 * read as one range of the search_terms index.
+	 * 
+	 * @param prefix	The start of the term
+	 * @param limit		The maximum number of terms to return
+	 * 
+	 * @return			The matching terms
+	 */
+	public static ArrayList<String> getSearchTerms(String prefix, int limit)
+	{
+		ArrayList<String> terms = new ArrayList<String>();
+		if (prefix.length() == 0) return terms;
 
-		if (cursor == null) return null;
+		// Every term starting with the prefix sorts from the prefix up to the prefix with its last
+		// character incremented
+		String start = SearchTerms.normalise(prefix);
+		String end = start.substring(0, start.length() - 1) + (char) (start.charAt(start.length() - 1) + 1);
 
-		ArrayList<Walk> walks = new ArrayList<Walk>();
+		Cursor cursor = DataSource.statements.rawQuery(SEARCH_TERMS_QUERY, start, end, limit);
 		cursor.moveToFirst();
-
 		while (!cursor.isAfterLast())
 		{
-			long id = cursor.getLong(cursor.getColumnIndex(SQLiteHelper.SEARCH_WALK_ID));
-			walks.add(getWalkById(id));
+			terms.add(cursor.getString(0));
 			cursor.moveToNext();
 		}
 		cursor.close();
-		return walks;
+		return terms;
+	}
+
+	/**
+	 * Returns a number that changes every time the search_terms table does, so that anything holding
+	 * the result of getSearchTerms can tell when to read it again.
+	 * 
+	 * @return	The current generation of the search terms
+	 */
+	public static int getSearchTermsGeneration()
+	{
+		return DataSource.searchTermsGeneration;
+	}
+
+	/**
+	 * Searches through the virtual search table for the provided query and returns one page of the walks
+	 * that match the query, sorted by the provided sort value.<br>
+	 * <br>
+	 * Each row of the search table has its walk's ID as its docid, so the matching walks are read from the
+	 * walks table by rowid in the same query as the search, and sorted and paged like the walk list. The
+	 * number of rows read depends on the number of results, not on a query per result.
+	 * 
+	 * @param query		The string to search for
+	 * @param sortValue	The sort value (date/name, ASC/DESC)
+	 * @param offset	The number of matching walks to skip
+	 * @param limit		The maximum number of walks to return
+	 * 
+	 * @return			An ArrayList of Walk objects that contain text matching the query
+	 */
+	public static ArrayList<Walk> search(String query, int sortValue, int offset, int limit)
+	{
+		Cursor cursor = DataSource.statements.rawQuery(SEARCH_QUERY + " ORDER BY " + walkSort(sortValue)
+				+ " LIMIT ? OFFSET ?", query, limit, offset);
+		return cursorToWalks(cursor);
 	}
 
 	/**
 	 * Stores a temporary walk (one the user is currently taking) in a permanent fashion.<br>
 	 * <br>
-	 * Used when the user saves an in-progress walk. Enters the provided walk  into the database. Uses the new
-	 * version of the walk to get the database's row ID, and then updates all photos, notes and GPS values to
-	 * have the saved walk ID as their walk_id foreign key. Then deletes the walk with ID 0 from the database.
+	 * Used when the user saves an in-progress walk. The walk's photos, notes, stats and all but the last chunk
+	 * of its track are already stored under its ID, so this writes the last chunk, updates the walk's text and
+	 * clears its in_progress flag, and adds it to the search table. None of this depends on the length of the
+	 * walk. Everything is done in one transaction.
 	 * 
 	 * @param receivedWalk	The walk the user has finished and wishes to save.
+	 * @param lastPoints	The GPS points recorded since the last chunk was added with addTrackChunk
 	 */
-	public static void saveWalk(Walk receivedWalk)
+	public static void saveWalk(Walk receivedWalk, Track lastPoints)
 	{
 		// Retrieve the in-progress walk, name and description
 		Walk walk = receivedWalk;
 		String name = walk.getName();
 		String description = walk.getDescription();
 
-		// Convert the tags to String form, separated by the TAG_PADDING value
-		String splitTags = "";
+		// Convert the tags to String form
 		ArrayList<Tag> tags = walk.getTags();
-		Collections.sort(tags);
-		Collections.sort(tags);
-		if (tags.size() > 0)
+		String splitTags = tagString(tags);
+
+		DataSource.database.beginTransactionNonExclusive();
+		try
 		{
-			for (int i = 0; i < tags.size() - 1; i++)
-			{
-				splitTags += tags.get(i).getName() + TAG_PADDING;
-			}
-			splitTags += tags.get(tags.size() - 1).getName();
+			addTrackChunk(walk.getId(), lastPoints);
+
+			// Mark the walk as saved, and insert it into the Search table
+			DataSource.statements.executeUpdateDelete(WALK_SAVE_UPDATE, name, description, splitTags, walk.getId());
+			DataSource.statements.executeInsert(SEARCH_INSERT, walk.getId(), name, description, splitTags);
+			updateSearchTerms(walk, 1);
+			writeTags(walk.getId(), tags);
+			DataSource.database.setTransactionSuccessful();
+		}
+		finally
+		{
+			DataSource.database.endTransaction();
 		}
+		invalidateWalk(walk.getId());
+		invalidateTrack(walk.getId());
+	}
 
-		// Creating the ContentValues and inserting the appropriate values
-		ContentValues values = new ContentValues();
-		values.put(SQLiteHelper.WALKS_NAME, name);
-		values.put(SQLiteHelper.WALKS_DESCRIPTION, description);
-		values.put(SQLiteHelper.WALKS_TAGS, splitTags);
-		values.put(SQLiteHelper.WALKS_DATE, walk.getDate());
+	/**
+	 * Removes a temporary in-progress walk from the database, used when the user cancels a walk.<br>
+	 * <br>
+	 * Deletes the walk and its track, Photos, Notes, stats and tags in one transaction.
+	 */
+	public static void cancelWalk()
+	{
+		DataSource.database.beginTransactionNonExclusive();
+		try
+		{
+			deleteWalksInProgress();
+			DataSource.database.setTransactionSuccessful();
+		}
+		finally
+		{
+			DataSource.database.endTransaction();
+		}
+		invalidateWalks();
+		invalidateTracks();
+	}
 
-		// Inserting the saved into the database with a non-0 ID and retrieving it as a Cursor
-		long insertId = DataSource.database.insert(SQLiteHelper.TABLE_WALKS, null, values);
-		Cursor cursor = DataSource.database.query(SQLiteHelper.TABLE_WALKS, DataSource.walksColumns,
-				SQLiteHelper.COLUMN_ID + " = " + insertId, null, null, null, null);
+	/**
+	 * Deletes every walk flagged as in progress, and all of their rows in the other tables. They were never
+	 * added to the search table, so the search terms are left alone. Must be called inside a transaction.
+	 */
+	private static void deleteWalksInProgress()
+	{
+		Cursor cursor = DataSource.statements.rawQuery(WALK_IN_PROGRESS_IDS_QUERY);
+		Object[] ids = new Object[cursor.getCount()];
 		cursor.moveToFirst();
-
-		// Converting the cursor to walk
-		walk = cursorToWalk(cursor);
+		for (int i = 0; i < ids.length; i++)
+		{
+			ids[i] = cursor.getLong(0);
+			cursor.moveToNext();
+		}
 		cursor.close();
+		if (ids.length == 0) return;
 
-		// Insert the saved walk into the Search table
-		ContentValues fts3Values = new ContentValues();
-		fts3Values.put(SQLiteHelper.SEARCH_WALK_ID, insertId);
-		fts3Values.put(SQLiteHelper.SEARCH_WALK_NAME, name);
-		fts3Values.put(SQLiteHelper.SEARCH_WALK_DESCRIPTION, description);
-		fts3Values.put(SQLiteHelper.SEARCH_WALK_TAGS, splitTags);
+		String inList = "(" + placeholders(ids.length) + ")";
+		for (String delete : WALK_CHUNK_DELETES)
+			DataSource.statements.executeUpdateDelete(delete + inList, ids);
+		DataSource.statements.executeUpdateDelete(UNUSED_TAGS_DELETE);
+	}
 
-		DataSource.database.insert(SQLiteHelper.TABLE_SEARCH, null, fts3Values);
+	/**
+	 * Writes the number of times each cached statement has been compiled and re-used to the log, along with
+	 * the walk cache's hits and misses.
+	 */
+	public static void logStatementHits()
+	{
+		if (DataSource.statements != null) DataSource.statements.logHits();
+		Log.d(TAG, "Walk cache: " + getWalkCacheHits() + " hits, " + getWalkCacheMisses() + " misses");
+	}
 
-		// Prepare to update the GPS, photo and note tables
-		ContentValues gpsValues = new ContentValues();
-		gpsValues.put(SQLiteHelper.GPS_WALK_ID, insertId);
+	/**
+	 * Removes the walk with the provided ID from the walk cache. Called after a transaction that changed
+	 * the walk has finished.
+	 * 
+	 * @param id	The ID of the walk
+	 */
+	private static void invalidateWalk(long id)
+	{
+		synchronized (DataSource.walkCacheLock)
+		{
+			DataSource.walkCacheGeneration++;
+			DataSource.walkCache.remove(id);
+		}
+	}
 
-		ContentValues photoValues = new ContentValues();
-		photoValues.put(SQLiteHelper.PHOTOS_WALK_ID, insertId);
+	/**
+	 * Empties the walk cache. Called after a transaction that changed several walks has finished.
+	 */
+	private static void invalidateWalks()
+	{
+		synchronized (DataSource.walkCacheLock)
+		{
+			DataSource.walkCacheGeneration++;
+			DataSource.walkCache.evictAll();
+		}
+	}
 
-		ContentValues noteValues = new ContentValues();
-		noteValues.put(SQLiteHelper.NOTES_WALK_ID, insertId);
+	/**
+	 * Removes the Track of the walk with the provided ID from the track cache. Called after a transaction
+	 * that changed the walk's points has finished.
+	 * 
+	 * @param id	The ID of the walk
+	 */
+	private static void invalidateTrack(long id)
+	{
+		synchronized (DataSource.trackCacheLock)
+		{
+			DataSource.trackCacheGeneration++;
+			DataSource.trackCache.remove(id);
+		}
+	}
 
-		// Update the GPS, Photo and Note tables
-		DataSource.database.update(SQLiteHelper.TABLE_GPS, gpsValues, SQLiteHelper.GPS_WALK_ID + " = " + 0, null);
-		DataSource.database.update(SQLiteHelper.TABLE_PHOTOS, photoValues,
-				SQLiteHelper.PHOTOS_WALK_ID + " = " + 0, null);
-		DataSource.database.update(SQLiteHelper.TABLE_NOTES, noteValues, SQLiteHelper.NOTES_WALK_ID + " = " + 0,
-				null);
+	/**
+	 * Empties the track cache. Called after a transaction that deleted several walks has finished.
+	 */
+	private static void invalidateTracks()
+	{
+		synchronized (DataSource.trackCacheLock)
+		{
+			DataSource.trackCacheGeneration++;
+			DataSource.trackCache.evictAll();
+		}
+	}
 
-		// Removing the old entry from the database
-		DataSource.database.delete(SQLiteHelper.TABLE_WALKS, SQLiteHelper.COLUMN_ID + " = " + 0, null);
+	/**
+	 * Empties the walk and track caches, so the next reads come from the database. Used by the benchmarks in
+	 * the test project, which time those reads.
+	 */
+	static void clearCaches()
+	{
+		invalidateWalks();
+		invalidateTracks();
 	}
 
 	/**
-	 * Removes a temporary in-progress walk from the database, used when the user cancels a walk.<br>
-	 * <br>
-	 * Deletes the GPS, Photos and Notes for a walk, and then deletes the actual walk from the database.
+	 * Returns the open database. Used by the benchmarks in the test project, which drop and recreate its
+	 * indexes.
+	 * 
+	 * @return	The database
 	 */
-	public static void cancelWalk()
+	static SQLiteDatabase getDatabase()
+	{
+		return DataSource.database;
+	}
+
+	/**
+	 * Returns a query selecting the IDs of the walks that have any (or all) of the provided tags, with one ?
+	 * per tag. The IN list already makes the SQL depend on the number of tags, so the HAVING count is written
+	 * into it rather than bound - a bound argument from rawQuery is text, and would never equal COUNT(*).
+	 * 
+	 * @param tags		The distinct tags to filter by
+	 * @param matchAll	True if a walk must have every tag
+	 * 
+	 * @return			The query
+	 */
+	private static String tagFilter(LinkedHashSet<Tag> tags, boolean matchAll)
+	{
+		String sql = TAGGED_WALK_IDS_QUERY + "(" + placeholders(tags.size()) + ") GROUP BY "
+				+ SQLiteHelper.TABLE_WALK_TAGS + "." + SQLiteHelper.WALK_TAGS_WALK_ID;
+		if (matchAll) sql += " HAVING COUNT(*) = " + tags.size();
+		return sql;
+	}
+
+	/**
+	 * Returns the arguments for a tagFilter query, with room for extra arguments after them.
+	 * 
+	 * @param tags		The distinct tags to filter by
+	 * @param extra		The number of empty places to leave at the end of the array
+	 * 
+	 * @return			The arguments
+	 */
+	private static Object[] tagFilterArgs(LinkedHashSet<Tag> tags, int extra)
+	{
+		Object[] args = new Object[tags.size() + extra];
+		int i = 0;
+		for (Tag tag : tags)
+			args[i++] = tag.getName();
+		return args;
+	}
+
+	/**
+	 * Returns the ORDER BY clause for the walks table matching the provided sort value. Every order ends
+	 * with the walk's _id, so walks with the same name always come in the same order and a page fetched
+	 * with LIMIT and OFFSET never repeats or skips one.
+	 * 
+	 * @param sortValue	The sort value (date/name, ASC/DESC)
+	 * 
+	 * @return			The columns and directions to sort by
+	 */
+	private static String walkSort(int sortValue)
 	{
-		// Deleting the GPS data and photos for this walk
-		deleteGeoPointForWalk(0);
-		deletePhotosForWalk(0);
-		deleteNotesForWalk(0);
+		switch (sortValue)
+		{
+		case CustomListActivity.DATE_DESCENDING:
+			return SQLiteHelper.COLUMN_ID + " DESC";
+		case CustomListActivity.NAME_ASCENDING:
+			return SQLiteHelper.WALKS_NAME + " ASC, " + SQLiteHelper.COLUMN_ID + " ASC";
+		case CustomListActivity.NAME_DESCENDING:
+			return SQLiteHelper.WALKS_NAME + " DESC, " + SQLiteHelper.COLUMN_ID + " DESC";
+		default:
+			return SQLiteHelper.COLUMN_ID + " ASC";
+		}
+	}
 
-		// Removing the entry from the database
-		DataSource.database.delete(SQLiteHelper.TABLE_WALKS, SQLiteHelper.COLUMN_ID + " = " + 0, null);
+	/**
+	 * Joins the provided column names into a comma separated list for a SELECT.
+	 * 
+	 * @param columns	The column names
+	 * 
+	 * @return			The column names, separated by commas
+	 */
+	private static String columnList(String[] columns)
+	{
+		String list = columns[0];
+		for (int i = 1; i < columns.length; i++)
+			list += ", " + columns[i];
+		return list;
+	}
+
+	/**
+	 * Creates a comma separated list of the provided number of ?s, for an IN list of bound arguments.
+	 * 
+	 * @param count	The number of ?s
+	 * 
+	 * @return		The ?s, separated by commas
+	 */
+	private static String placeholders(int count)
+	{
+		String list = "?";
+		for (int i = 1; i < count; i++)
+			list += ", ?";
+		return list;
 	}
 }
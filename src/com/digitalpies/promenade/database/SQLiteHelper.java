@@ -1,19 +1,35 @@
 package com.digitalpies.promenade.database;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 
 /**
  * This class manages creating and upgrading the database, and contains all of the Strings needed to access any table
- * and column in the database.
+ * and column in the database.<br>
+ * <br>
+ * onCreate always creates the newest schema. onUpgrade steps an existing database through every version in
+ * between - a schema change means adding the new version's step to upgradeFrom, not wiping the user's walks.
  * 
  * @author Alex Hardwicke
  */
 public class SQLiteHelper extends SQLiteOpenHelper
 {
+	private static final String TAG = "SQLiteHelper";
+
 	public static final String DATABASE_NAME = "promenade.db";
-	public static final int DATABASE_VERSION = 8;
+	public static final int DATABASE_VERSION = 15;
+
+	// The oldest version that can be upgraded without losing data
+	private static final int FIRST_MIGRATABLE_VERSION = 8;
+	// The number of walks whose data is copied per transaction by the deferred migrations
+	private static final int CONVERT_BATCH_SIZE = 20;
 
 	public static final String COLUMN_ID = "_id";
 
@@ -22,11 +38,17 @@ public class SQLiteHelper extends SQLiteOpenHelper
 	public static final String TABLE_PHOTOS = "photos";
 	public static final String TABLE_NOTES = "notes";
 	public static final String TABLE_SEARCH = "search";
+	public static final String TABLE_TRACKS = "tracks";
+	public static final String TABLE_WALK_STATS = "walk_stats";
+	public static final String TABLE_TAGS = "tags";
+	public static final String TABLE_WALK_TAGS = "walk_tags";
+	public static final String TABLE_SEARCH_TERMS = "search_terms";
 
 	public static final String WALKS_NAME = "name";
 	public static final String WALKS_DESCRIPTION = "description";
 	public static final String WALKS_TAGS = "tags";
 	public static final String WALKS_DATE = "date";
+	public static final String WALKS_IN_PROGRESS = "in_progress";
 
 	public static final String GPS_WALK_ID = "walk_id";
 	public static final String GPS_LATITUDE = "latitude";
@@ -42,14 +64,47 @@ public class SQLiteHelper extends SQLiteOpenHelper
 	public static final String NOTES_LONGITUDE = "longitude";
 	public static final String NOTES_NOTE = "note";
 
-	public static final String SEARCH_WALK_ID = "walk_id";
+	// The search table's rowid, which is set to the _id of the walk each row indexes
+	public static final String SEARCH_DOCID = "docid";
 	public static final String SEARCH_WALK_NAME = "name";
 	public static final String SEARCH_WALK_DESCRIPTION = "description";
 	public static final String SEARCH_WALK_TAGS = "tags";
 
+	public static final String TRACKS_WALK_ID = "walk_id";
+	public static final String TRACKS_CHUNK = "chunk";
+	public static final String TRACKS_POINT_COUNT = "point_count";
+	public static final String TRACKS_DATA = "data";
+
+	public static final String STATS_WALK_ID = "walk_id";
+	public static final String STATS_POINT_COUNT = "point_count";
+	public static final String STATS_PHOTO_COUNT = "photo_count";
+	public static final String STATS_NOTE_COUNT = "note_count";
+	public static final String STATS_DISTANCE = "distance";
+	public static final String STATS_MIN_LATITUDE = "min_latitude";
+	public static final String STATS_MAX_LATITUDE = "max_latitude";
+	public static final String STATS_MIN_LONGITUDE = "min_longitude";
+	public static final String STATS_MAX_LONGITUDE = "max_longitude";
+	public static final String STATS_LAST_LATITUDE = "last_latitude";
+	public static final String STATS_LAST_LONGITUDE = "last_longitude";
+
+	public static final String TAGS_NAME = "name";
+
+	public static final String WALK_TAGS_WALK_ID = "walk_id";
+	public static final String WALK_TAGS_TAG_ID = "tag_id";
+
+	public static final String SEARCH_TERMS_TERM = "term";
+	public static final String SEARCH_TERMS_WALK_COUNT = "walk_count";
+
+	public static final String INDEX_GPS_WALK_ID = "gps_walk_id_index";
+	public static final String INDEX_PHOTOS_WALK_ID = "photos_walk_id_index";
+	public static final String INDEX_NOTES_WALK_ID = "notes_walk_id_index";
+	public static final String INDEX_WALK_TAGS_TAG_ID = "walk_tags_tag_id_index";
+
+	// in_progress is 1 for the walk being recorded, which has its own _id from the start, and 0 once it's saved
 	public static final String WALKS_CREATE = "create table " + TABLE_WALKS + "(" + COLUMN_ID
 			+ " integer primary key autoincrement, " + WALKS_NAME + " text not null, " + WALKS_DESCRIPTION
-			+ " text not null, " + WALKS_TAGS + " text not null, " + WALKS_DATE + " text not null);";
+			+ " text not null, " + WALKS_TAGS + " text not null, " + WALKS_DATE + " text not null, "
+			+ WALKS_IN_PROGRESS + " integer not null default 0);";
 	public static final String GPS_CREATE = "create table " + TABLE_GPS + "(" + COLUMN_ID
 			+ " integer primary key autoincrement, " + GPS_WALK_ID + " integer, " + GPS_LATITUDE + " real, "
 			+ GPS_LONGITUDE + " real);";
@@ -59,8 +114,44 @@ public class SQLiteHelper extends SQLiteOpenHelper
 	public static final String NOTES_CREATE = "create table " + TABLE_NOTES + "(" + COLUMN_ID
 			+ " integer primary key autoincrement, " + NOTES_WALK_ID + " integer, " + NOTES_LATITUDE + " real, "
 			+ NOTES_LONGITUDE + " real, " + NOTES_NOTE + " text not null);";
-	public static final String SEARCH_CREATE = "create virtual table " + TABLE_SEARCH + " using FTS3 (" + SEARCH_WALK_ID
-			+ " integer, " + SEARCH_WALK_NAME + " TEXT, " + SEARCH_WALK_DESCRIPTION + " TEXT, " + SEARCH_WALK_TAGS + ", TEXT);";
+	// Each row's docid is its walk's _id, so search hits join to walks by rowid
+	public static final String SEARCH_CREATE = "create virtual table " + TABLE_SEARCH + " using FTS3 ("
+			+ SEARCH_WALK_NAME + " TEXT, " + SEARCH_WALK_DESCRIPTION + " TEXT, " + SEARCH_WALK_TAGS + " TEXT);";
+	public static final String TRACKS_CREATE = "create table " + TABLE_TRACKS + "(" + TRACKS_WALK_ID
+			+ " integer not null, " + TRACKS_CHUNK + " integer not null, " + TRACKS_POINT_COUNT + " integer not null, "
+			+ TRACKS_DATA + " blob not null, primary key (" + TRACKS_WALK_ID + ", " + TRACKS_CHUNK + "));";
+	// One row per walk, kept up to date as points, photos and notes are added and removed. The latitudes and
+	// longitudes are in microdegrees, and the distance is in metres.
+	public static final String WALK_STATS_CREATE = "create table " + TABLE_WALK_STATS + "(" + STATS_WALK_ID
+			+ " integer primary key, " + STATS_POINT_COUNT + " integer not null, " + STATS_PHOTO_COUNT
+			+ " integer not null, " + STATS_NOTE_COUNT + " integer not null, " + STATS_DISTANCE + " real not null, "
+			+ STATS_MIN_LATITUDE + " integer not null, " + STATS_MAX_LATITUDE + " integer not null, "
+			+ STATS_MIN_LONGITUDE + " integer not null, " + STATS_MAX_LONGITUDE + " integer not null, "
+			+ STATS_LAST_LATITUDE + " integer not null, " + STATS_LAST_LONGITUDE + " integer not null);";
+
+	// Each tag name is stored once, and walk_tags links it to every walk that has it. The unique constraint
+	// indexes tags by name, and walk_tags' primary key indexes it by walk.
+	public static final String TAGS_CREATE = "create table " + TABLE_TAGS + "(" + COLUMN_ID
+			+ " integer primary key autoincrement, " + TAGS_NAME + " text not null unique);";
+	public static final String WALK_TAGS_CREATE = "create table " + TABLE_WALK_TAGS + "(" + WALK_TAGS_WALK_ID
+			+ " integer not null, " + WALK_TAGS_TAG_ID + " integer not null, primary key (" + WALK_TAGS_WALK_ID
+			+ ", " + WALK_TAGS_TAG_ID + "));";
+	// Every distinct term in the search table, with the number of saved walks that contain it. The primary
+	// key indexes the terms in order, so the terms starting with a prefix are one range of the index.
+	public static final String SEARCH_TERMS_CREATE = "create table " + TABLE_SEARCH_TERMS + "(" + SEARCH_TERMS_TERM
+			+ " text primary key, " + SEARCH_TERMS_WALK_COUNT + " integer not null);";
+
+	// Indexes for the per-walk lookups and deletes. The gps index covers every column that's read,
+	// in insertion order, so reading a walk's points never touches the table itself.
+	public static final String GPS_INDEX_CREATE = "create index " + INDEX_GPS_WALK_ID + " on " + TABLE_GPS + "("
+			+ GPS_WALK_ID + ", " + COLUMN_ID + ", " + GPS_LATITUDE + ", " + GPS_LONGITUDE + ");";
+	public static final String PHOTOS_INDEX_CREATE = "create index " + INDEX_PHOTOS_WALK_ID + " on " + TABLE_PHOTOS
+			+ "(" + PHOTOS_WALK_ID + ");";
+	public static final String NOTES_INDEX_CREATE = "create index " + INDEX_NOTES_WALK_ID + " on " + TABLE_NOTES + "("
+			+ NOTES_WALK_ID + ");";
+	// Index for finding the walks that have a tag
+	public static final String WALK_TAGS_INDEX_CREATE = "create index " + INDEX_WALK_TAGS_TAG_ID + " on "
+			+ TABLE_WALK_TAGS + "(" + WALK_TAGS_TAG_ID + ", " + WALK_TAGS_WALK_ID + ");";
 
 	public SQLiteHelper(Context context)
 	{
@@ -75,16 +166,337 @@ public class SQLiteHelper extends SQLiteOpenHelper
 		database.execSQL(PHOTOS_CREATE);
 		database.execSQL(NOTES_CREATE);
 		database.execSQL(SEARCH_CREATE);
+		database.execSQL(TRACKS_CREATE);
+		database.execSQL(WALK_STATS_CREATE);
+		database.execSQL(TAGS_CREATE);
+		database.execSQL(WALK_TAGS_CREATE);
+		database.execSQL(SEARCH_TERMS_CREATE);
+		database.execSQL(GPS_INDEX_CREATE);
+		database.execSQL(PHOTOS_INDEX_CREATE);
+		database.execSQL(NOTES_INDEX_CREATE);
+		database.execSQL(WALK_TAGS_INDEX_CREATE);
 	}
 
+	/**
+	 * Upgrades the database one version at a time, from oldVersion to newVersion.<br>
+	 * <br>
+	 * Each step only changes what it has to for its version, so user data is kept. SQLiteOpenHelper runs
+	 * the whole of onUpgrade, and the change of version, in one transaction, so the upgrade is atomic as a
+	 * whole - if any step fails, every step is rolled back and the database stays at oldVersion, to be
+	 * upgraded from there again the next time it's opened. Steps that would have to copy a large amount of
+	 * data only set up the new schema - the copy is done in batches afterwards by runDeferredMigrations, so
+	 * it doesn't hold up opening the app.<br>
+	 * <br>
+	 * Databases older than FIRST_MIGRATABLE_VERSION have no upgrade path, so are dropped and
+	 * re-created as before.
+	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion)
 	{
-		database.execSQL("DROP TABLE IF EXISTS " + TABLE_WALKS);
-		database.execSQL("DROP TABLE IF EXISTS " + TABLE_GPS);
-		database.execSQL("DROP TABLE IF EXISTS " + TABLE_PHOTOS);
-		database.execSQL("DROP TABLE IF EXISTS " + TABLE_NOTES);
-		database.execSQL("DROP TABLE IF EXISTS " + TABLE_SEARCH);
-		onCreate(database);
+		if (oldVersion < FIRST_MIGRATABLE_VERSION)
+		{
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_WALKS);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_GPS);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_PHOTOS);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_NOTES);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_SEARCH);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_TRACKS);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_WALK_STATS);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_TAGS);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_WALK_TAGS);
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_SEARCH_TERMS);
+			onCreate(database);
+			return;
+		}
+
+		for (int version = oldVersion; version < newVersion; version++)
+		{
+			upgradeFrom(database, version);
+			Log.d(TAG, "Upgraded database from version " + version + " to " + (version + 1));
+		}
+	}
+
+	/**
+	 * Runs the single upgrade step that takes the database from the provided version to the next.
+	 * 
+	 * @param database	The database being upgraded
+	 * @param version	The version the database is currently at
+	 */
+	private static void upgradeFrom(SQLiteDatabase database, int version)
+	{
+		switch (version)
+		{
+		case 8:
+			// Saved walks' GPS points move into the tracks table. The rows are converted by
+			// runDeferredMigrations - until then, they're still read from the gps table.
+			database.execSQL(TRACKS_CREATE);
+			break;
+		case 9:
+			// Indexes on walk_id for the gps, photos and notes tables
+			database.execSQL(GPS_INDEX_CREATE);
+			database.execSQL(PHOTOS_INDEX_CREATE);
+			database.execSQL(NOTES_INDEX_CREATE);
+			break;
+		case 10:
+			// The walk_stats table. Rows for existing walks are filled in by runDeferredMigrations.
+			database.execSQL(WALK_STATS_CREATE);
+			break;
+		case 11:
+			// The tags and walk_tags tables, filled from each walk's tag string. There's one row per walk to
+			// read, so this is done here rather than deferred.
+			database.execSQL(TAGS_CREATE);
+			database.execSQL(WALK_TAGS_CREATE);
+			database.execSQL(WALK_TAGS_INDEX_CREATE);
+			copyTagsFromWalks(database);
+			break;
+		case 12:
+			// The search table is keyed on the walk's _id as its docid, rather than holding a walk_id column
+			// that could only be found by scanning the table. It only copies the walks table's text, so it's
+			// rebuilt from there.
+			database.execSQL("DROP TABLE IF EXISTS " + TABLE_SEARCH);
+			database.execSQL(SEARCH_CREATE);
+			database.execSQL("INSERT INTO " + TABLE_SEARCH + " (" + SEARCH_DOCID + ", " + SEARCH_WALK_NAME + ", "
+					+ SEARCH_WALK_DESCRIPTION + ", " + SEARCH_WALK_TAGS + ") SELECT " + COLUMN_ID + ", " + WALKS_NAME
+					+ ", " + WALKS_DESCRIPTION + ", " + WALKS_TAGS + " FROM " + TABLE_WALKS + " WHERE " + COLUMN_ID
+					+ " != 0");
+			break;
+		case 13:
+			// The search_terms table, filled from the text of every saved walk
+			database.execSQL(SEARCH_TERMS_CREATE);
+			copySearchTermsFromWalks(database);
+			break;
+		case 14:
+			// The walk in progress gets a real _id and the in_progress flag, rather than the reserved _id 0
+			database.execSQL("ALTER TABLE " + TABLE_WALKS + " ADD COLUMN " + WALKS_IN_PROGRESS
+					+ " integer not null default 0");
+			moveWalkInProgress(database);
+			break;
+		}
+	}
+
+	/**
+	 * Moves the walk with the reserved _id 0, if there is one, to a new _id flagged as in progress, along
+	 * with its rows in the other tables.
+	 * 
+	 * @param database	The database being upgraded
+	 */
+	private static void moveWalkInProgress(SQLiteDatabase database)
+	{
+		Cursor cursor = database.query(TABLE_WALKS, new String[] { COLUMN_ID }, COLUMN_ID + " = 0", null, null,
+				null, null);
+		boolean found = cursor.getCount() > 0;
+		cursor.close();
+		if (!found) return;
+
+		SQLiteStatement insert = database.compileStatement("INSERT INTO " + TABLE_WALKS + " (" + WALKS_NAME + ", "
+				+ WALKS_DESCRIPTION + ", " + WALKS_TAGS + ", " + WALKS_DATE + ", " + WALKS_IN_PROGRESS + ") SELECT "
+				+ WALKS_NAME + ", " + WALKS_DESCRIPTION + ", " + WALKS_TAGS + ", " + WALKS_DATE + ", 1 FROM "
+				+ TABLE_WALKS + " WHERE " + COLUMN_ID + " = 0");
+		long walkId = insert.executeInsert();
+		insert.close();
+
+		String[][] walkIdColumns = { { TABLE_GPS, GPS_WALK_ID }, { TABLE_PHOTOS, PHOTOS_WALK_ID },
+				{ TABLE_NOTES, NOTES_WALK_ID }, { TABLE_TRACKS, TRACKS_WALK_ID }, { TABLE_WALK_STATS, STATS_WALK_ID },
+				{ TABLE_WALK_TAGS, WALK_TAGS_WALK_ID } };
+		for (String[] column : walkIdColumns)
+			database.execSQL("UPDATE " + column[0] + " SET " + column[1] + " = " + walkId + " WHERE " + column[1]
+					+ " = 0");
+		database.execSQL("DELETE FROM " + TABLE_WALKS + " WHERE " + COLUMN_ID + " = 0");
+	}
+
+	/**
+	 * Fills the search_terms table with the terms in the name, description and tags of every saved walk.
+	 * 
+	 * @param database	The database being upgraded
+	 */
+	private static void copySearchTermsFromWalks(SQLiteDatabase database)
+	{
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		Cursor cursor = database.query(TABLE_WALKS, new String[] { WALKS_NAME, WALKS_DESCRIPTION, WALKS_TAGS },
+				COLUMN_ID + " != 0", null, null, null, null);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast())
+		{
+			for (String term : SearchTerms.tokenize(cursor.getString(0), cursor.getString(1), cursor.getString(2)))
+			{
+				Integer count = counts.get(term);
+				counts.put(term, count == null ? 1 : count + 1);
+			}
+			cursor.moveToNext();
+		}
+		cursor.close();
+
+		SQLiteStatement insert = database.compileStatement("INSERT INTO " + TABLE_SEARCH_TERMS + " ("
+				+ SEARCH_TERMS_TERM + ", " + SEARCH_TERMS_WALK_COUNT + ") VALUES (?, ?)");
+		for (Map.Entry<String, Integer> entry : counts.entrySet())
+		{
+			insert.bindString(1, entry.getKey());
+			insert.bindLong(2, entry.getValue());
+			insert.executeInsert();
+		}
+		insert.close();
+
+		Log.d(TAG, "Copied " + counts.size() + " search terms");
+	}
+
+	/**
+	 * Fills the tags and walk_tags tables from the TAG_PADDING separated tag string of every walk.
+	 * 
+	 * @param database	The database being upgraded
+	 */
+	private static void copyTagsFromWalks(SQLiteDatabase database)
+	{
+		SQLiteStatement insertTag = database.compileStatement("INSERT OR IGNORE INTO " + TABLE_TAGS + " ("
+				+ TAGS_NAME + ") VALUES (?)");
+		SQLiteStatement insertWalkTag = database.compileStatement("INSERT OR IGNORE INTO " + TABLE_WALK_TAGS + " ("
+				+ WALK_TAGS_WALK_ID + ", " + WALK_TAGS_TAG_ID + ") SELECT ?, " + COLUMN_ID + " FROM " + TABLE_TAGS
+				+ " WHERE " + TAGS_NAME + " = ?");
+
+		int walks = 0;
+		int links = 0;
+		Cursor cursor = database.query(TABLE_WALKS, new String[] { COLUMN_ID, WALKS_TAGS }, null, null, null, null,
+				null);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast())
+		{
+			long walkId = cursor.getLong(0);
+			for (String name : cursor.getString(1).split(DataSource.TAG_PADDING))
+			{
+				if (name.length() == 0) continue;
+
+				insertTag.bindString(1, name);
+				insertTag.executeInsert();
+				insertWalkTag.bindLong(1, walkId);
+				insertWalkTag.bindString(2, name);
+				insertWalkTag.executeInsert();
+				links++;
+			}
+			walks++;
+			cursor.moveToNext();
+		}
+		cursor.close();
+		insertTag.close();
+		insertWalkTag.close();
+
+		Log.d(TAG, "Copied " + links + " walk tags from " + walks + " walks");
+	}
+
+	/**
+	 * Completes any data copies that upgrade steps have left to be done in the background. Safe to
+	 * run every time the database is opened - if there's nothing left to copy, it returns after one
+	 * query.<br>
+	 * <br>
+	 * Each batch is done in its own transaction, so the database is only locked for one batch at
+	 * a time and other queries can run between batches.
+	 * 
+	 * @param database		The opened database
+	 * @param statements	The StatementCache of the opened database
+	 */
+	static void runDeferredMigrations(SQLiteDatabase database, StatementCache statements)
+	{
+		while (convertGeoPointsToTracks(database, statements))
+		{
+		}
+		while (fillWalkStats(database))
+		{
+		}
+	}
+
+	/**
+	 * Calculates and stores the stats of up to CONVERT_BATCH_SIZE walks that have no walk_stats row, in one
+	 * transaction. Run after the tracks have been converted, so the stats are read from the tracks table.<br>
+	 * <br>
+	 * Until a walk is filled in, DataSource calculates its stats on each read without storing them, so reads
+	 * never write.
+	 * 
+	 * @param database	The database being upgraded
+	 * 
+	 * @return			True if a batch was filled in, false if every walk has stats
+	 */
+	private static boolean fillWalkStats(SQLiteDatabase database)
+	{
+		database.beginTransactionNonExclusive();
+		try
+		{
+			Cursor cursor = database.rawQuery("SELECT " + COLUMN_ID + " FROM " + TABLE_WALKS + " WHERE " + COLUMN_ID
+					+ " NOT IN (SELECT " + STATS_WALK_ID + " FROM " + TABLE_WALK_STATS + ") LIMIT "
+					+ CONVERT_BATCH_SIZE, null);
+			if (cursor.getCount() == 0)
+			{
+				cursor.close();
+				return false;
+			}
+
+			int walks = 0;
+			cursor.moveToFirst();
+			while (!cursor.isAfterLast())
+			{
+				long walkId = cursor.getLong(0);
+				DataSource.writeStats(walkId, DataSource.calculateStats(walkId));
+				walks++;
+				cursor.moveToNext();
+			}
+			cursor.close();
+			database.setTransactionSuccessful();
+
+			Log.d(TAG, "Filled in the stats of " + walks + " walks");
+			return true;
+		}
+		finally
+		{
+			database.endTransaction();
+		}
+	}
+
+	/**
+	 * Moves the GPS points of up to CONVERT_BATCH_SIZE saved walks from the row-per-point gps table into
+	 * the tracks table, in one transaction.<br>
+	 * <br>
+	 * Nothing writes to the gps table any more - the walk in progress is recorded by GPSService's WalkLog -
+	 * so once these walks are converted it stays empty. Logs the size of the rows before and the encoded
+	 * tracks after.
+	 * 
+	 * @param database		The database being upgraded
+	 * @param statements	The StatementCache of the database, which holds the compiled tracks insert
+	 * 
+	 * @return				True if a batch was converted, false if there was nothing left to convert
+	 */
+	private static boolean convertGeoPointsToTracks(SQLiteDatabase database, StatementCache statements)
+	{
+		database.beginTransactionNonExclusive();
+		try
+		{
+			Cursor cursor = database.query(true, TABLE_GPS, new String[] { GPS_WALK_ID }, GPS_WALK_ID + " != 0", null,
+					null, null, null, String.valueOf(CONVERT_BATCH_SIZE));
+			if (cursor.getCount() == 0)
+			{
+				cursor.close();
+				return false;
+			}
+
+			int rows = 0;
+			int bytes = 0;
+			cursor.moveToFirst();
+			while (!cursor.isAfterLast())
+			{
+				long walkId = cursor.getLong(0);
+				Track track = TrackCodec.readRows(database, walkId);
+				rows += track.size();
+				bytes += TrackCodec.insert(statements, walkId, track);
+				database.delete(TABLE_GPS, GPS_WALK_ID + " = ?", new String[] { String.valueOf(walkId) });
+				cursor.moveToNext();
+			}
+			cursor.close();
+			database.setTransactionSuccessful();
+
+			// Each gps row holds two 8 byte REALs and two integer keys, plus its row header
+			Log.d(TAG, "Converted " + rows + " gps rows (at least " + rows * 24 + " bytes) into " + bytes
+					+ " bytes of tracks");
+			return true;
+		}
+		finally
+		{
+			database.endTransaction();
+		}
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+package com.digitalpies.promenade.database;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Splits walk text into the terms stored in the search_terms table, which is used to suggest completions
+ * while the user types a search.<br>
+ * <br>
+ * The rules match the FTS3 "simple" tokenizer used by the search table - a term is a run of ASCII letters
+ * and digits or non-ASCII characters, and ASCII letters are lower-cased - so every suggested term is one
+ * that the search table will match.
+ *
+ * @author Alex Hardwicke
+ */
+public final class SearchTerms
+{
+	private SearchTerms()
+	{
+	}
+
+	/**
+	 * Returns true if the provided character is part of a term, rather than a separator between terms.
+	 *
+	 * @param c	The character
+	 *
+	 * @return	True if the character is part of a term
+	 */
+	public static boolean isTermChar(char c)
+	{
+		return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Lower-cases the ASCII letters in the provided term, as the tokenizer does.
+	 *
+	 * @param term	The term
+	 *
+	 * @return		The normalised term
+	 */
+	public static String normalise(String term)
+	{
+		char[] chars = term.toCharArray();
+		for (int i = 0; i < chars.length; i++)
+		{
+			if (chars[i] >= 'A' && chars[i] <= 'Z') chars[i] += 'a' - 'A';
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Splits the provided texts into their distinct, normalised terms, in the order they first appear.
+	 * Null texts are skipped.
+	 *
+	 * @param texts	The texts to split
+	 *
+	 * @return		The terms
+	 */
+	static LinkedHashSet<String> tokenize(String... texts)
+	{
+		LinkedHashSet<String> terms = new LinkedHashSet<String>();
+		for (String text : texts)
+		{
+			if (text == null) continue;
+
+			int start = -1;
+			for (int i = 0; i <= text.length(); i++)
+			{
+				boolean termChar = i < text.length() && isTermChar(text.charAt(i));
+				if (termChar && start == -1)
+					start = i;
+				else if (!termChar && start != -1)
+				{
+					terms.add(normalise(text.substring(start, i)));
+					start = -1;
+				}
+			}
+		}
+		return terms;
+	}
+}
@@ -0,0 +1,245 @@
+package com.digitalpies.promenade.database;
+
+import java.util.Map;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Holds the compiled SQLiteStatements used by DataSource, keyed on their SQL, so that each statement is
+ * only compiled once while it's in use.<br>
+ * <br>
+ * Some SQL, such as an IN list with one ? per id, is built to fit its arguments, so the number of different
+ * strings isn't fixed. The cache holds at most MAX_STATEMENTS of them, and the least recently used
+ * statement is closed when it's pushed out - or, if another thread is still running it, once that thread
+ * has finished with it.<br>
+ * <br>
+ * Every value is passed in as a bound argument rather than concatenated into the SQL, so the SQL string
+ * is the same on every call and text containing quotes can't break the statement. Queries that return a
+ * Cursor can't be compiled into an SQLiteStatement, so they're run through rawQuery with bound arguments
+ * instead - as the SQL never changes, SQLiteDatabase's own statement cache re-uses the prepared query.<br>
+ * <br>
+ * The cache counts the statements it has compiled and evicted, and each cached statement counts the times
+ * it has been re-used, which can be written to the log with logHits to confirm that statements are being
+ * re-used. Queries run through rawQuery are compiled by SQLiteDatabase, not here, so they aren't counted.<br>
+ * <br>
+ * An SQLiteStatement's bindings can't be shared between threads, so each statement is locked from when
+ * its arguments are bound until it has been executed.
+ *
+ * @author Alex Hardwicke
+ */
+final class StatementCache
+{
+	private static final String TAG = "StatementCache";
+	private static final int MAX_STATEMENTS = 64;
+
+	private final SQLiteDatabase database;
+	private final LruCache<String, Entry> statements = new LruCache<String, Entry>(MAX_STATEMENTS) {
+		@Override
+		protected void entryRemoved(boolean evicted, String sql, Entry oldEntry, Entry newEntry)
+		{
+			synchronized (StatementCache.this)
+			{
+				oldEntry.evicted = true;
+				StatementCache.this.evictions++;
+				if (oldEntry.users == 0) oldEntry.statement.close();
+			}
+		}
+	};
+	private int compiles = 0;
+	private int evictions = 0;
+
+	StatementCache(SQLiteDatabase database)
+	{
+		this.database = database;
+	}
+
+	/**
+	 * Returns the cached entry for the provided SQL, compiling its statement if it isn't cached, and marks
+	 * it as in use so that it isn't closed if it's evicted. Every call must be followed by a call to
+	 * release once the statement has been executed.
+	 */
+	private synchronized Entry acquire(String sql)
+	{
+		Entry entry = this.statements.get(sql);
+		if (entry == null)
+		{
+			entry = new Entry(this.database.compileStatement(sql));
+			this.statements.put(sql, entry);
+			this.compiles++;
+		}
+		else
+		{
+			entry.hits++;
+		}
+		entry.users++;
+		return entry;
+	}
+
+	/**
+	 * Marks the provided entry as no longer in use by the caller, closing its statement if it has been
+	 * evicted and this was the last user.
+	 */
+	private synchronized void release(Entry entry)
+	{
+		entry.users--;
+		if (entry.evicted && entry.users == 0) entry.statement.close();
+	}
+
+	/**
+	 * Binds the provided arguments to the statement for the provided SQL and runs it as an insert.
+	 *
+	 * @param sql	The SQL of the insert
+	 * @param args	The values for each ? in the SQL, in order
+	 *
+	 * @return		The row ID of the inserted row, or -1 if the insert failed
+	 */
+	public long executeInsert(String sql, Object... args)
+	{
+		Entry entry = acquire(sql);
+		try
+		{
+			synchronized (entry.statement)
+			{
+				bind(entry.statement, args);
+				return entry.statement.executeInsert();
+			}
+		}
+		finally
+		{
+			release(entry);
+		}
+	}
+
+	/**
+	 * Binds the provided arguments to the statement for the provided SQL and runs it as an update or delete.
+	 *
+	 * @param sql	The SQL of the update or delete
+	 * @param args	The values for each ? in the SQL, in order
+	 *
+	 * @return		The number of rows changed
+	 */
+	public int executeUpdateDelete(String sql, Object... args)
+	{
+		Entry entry = acquire(sql);
+		try
+		{
+			synchronized (entry.statement)
+			{
+				bind(entry.statement, args);
+				return entry.statement.executeUpdateDelete();
+			}
+		}
+		finally
+		{
+			release(entry);
+		}
+	}
+
+	/**
+	 * Binds the provided arguments to the statement for the provided SQL and returns the single long it
+	 * selects, such as a COUNT(*).
+	 *
+	 * @param sql	The SQL of the query
+	 * @param args	The values for each ? in the SQL, in order
+	 *
+	 * @return		The value in the first column of the first row
+	 */
+	public long simpleQueryForLong(String sql, Object... args)
+	{
+		Entry entry = acquire(sql);
+		try
+		{
+			synchronized (entry.statement)
+			{
+				bind(entry.statement, args);
+				return entry.statement.simpleQueryForLong();
+			}
+		}
+		finally
+		{
+			release(entry);
+		}
+	}
+
+	/**
+	 * Runs a query that returns a Cursor, with the provided arguments bound to the SQL.
+	 *
+	 * @param sql	The SQL of the query
+	 * @param args	The values for each ? in the SQL, in order
+	 *
+	 * @return		The Cursor for the query
+	 */
+	public Cursor rawQuery(String sql, Object... args)
+	{
+		String[] selectionArgs = new String[args.length];
+		for (int i = 0; i < args.length; i++)
+			selectionArgs[i] = String.valueOf(args[i]);
+
+		return this.database.rawQuery(sql, selectionArgs);
+	}
+
+	/**
+	 * Returns the number of times the provided SQL has been used without needing to be compiled since it
+	 * was last compiled.
+	 *
+	 * @param sql	The SQL of the statement
+	 *
+	 * @return		The number of re-uses, or 0 if the statement isn't cached
+	 */
+	public synchronized int getHitCount(String sql)
+	{
+		Entry entry = this.statements.get(sql);
+		return entry == null ? 0 : entry.hits;
+	}
+
+	/**
+	 * Writes the number of statements compiled and evicted, and the re-use count of every cached statement,
+	 * to the log.
+	 */
+	public synchronized void logHits()
+	{
+		Log.d(TAG, this.compiles + " compiles, " + this.evictions + " evictions");
+		for (Map.Entry<String, Entry> entry : this.statements.snapshot().entrySet())
+			Log.d(TAG, entry.getValue().hits + " hits: " + entry.getKey());
+	}
+
+	private static void bind(SQLiteStatement statement, Object[] args)
+	{
+		statement.clearBindings();
+		for (int i = 0; i < args.length; i++)
+		{
+			Object arg = args[i];
+			if (arg == null)
+				statement.bindNull(i + 1);
+			else if (arg instanceof Double || arg instanceof Float)
+				statement.bindDouble(i + 1, ((Number) arg).doubleValue());
+			else if (arg instanceof Number)
+				statement.bindLong(i + 1, ((Number) arg).longValue());
+			else if (arg instanceof byte[])
+				statement.bindBlob(i + 1, (byte[]) arg);
+			else
+				statement.bindString(i + 1, arg.toString());
+		}
+	}
+
+	/**
+	 * A compiled statement, the number of threads using it and the number of times it has been re-used.
+	 * Only changed while holding the StatementCache's lock.
+	 */
+	private static class Entry
+	{
+		final SQLiteStatement statement;
+		int users = 0;
+		int hits = 0;
+		boolean evicted = false;
+
+		Entry(SQLiteStatement statement)
+		{
+			this.statement = statement;
+		}
+	}
+}
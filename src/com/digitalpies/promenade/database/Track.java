@@ -0,0 +1,295 @@
+package com.digitalpies.promenade.database;
+
+import com.google.android.maps.GeoPoint;
+
+/**
+ * Class used to hold the GPS points of a walk, both while it's being recorded and once retrieved from the
+ * database.<br>
+ * <br>
+ * The points are stored as two int arrays of latitudes and longitudes in microdegrees (the same
+ * E6 form that GeoPoint uses), so that a track doesn't need an object per point. A track of 100,000 points
+ * takes 800KB this way, against around 2.8MB as an ArrayList of GeoPoints (TrackMemoryTest in the test
+ * project measures both). The time and accuracy of each fix can be kept as well - their arrays are only
+ * created once the first point with them is added, and points added without them have a time and accuracy
+ * of 0.<br>
+ * <br>
+ * Points can only be added to the end of a track and are never changed afterwards, so slice() can return a
+ * view of part of a track that shares its arrays rather than copying them. Points are read by index, from
+ * 0 to size() - 1, or in order with the Points view returned by points().
+ *
+ * @author Alex Hardwicke
+ */
+public class Track
+{
+	private int[] latitudes;
+	private int[] longitudes;
+	private long[] times;
+	private float[] accuracies;
+	private final int offset;
+	private int size = 0;
+	private final boolean slice;
+
+	public Track(int capacity)
+	{
+		this.latitudes = new int[Math.max(capacity, 1)];
+		this.longitudes = new int[Math.max(capacity, 1)];
+		this.offset = 0;
+		this.slice = false;
+	}
+
+	/**
+	 * Creates a view of the points from offset to offset + size in the provided arrays. Used by slice().
+	 */
+	private Track(Track track, int offset, int size)
+	{
+		this.latitudes = track.latitudes;
+		this.longitudes = track.longitudes;
+		this.times = track.times;
+		this.accuracies = track.accuracies;
+		this.offset = offset;
+		this.size = size;
+		this.slice = true;
+	}
+
+	/**
+	 * Adds a point to the end of the track, growing the arrays if needed.
+	 *
+	 * @param latitudeE6	The latitude of the point in microdegrees
+	 * @param longitudeE6	The longitude of the point in microdegrees
+	 */
+	public void add(int latitudeE6, int longitudeE6)
+	{
+		if (this.slice) throw new UnsupportedOperationException("Can't add points to a slice of a track");
+
+		if (this.size == this.latitudes.length) grow();
+		this.latitudes[this.size] = latitudeE6;
+		this.longitudes[this.size] = longitudeE6;
+		this.size++;
+	}
+
+	/**
+	 * Adds a point to the end of the track along with the time and accuracy of the fix, growing the arrays
+	 * if needed.
+	 *
+	 * @param latitudeE6	The latitude of the point in microdegrees
+	 * @param longitudeE6	The longitude of the point in microdegrees
+	 * @param time			The time of the fix, in milliseconds since the epoch
+	 * @param accuracy		The accuracy of the fix in metres
+	 */
+	public void add(int latitudeE6, int longitudeE6, long time, float accuracy)
+	{
+		if (this.slice) throw new UnsupportedOperationException("Can't add points to a slice of a track");
+
+		if (this.times == null)
+		{
+			this.times = new long[this.latitudes.length];
+			this.accuracies = new float[this.latitudes.length];
+		}
+		if (this.size == this.latitudes.length) grow();
+		this.times[this.size] = time;
+		this.accuracies[this.size] = accuracy;
+		add(latitudeE6, longitudeE6);
+	}
+
+	/**
+	 * Adds every point of the provided track to the end of this one, with their times and accuracies if it
+	 * has them.
+	 *
+	 * @param track	The track to copy the points from
+	 */
+	public void addAll(Track track)
+	{
+		Points points = track.points();
+		while (points.moveToNext())
+		{
+			if (track.hasTimes())
+				add(points.getLatitudeE6(), points.getLongitudeE6(), points.getTime(), points.getAccuracy());
+			else
+				add(points.getLatitudeE6(), points.getLongitudeE6());
+		}
+	}
+
+	/**
+	 * Returns a view of the points from start (inclusive) to end (exclusive). The view shares the track's
+	 * arrays, so it costs the same however many points it covers. Points added to the track afterwards
+	 * aren't in the view, and points can't be added to the view itself.
+	 *
+	 * @param start	The index of the first point
+	 * @param end	The index after the last point
+	 *
+	 * @return		A Track of the points
+	 */
+	public Track slice(int start, int end)
+	{
+		if (start < 0 || end > this.size || start > end)
+			throw new IndexOutOfBoundsException("Slice " + start + "-" + end + " of a track of " + this.size);
+		return new Track(this, this.offset + start, end - start);
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Returns a view for reading the points of the track in order, without an object per point. Like a
+	 * Cursor, it starts before the first point, and moveToNext() moves it on to each point in turn. Points
+	 * added to the track afterwards aren't in the view.
+	 *
+	 * @return	A Points view of the track
+	 */
+	public Points points()
+	{
+		return new Points(slice(0, this.size));
+	}
+
+	/**
+	 * Returns the number of bytes used by the track's arrays, including any unused space at their ends. A
+	 * slice only counts its own points, so slices of the same track aren't counted more than once.
+	 *
+	 * @return	The size of the arrays in bytes
+	 */
+	public int getByteCount()
+	{
+		if (this.slice) return this.size * (this.times == null ? 8 : 20);
+
+		int bytes = (this.latitudes.length + this.longitudes.length) * 4;
+		if (this.times != null) bytes += this.times.length * 8 + this.accuracies.length * 4;
+		return bytes;
+	}
+
+	public int getLatitudeE6(int index)
+	{
+		return this.latitudes[this.offset + index];
+	}
+
+	public int getLongitudeE6(int index)
+	{
+		return this.longitudes[this.offset + index];
+	}
+
+	/**
+	 * Returns true if any point in the track was added with a time and accuracy.
+	 *
+	 * @return	True if getTime and getAccuracy hold the fixes' values
+	 */
+	public boolean hasTimes()
+	{
+		return this.times != null;
+	}
+
+	/**
+	 * @return	The time of the fix in milliseconds since the epoch, or 0 if it wasn't recorded
+	 */
+	public long getTime(int index)
+	{
+		return this.times == null ? 0 : this.times[this.offset + index];
+	}
+
+	/**
+	 * @return	The accuracy of the fix in metres, or 0 if it wasn't recorded
+	 */
+	public float getAccuracy(int index)
+	{
+		return this.accuracies == null ? 0 : this.accuracies[this.offset + index];
+	}
+
+	/**
+	 * Creates a GeoPoint for a single point, for the map methods that need one.
+	 *
+	 * @param index	The index of the point
+	 *
+	 * @return		A new GeoPoint at the point
+	 */
+	public GeoPoint getGeoPoint(int index)
+	{
+		return new GeoPoint(getLatitudeE6(index), getLongitudeE6(index));
+	}
+
+	/**
+	 * Doubles the size of the arrays.
+	 */
+	private void grow()
+	{
+		int capacity = this.latitudes.length * 2;
+		this.latitudes = copyOf(this.latitudes, capacity);
+		this.longitudes = copyOf(this.longitudes, capacity);
+		if (this.times != null)
+		{
+			long[] newTimes = new long[capacity];
+			float[] newAccuracies = new float[capacity];
+			System.arraycopy(this.times, 0, newTimes, 0, this.size);
+			System.arraycopy(this.accuracies, 0, newAccuracies, 0, this.size);
+			this.times = newTimes;
+			this.accuracies = newAccuracies;
+		}
+	}
+
+	private int[] copyOf(int[] array, int capacity)
+	{
+		int[] newArray = new int[capacity];
+		System.arraycopy(array, 0, newArray, 0, this.size);
+		return newArray;
+	}
+
+	/**
+	 * Reads the points of a track in order, one at a time. Returned by Track.points().
+	 *
+	 * @author Alex Hardwicke
+	 */
+	public static class Points
+	{
+		private final Track track;
+		private int index = -1;
+
+		private Points(Track track)
+		{
+			this.track = track;
+		}
+
+		/**
+		 * Moves on to the next point.
+		 *
+		 * @return	False if there are no more points
+		 */
+		public boolean moveToNext()
+		{
+			if (this.index < this.track.size) this.index++;
+			return this.index < this.track.size;
+		}
+
+		/**
+		 * @return	The index of the current point in the track
+		 */
+		public int getIndex()
+		{
+			return this.index;
+		}
+
+		public int getLatitudeE6()
+		{
+			return this.track.latitudes[this.track.offset + this.index];
+		}
+
+		public int getLongitudeE6()
+		{
+			return this.track.longitudes[this.track.offset + this.index];
+		}
+
+		/**
+		 * @return	The time of the fix in milliseconds since the epoch, or 0 if it wasn't recorded
+		 */
+		public long getTime()
+		{
+			return this.track.getTime(this.index);
+		}
+
+		/**
+		 * @return	The accuracy of the fix in metres, or 0 if it wasn't recorded
+		 */
+		public float getAccuracy()
+		{
+			return this.track.getAccuracy(this.index);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.digitalpies.promenade.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Converts Tracks to and from the compact binary form stored in the tracks table.<br>
+ * <br>
+ * A track is split into chunks of up to CHUNK_SIZE points, and each chunk is stored as one row.
+ * Inside a chunk, each point is stored as the difference from the previous point (the first point
+ * is stored as the difference from 0), latitude then longitude. Each difference is zig-zag encoded
+ * so that small negative values stay small, and then written as a varint - 7 bits per byte, with
+ * the top bit set on every byte but the last. Neighbouring GPS points are close together, so most
+ * points take two or three bytes per coordinate rather than the eight of a REAL column.
+ *
+ * @author Alex Hardwicke
+ */
+final class TrackCodec
+{
+	public static final int CHUNK_SIZE = 512;
+
+	private static final String[] tracksColumns = { SQLiteHelper.TRACKS_POINT_COUNT, SQLiteHelper.TRACKS_DATA };
+	private static final String[] gpsColumns = { SQLiteHelper.GPS_LATITUDE, SQLiteHelper.GPS_LONGITUDE };
+
+	private static final String TRACKS_INSERT = "INSERT INTO " + SQLiteHelper.TABLE_TRACKS + " ("
+			+ SQLiteHelper.TRACKS_WALK_ID + ", " + SQLiteHelper.TRACKS_CHUNK + ", " + SQLiteHelper.TRACKS_POINT_COUNT
+			+ ", " + SQLiteHelper.TRACKS_DATA + ") VALUES (?, ?, ?, ?)";
+
+	private TrackCodec()
+	{
+	}
+
+	/**
+	 * Encodes the points of the track from start (inclusive) to end (exclusive) into a chunk.
+	 *
+	 * @param track	The track to encode
+	 * @param start	The index of the first point in the chunk
+	 * @param end	The index after the last point in the chunk
+	 *
+	 * @return		The encoded chunk
+	 */
+	public static byte[] encode(Track track, int start, int end)
+	{
+		// Worst case is five bytes per coordinate
+		byte[] buffer = new byte[(end - start) * 10];
+		int position = 0;
+		int previousLatitude = 0;
+		int previousLongitude = 0;
+
+		for (int i = start; i < end; i++)
+		{
+			int latitude = track.getLatitudeE6(i);
+			int longitude = track.getLongitudeE6(i);
+			position = writeVarint(buffer, position, zigZag(latitude - previousLatitude));
+			position = writeVarint(buffer, position, zigZag(longitude - previousLongitude));
+			previousLatitude = latitude;
+			previousLongitude = longitude;
+		}
+
+		byte[] data = new byte[position];
+		System.arraycopy(buffer, 0, data, 0, position);
+		return data;
+	}
+
+	/**
+	 * Decodes a chunk, appending its points to the end of the provided track.
+	 *
+	 * @param data	The encoded chunk
+	 * @param count	The number of points in the chunk
+	 * @param track	The track the points are added to
+	 */
+	public static void decode(byte[] data, int count, Track track)
+	{
+		int position = 0;
+		int latitude = 0;
+		int longitude = 0;
+
+		for (int i = 0; i < count; i++)
+		{
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do
+			{
+				b = data[position++];
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			}
+			while ((b & 0x80) != 0);
+			latitude += (value >>> 1) ^ -(value & 1);
+
+			value = 0;
+			shift = 0;
+			do
+			{
+				b = data[position++];
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			}
+			while ((b & 0x80) != 0);
+			longitude += (value >>> 1) ^ -(value & 1);
+
+			track.add(latitude, longitude);
+		}
+	}
+
+	/**
+	 * Encodes the provided track and inserts it into the tracks table for the provided walk id,
+	 * one row per chunk. The insert is taken from the StatementCache and re-bound for each chunk.
+	 *
+	 * @param statements	The StatementCache of the database to insert into
+	 * @param walkId		The id of the walk the track belongs to
+	 * @param track			The track to insert
+	 *
+	 * @return				The total number of bytes of encoded data written
+	 */
+	static int insert(StatementCache statements, long walkId, Track track)
+	{
+		int bytes = 0;
+		for (int chunk = 0; chunk * CHUNK_SIZE < track.size(); chunk++)
+		{
+			int start = chunk * CHUNK_SIZE;
+			int end = Math.min(start + CHUNK_SIZE, track.size());
+			bytes += insertChunk(statements, walkId, chunk, track, start, end);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes the whole of the provided track as one chunk, and inserts it into the tracks table as the
+	 * provided chunk of the provided walk id. Used to add to a walk's track a chunk at a time.
+	 *
+	 * @param statements	The StatementCache of the database to insert into
+	 * @param walkId		The id of the walk the chunk belongs to
+	 * @param chunk			The number of the chunk in the walk's track
+	 * @param track			The points in the chunk, no more than CHUNK_SIZE of them
+	 *
+	 * @return				The number of bytes of encoded data written
+	 */
+	static int insertChunk(StatementCache statements, long walkId, int chunk, Track track)
+	{
+		return insertChunk(statements, walkId, chunk, track, 0, track.size());
+	}
+
+	/**
+	 * Encodes the points of the track from start (inclusive) to end (exclusive), and inserts them as one
+	 * chunk using the cached insert.
+	 *
+	 * @return	The number of bytes of encoded data written
+	 */
+	private static int insertChunk(StatementCache statements, long walkId, int chunk, Track track, int start, int end)
+	{
+		byte[] data = encode(track, start, end);
+		statements.executeInsert(TRACKS_INSERT, walkId, chunk, end - start, data);
+		return data.length;
+	}
+
+	/**
+	 * Reads the track for the provided walk id from the tracks table.
+	 *
+	 * @param database	The database to read from
+	 * @param walkId	The id of the walk
+	 *
+	 * @return			The decoded track, or null if the walk has no rows in the tracks table
+	 */
+	public static Track read(SQLiteDatabase database, long walkId)
+	{
+		Cursor cursor = database.query(SQLiteHelper.TABLE_TRACKS, tracksColumns, SQLiteHelper.TRACKS_WALK_ID + " = ?",
+				new String[] { String.valueOf(walkId) }, null, null, SQLiteHelper.TRACKS_CHUNK + " ASC");
+		if (!cursor.moveToFirst())
+		{
+			cursor.close();
+			return null;
+		}
+
+		// Total up the points first so that the arrays are allocated once
+		int size = 0;
+		while (!cursor.isAfterLast())
+		{
+			size += cursor.getInt(0);
+			cursor.moveToNext();
+		}
+
+		Track track = new Track(size);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast())
+		{
+			decode(cursor.getBlob(1), cursor.getInt(0), track);
+			cursor.moveToNext();
+		}
+		cursor.close();
+		return track;
+	}
+
+	/**
+	 * Reads the points for the provided walk id from the row-per-point gps table.
+	 *
+	 * @param database	The database to read from
+	 * @param walkId	The id of the walk
+	 *
+	 * @return			The track (empty if there are no rows)
+	 */
+	public static Track readRows(SQLiteDatabase database, long walkId)
+	{
+		Cursor cursor = database.query(SQLiteHelper.TABLE_GPS, gpsColumns, SQLiteHelper.GPS_WALK_ID + " = ?",
+				new String[] { String.valueOf(walkId) }, null, null, SQLiteHelper.COLUMN_ID + " ASC");
+		Track track = new Track(cursor.getCount());
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast())
+		{
+			track.add((int) (cursor.getDouble(0) * 1E6), (int) (cursor.getDouble(1) * 1E6));
+			cursor.moveToNext();
+		}
+		cursor.close();
+		return track;
+	}
+
+	private static int zigZag(int value)
+	{
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int writeVarint(byte[] buffer, int position, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		return position;
+	}
+}
@@ -0,0 +1,156 @@
+package com.digitalpies.promenade.database;
+
+import android.location.Location;
+
+/**
+ * Class used to hold the summary of a walk stored in the walk_stats table - the number of GPS points,
+ * photos and notes, the distance walked and the bounding box of the GPS points.<br>
+ * <br>
+ * The row is kept up to date as points, photos and notes are added and removed, so none of these values
+ * need the walk's child tables to be read. The last point is kept too, so that the distance of a new point
+ * can be added without reading back the rest of the track.
+ *
+ * @author Alex Hardwicke
+ */
+public class WalkStats
+{
+	private int pointCount = 0;
+	private int photoCount = 0;
+	private int noteCount = 0;
+	private double distance = 0;
+	private int minLatitude = 0;
+	private int maxLatitude = 0;
+	private int minLongitude = 0;
+	private int maxLongitude = 0;
+	private int lastLatitude = 0;
+	private int lastLongitude = 0;
+
+	private final float[] results = new float[1];
+
+	WalkStats()
+	{
+	}
+
+	WalkStats(int pointCount, int photoCount, int noteCount, double distance, int minLatitude, int maxLatitude,
+			int minLongitude, int maxLongitude, int lastLatitude, int lastLongitude)
+	{
+		this.pointCount = pointCount;
+		this.photoCount = photoCount;
+		this.noteCount = noteCount;
+		this.distance = distance;
+		this.minLatitude = minLatitude;
+		this.maxLatitude = maxLatitude;
+		this.minLongitude = minLongitude;
+		this.maxLongitude = maxLongitude;
+		this.lastLatitude = lastLatitude;
+		this.lastLongitude = lastLongitude;
+	}
+
+	/**
+	 * Adds a GPS point to the end of the walk, updating the point count, the bounding box and the
+	 * distance from the previous point.
+	 *
+	 * @param latitudeE6	The latitude of the point in microdegrees
+	 * @param longitudeE6	The longitude of the point in microdegrees
+	 */
+	void addPoint(int latitudeE6, int longitudeE6)
+	{
+		if (this.pointCount == 0)
+		{
+			this.minLatitude = this.maxLatitude = latitudeE6;
+			this.minLongitude = this.maxLongitude = longitudeE6;
+		}
+		else
+		{
+			Location.distanceBetween(this.lastLatitude / 1E6, this.lastLongitude / 1E6, latitudeE6 / 1E6,
+					longitudeE6 / 1E6, this.results);
+			this.distance += this.results[0];
+
+			this.minLatitude = Math.min(this.minLatitude, latitudeE6);
+			this.maxLatitude = Math.max(this.maxLatitude, latitudeE6);
+			this.minLongitude = Math.min(this.minLongitude, longitudeE6);
+			this.maxLongitude = Math.max(this.maxLongitude, longitudeE6);
+		}
+
+		this.lastLatitude = latitudeE6;
+		this.lastLongitude = longitudeE6;
+		this.pointCount++;
+	}
+
+	/**
+	 * Adds every point of the provided track to the end of the walk.
+	 *
+	 * @param track	The points to add
+	 */
+	void addTrack(Track track)
+	{
+		Track.Points points = track.points();
+		while (points.moveToNext())
+			addPoint(points.getLatitudeE6(), points.getLongitudeE6());
+	}
+
+	void setPhotoCount(int photoCount)
+	{
+		this.photoCount = photoCount;
+	}
+
+	void setNoteCount(int noteCount)
+	{
+		this.noteCount = noteCount;
+	}
+
+	public int getPointCount()
+	{
+		return this.pointCount;
+	}
+
+	public int getPhotoCount()
+	{
+		return this.photoCount;
+	}
+
+	public int getNoteCount()
+	{
+		return this.noteCount;
+	}
+
+	/**
+	 * Returns the distance of the walk, found by adding up the distance from each GPS point to the next.
+	 *
+	 * @return	The distance in metres
+	 */
+	public double getDistance()
+	{
+		return this.distance;
+	}
+
+	public int getMinLatitudeE6()
+	{
+		return this.minLatitude;
+	}
+
+	public int getMaxLatitudeE6()
+	{
+		return this.maxLatitude;
+	}
+
+	public int getMinLongitudeE6()
+	{
+		return this.minLongitude;
+	}
+
+	public int getMaxLongitudeE6()
+	{
+		return this.maxLongitude;
+	}
+
+	int getLastLatitudeE6()
+	{
+		return this.lastLatitude;
+	}
+
+	int getLastLongitudeE6()
+	{
+		return this.lastLongitude;
+	}
+}
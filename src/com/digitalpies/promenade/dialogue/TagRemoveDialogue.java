@@ -4,7 +4,6 @@ import java.util.ArrayList;
 
 import com.digitalpies.promenade.R;
 import com.digitalpies.promenade.database.Tag;
-import com.digitalpies.promenade.database.Walk;
 import com.digitalpies.promenade.walklist.CustomListActivity;
 
 import android.app.AlertDialog;
@@ -25,19 +24,17 @@ import android.os.Bundle;
  */
 public class TagRemoveDialogue extends DialogFragment
 {
-	private ArrayList<Walk> walks;
 	private String[] tagsString;
 	protected ArrayList<Tag> tags;
 	protected boolean[] checkedItems;
 
-	public final static String WALKS = "WALKS";
 	public final static String TAGS_STRING = "TAGS_STRING";
 	public final static String TAGS = "TAGS";
 	public final static String CHECKED_ITEMS = "CHECKED_ITEMS";
 
-	public static TagRemoveDialogue newInstance(ArrayList<Walk> walks, String[] tagsString, ArrayList<Tag> tags)
+	public static TagRemoveDialogue newInstance(String[] tagsString, ArrayList<Tag> tags)
 	{
-		return new TagRemoveDialogue(walks, tagsString, tags);
+		return new TagRemoveDialogue(tagsString, tags);
 	}
 
 	public TagRemoveDialogue()
@@ -45,10 +42,9 @@ public class TagRemoveDialogue extends DialogFragment
 		super();
 	}
 
-	private TagRemoveDialogue(ArrayList<Walk> walks, String[] tagsString, ArrayList<Tag> tags)
+	private TagRemoveDialogue(String[] tagsString, ArrayList<Tag> tags)
 	{
 		super();
-		this.walks = walks;
 		this.tagsString = tagsString;
 		this.tags = tags;
 		this.checkedItems = new boolean[tags.size()];
@@ -57,7 +53,6 @@ public class TagRemoveDialogue extends DialogFragment
 	@Override
 	public void onSaveInstanceState(Bundle outState)
 	{
-		outState.putParcelableArrayList(WALKS, this.walks);
 		outState.putStringArray(TAGS_STRING, this.tagsString);
 		outState.putParcelableArrayList(TAGS, this.tags);
 		outState.putBooleanArray(CHECKED_ITEMS, this.checkedItems);
@@ -68,7 +63,6 @@ public class TagRemoveDialogue extends DialogFragment
 	{
 		if (savedInstanceState != null)
 		{
-			this.walks = savedInstanceState.getParcelableArrayList(WALKS);
 			this.tagsString = savedInstanceState.getStringArray(TAGS_STRING);
 			this.tags = savedInstanceState.getParcelableArrayList(TAGS);
 			this.checkedItems = savedInstanceState.getBooleanArray(CHECKED_ITEMS);
@@ -7,13 +7,11 @@ import com.digitalpies.promenade.R;
 import com.digitalpies.promenade.database.DataSource;
 import com.digitalpies.promenade.database.Tag;
 import com.digitalpies.promenade.database.Walk;
-import com.google.android.maps.GeoPoint;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.graphics.drawable.Drawable;
-import android.location.Location;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -22,11 +20,10 @@ import android.widget.TextView;
 /**
  * A custom dialogue showing the user the details of the provided walk.<br>
  * <br>
- * Calculates the distance of the walk by calculating the distance from each GeoPoint
- * to the next, and stores the result in two doubles (miles and kilometres), both
- * rounded to 1 decimal place. This is done when the dialogue is first created and
- * then saved, so that it doesn't need to be recalculated if the dialogue is
- * re-created (e.g. on an orientation change).
+ * Reads the distance of the walk from the walk's stats, and stores it in two doubles
+ * (miles and kilometres), both rounded to 1 decimal place. This is done when the
+ * dialogue is first created and then saved, so that it doesn't need to be read again
+ * if the dialogue is re-created (e.g. on an orientation change).
  * 
  * @author Alex Hardwicke
  */
@@ -52,7 +49,7 @@ public class WalkDetailsDialogue extends DialogFragment
 	{
 		super();
 		this.walk = walk;
-		this.distances = calculateDistance(DataSource.getGeoPointsForWalk(walk));
+		this.distances = convertDistance(DataSource.getStatsForWalk(walk.getId()).getDistance());
 	}
 	
 	@Override
@@ -132,41 +129,22 @@ public class WalkDetailsDialogue extends DialogFragment
 	}
 
 	/**
-	 * Calculates the total distance amongst an ArrayList of GeoPoints.<br>
+	 * Converts the distance of the walk into miles and kilometres.<br>
 	 * <br>
 	 * This is called in the constructor that takes parameters (i.e. the constructor called
-	 * when the dialogue is first created, not when it is re-created on an orientation change).
-	 * This saves processing time for the user.<br>
+	 * when the dialogue is first created, not when it is re-created on an orientation change).<br>
 	 * <br>
-	 * Uses Location objects to calculate the distance from each geoPoint to the next, adding
-	 * the result to a double. After this, the result (in metres) is used to calculate the
-	 * distance in kilometres (divide by 1000), rounded to 1 d.p. The result is also used to
-	 * calculate the distance in miles (multiply by 0.000625, which is the same as dividing by
-	 * 1000 (to get to kilometres), and then multiplying by 5/8 (kilometres to miles).<br>
+	 * The distance (in metres) is used to calculate the distance in kilometres (divide by 1000),
+	 * rounded to 1 d.p. It is also used to calculate the distance in miles (multiply by 0.000625,
+	 * which is the same as dividing by 1000 (to get to kilometres), and then multiplying by 5/8
+	 * (kilometres to miles).<br>
 	 * 
-	 * @param geoPoints	The walk's ArrayList of GeoPoint objects
+	 * @param distance	The walk's distance in metres, from its WalkStats
 	 * 
 	 * @return	A two dimensional array containing the distance of the walk in miles and kilometres.
 	 */
-	private static double[] calculateDistance(ArrayList<GeoPoint> geoPoints)
+	private static double[] convertDistance(double distance)
 	{
-		double distance = 0;
-		Location locationStart = new Location("START");
-		Location locationEnd = new Location("END");
-		locationEnd.setLatitude(geoPoints.get(0).getLatitudeE6() / 1E6);
-		locationEnd.setLongitude(geoPoints.get(0).getLongitudeE6() / 1E6);
-		for (GeoPoint geoPoint : geoPoints)
-		{
-			// Copy locationEnd over so that only one has to be calculated
-			locationStart.setLatitude(locationEnd.getLatitude());
-			locationStart.setLongitude(locationEnd.getLongitude());
-			
-			locationEnd = new Location("END");
-			locationEnd.setLatitude(geoPoint.getLatitudeE6() / 1E6);
-			locationEnd.setLongitude(geoPoint.getLongitudeE6() / 1E6);
-			distance += locationStart.distanceTo(locationEnd);
-		}
-		
 		double kilometers = roundDouble(distance/1000);
 		double miles = roundDouble(distance * 0.000625);
 		
@@ -0,0 +1,28 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+
+/**
+ * A FixFilter that rejects fixes that are less accurate than a set number of metres, or have no accuracy.
+ *
+ * @author Alex Hardwicke
+ */
+public class AccuracyFilter implements FixFilter
+{
+	private final float maxAccuracy;
+
+	/**
+	 * @param maxAccuracy	The largest accuracy radius that's accepted, in metres
+	 */
+	public AccuracyFilter(float maxAccuracy)
+	{
+		this.maxAccuracy = maxAccuracy;
+	}
+
+	@Override
+	public Location filter(Location location)
+	{
+		if (!location.hasAccuracy() || location.getAccuracy() > this.maxAccuracy) return null;
+		return location;
+	}
+}
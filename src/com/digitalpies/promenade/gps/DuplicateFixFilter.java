@@ -0,0 +1,23 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+
+/**
+ * A FixFilter that rejects fixes at exactly the same position as the last one it passed on. These add
+ * nothing to the track, and are common when the receiver has no new data and repeats its last position.
+ *
+ * @author Alex Hardwicke
+ */
+public class DuplicateFixFilter implements FixFilter
+{
+	private Location last;
+
+	@Override
+	public Location filter(Location location)
+	{
+		if (this.last != null && this.last.getLatitude() == location.getLatitude()
+				&& this.last.getLongitude() == location.getLongitude()) return null;
+		this.last = location;
+		return location;
+	}
+}
@@ -0,0 +1,22 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+
+/**
+ * One stage of a FixFilterChain. Each fix GPSService receives is passed through the filters in turn, and a
+ * filter can reject it or replace it with a corrected fix.
+ *
+ * @author Alex Hardwicke
+ */
+public interface FixFilter
+{
+	/**
+	 * Checks a fix.
+	 *
+	 * @param location	The fix, as passed on by the previous filter
+	 *
+	 * @return			The fix to pass on to the next filter - either location or a corrected copy of it -
+	 * 					or null to reject it
+	 */
+	public Location filter(Location location);
+}
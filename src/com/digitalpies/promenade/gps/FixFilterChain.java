@@ -0,0 +1,70 @@
+package com.digitalpies.promenade.gps;
+
+import java.util.ArrayList;
+
+import android.location.Location;
+import android.util.Log;
+
+/**
+ * Passes each fix GPSService receives through a list of FixFilters in turn, so that noisy and repeated fixes
+ * are rejected before they're recorded or counted towards the walk's distance.<br>
+ * <br>
+ * The number of fixes rejected by each filter is counted, and logged by logCounts().
+ *
+ * @author Alex Hardwicke
+ */
+public class FixFilterChain
+{
+	private static final String TAG = "FixFilterChain";
+
+	private final ArrayList<FixFilter> filters = new ArrayList<FixFilter>();
+	private final ArrayList<Integer> rejected = new ArrayList<Integer>();
+	private int fixesReceived = 0;
+
+	/**
+	 * Adds a filter to the end of the chain.
+	 *
+	 * @param filter	The filter to add
+	 *
+	 * @return			The chain, so that calls can be chained
+	 */
+	public FixFilterChain add(FixFilter filter)
+	{
+		this.filters.add(filter);
+		this.rejected.add(0);
+		return this;
+	}
+
+	/**
+	 * Passes a fix through every filter in the chain, stopping at the first that rejects it.
+	 *
+	 * @param location	The fix
+	 *
+	 * @return			The fix returned by the last filter, or null if it was rejected
+	 */
+	public Location filter(Location location)
+	{
+		this.fixesReceived++;
+		for (int i = 0; i < this.filters.size(); i++)
+		{
+			location = this.filters.get(i).filter(location);
+			if (location == null)
+			{
+				this.rejected.set(i, this.rejected.get(i) + 1);
+				return null;
+			}
+		}
+		return location;
+	}
+
+	/**
+	 * Logs the number of fixes received and the number rejected by each filter. Used when the walk is finished.
+	 */
+	public void logCounts()
+	{
+		StringBuilder builder = new StringBuilder("Fixes received: " + this.fixesReceived);
+		for (int i = 0; i < this.filters.size(); i++)
+			builder.append(", " + this.filters.get(i).getClass().getSimpleName() + " rejected: " + this.rejected.get(i));
+		Log.d(TAG, builder.toString());
+	}
+}
@@ -1,9 +1,11 @@
 package com.digitalpies.promenade.gps;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.digitalpies.promenade.R;
 import com.digitalpies.promenade.database.DataSource;
+import com.digitalpies.promenade.database.Track;
 import com.digitalpies.promenade.database.Walk;
 import com.digitalpies.promenade.maps.MapWalkActivity;
 import com.digitalpies.promenade.walklist.WalkListActivity;
@@ -16,14 +18,20 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.content.res.Resources;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
 import android.preference.PreferenceManager;
+import android.util.Log;
 import android.widget.Toast;
 
 /**
@@ -32,13 +40,32 @@ import android.widget.Toast;
  * the application that GPS has locked on - this is used to allow the application to progress past
  * the "Start Walk" dialogue (or close a Progress dialogue if the user has already clicked start).<br>
  * <br>
- * When GPS is locked and the user has clicked start, the service starts tracking the walk. When the
- * LocationListener receives a new Location update, it checks if it's time to update the tracking data - 
- * this is set by a simple boolean that toggles on every x seconds (customisable in user preferences).<br>
+ * When GPS is locked and the user has clicked start, the service starts tracking the walk. A SamplingScheduler
+ * asks the LocationSource for fixes only as often as the walk needs them - based on the record interval in
+ * the user's preferences, the user's speed and whether they're standing still - and decides which of the
+ * fixes the LocationListener receives are recorded. Before that, a FixFilterChain rejects fixes that are
+ * inaccurate, repeated or imply an impossible speed, and can smooth the rest. A TrackSimplifier then drops the fixes that add nothing to
+ * the shape of the track, within a tolerance set in the user's preferences.<br>
  * <br>
- * The GPS data is used to create a GeoPoint which is sent on the the application, and if the Map activity
- * is open, to be drawn on the map. The data is also put into the database with a walk ID of 0 (which is
- * reserved for the current walk in progress).<br>
+ * The GPS data is added to the walk's Track, which is shared with the application, and if the Map activity
+ * is open, drawn on the map. The data is also appended to a WalkLog, a memory-mapped file that survives
+ * the app being killed. Each time a full chunk of points has been logged, it's added to the walk's track in the
+ * database, so only the last partial chunk is left to write when the walk is saved. If the system
+ * restarts the service in the middle of a walk, the points are read back from the log and tracking carries on.<br>
+ * <br>
+ * Fixes are received, filtered and written on a background HandlerThread, so recording never holds up the
+ * UI thread. Activities are only called on the UI thread, and the map is sent at most one update however many
+ * fixes arrive while it's busy drawing. The new points reach the map through a PointChannel, which the map
+ * drains in one go each time it's updated.<br>
+ * <br>
+ * Each field belongs to one thread, as grouped below. The recording thread lives as long as the service, and
+ * everything to do with a walk - opening the WalkLog, setting up the scheduler, filters and simplifier, saving,
+ * cancelling and shutting down - is posted to it, so it all happens in order and never waits on the UI
+ * thread or holds it up. The UI thread only reads the walk through the Track (under its lock), the
+ * PointChannel and the last position, which are published through volatile fields.<br>
+ * <br>
+ * The fixes normally come from the phone's GPS, but a test or benchmark can call setLocationSource() before
+ * the service is started to feed it from a MockLocationSource or a ReplayLocationSource instead.<br>
  * <br>
  * When the walk has been finished (either saved or cancelled), or the user has cancelled starting a walk,
  * then all data is cleared, and the service is ended.
@@ -47,28 +74,57 @@ import android.widget.Toast;
  */
 public class GPSService extends Service
 {
+	private static final String TAG = "GPSService";
 	private static final int NOTIFICATION_INT = 1;
 	private static final int DISMISSABLE_NOTIFICATION_INT = 2;
 
 	private static final String MAP_ACCURACY = "map_accuracy";
+	private static final String SIMPLIFY_TOLERANCE = "simplify_tolerance";
+	private static final String SMOOTH_TRACK = "smooth_track";
+
+	private static final float MAX_ACCURACY = 50;
+	private static final float MAX_SPEED = 15;
 
 	public static boolean isRunning = false;
 	public static boolean isCancelled = false;
-	public static boolean trackingWalk = false;
+	public static volatile boolean trackingWalk = false;
+	private static volatile LocationSource testLocationSource;
 
-	protected boolean gpsLocked = false;
-	protected boolean readyForUpdate = false;
+	// Only used on the UI thread
 	protected boolean mapOpen = false;
-	private boolean paused = false;
-	private boolean resumePressed = false;
-
-	protected ArrayList<GeoPoint> geoPoints;
 	protected MapWalkActivity mapWalkActivity;
 	protected WalkListActivity walkListActivity;
+	private HandlerThread recordingThread;
+	private Handler recordingHandler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
+	// Only used on the recording thread
+	private boolean gpsLocked = false;
+	private boolean resumePressed = false;
+	private WalkLog walkLog;
+	private Walk walk;
+	private int sealedPoints = 0;
 	private CustomLocationListener locationListener;
-	private LocationManager locationManager;
-	private Thread timer;
+	private LocationSource locationSource;
+	private SamplingScheduler scheduler;
+	private FixFilterChain filters;
+	private TrackSimplifier simplifier;
+
+	// Shared between the two
+	private volatile boolean paused = false;
+	private volatile Track track;
+	private volatile PointChannel channel;
+	private volatile Location position;
+	private final AtomicBoolean updatePosted = new AtomicBoolean(false);
+	private final Runnable mapUpdate = new Runnable() {
+		@Override
+		public void run()
+		{
+			GPSService.this.updatePosted.set(false);
+			if (GPSService.this.mapOpen && GPSService.this.mapWalkActivity != null)
+				GPSService.this.mapWalkActivity.newPoint();
+		}
+	};
 	private Notification trackingNotification;
 	private Notification pausedNotification;
 	private Notification waitingForGPSNotification;
@@ -98,55 +154,238 @@ public class GPSService extends Service
 	}
 
 	/**
-	 * Run when the service is started. Sets the application and datasource, starts GPS tracking,
-	 * and returns START_STICKY as this Service is sticky.
+	 * Run when the service is created. Starts the recording thread, which runs until the service is destroyed.
+	 */
+	@Override
+	public void onCreate()
+	{
+		super.onCreate();
+		this.recordingThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		this.recordingThread.start();
+		this.recordingHandler = new Handler(this.recordingThread.getLooper());
+	}
+
+	/**
+	 * Run when the service is destroyed. Stops the recording thread once everything already posted to it has
+	 * run, so a walk that has just been finished is still shut down cleanly.
+	 */
+	@Override
+	public void onDestroy()
+	{
+		this.recordingHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				Looper.myLooper().quit();
+			}
+		});
+		// A test's source only lasts until the service stops, so a restarted service never replays it
+		testLocationSource = null;
+		super.onDestroy();
+	}
+
+	/**
+	 * Run when the service is started. Shows the searching notification, then on the recording thread opens
+	 * the WalkLog and starts GPS tracking. Returns START_STICKY as this Service is sticky.<br>
+	 * <br>
+	 * A null intent means the system has restarted the service after killing it. If a walk was in progress,
+	 * its points are read back from the log and tracking resumes. Otherwise, a new walk is being started, so
+	 * the log is cleared.
 	 */
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId)
 	{
 		super.onStartCommand(intent, flags, startId);
-		startGPS();
+		DataSource.openDataSource(this);
+
+		final boolean restart = intent == null;
+		this.recordingHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				startRecording(restart);
+			}
+		});
 		showSearchingNotification();
-		this.geoPoints = new ArrayList<GeoPoint>();
+
 		return (START_STICKY);
 	}
 
+	/**
+	 * Opens the WalkLog, sets up the walk's Track and PointChannel and starts GPS. Run on the recording thread.
+	 * If the WalkLog can't be opened, no points could be kept safe, so the error is logged and the service
+	 * shuts down on the UI thread with recordingFailed instead.
+	 *
+	 * @param restart	Whether the system has restarted the service, so a walk in progress should be resumed
+	 */
+	private void startRecording(boolean restart)
+	{
+		if (this.walkLog == null)
+		{
+			try
+			{
+				this.walkLog = new WalkLog(this);
+			}
+			catch (IOException e)
+			{
+				Log.e(TAG, "Couldn't open the walk log, stopping", e);
+				this.mainHandler.post(new Runnable() {
+					@Override
+					public void run()
+					{
+						recordingFailed();
+					}
+				});
+				return;
+			}
+		}
+
+		boolean restarted = restart && this.walkLog.size() > 0 && DataSource.getWalkInProgress() != null;
+		Track track;
+		if (restarted)
+		{
+			track = this.walkLog.readTrack();
+		}
+		else
+		{
+			this.walkLog.clear();
+			track = new Track(DataSource.TRACK_CHUNK_SIZE);
+		}
+		// The channel is published first, so the UI thread never sees the new Track without it
+		this.channel = new PointChannel(track.size());
+		this.track = track;
+
+		startGPS();
+
+		if (restarted) startTrackingWalk();
+	}
+
+	/**
+	 * Run on the UI thread when the WalkLog couldn't be opened. Tells the user, then shuts the service down
+	 * through WalkListActivity if it's bound, so its dialogues are dismissed too, or with walkFinished if not.
+	 */
+	private void recordingFailed()
+	{
+		Toast.makeText(this, R.string.toast_walk_log_error, Toast.LENGTH_LONG).show();
+		if (this.walkListActivity != null)
+			this.walkListActivity.cancelGPS();
+		else
+			walkFinished();
+	}
+
 	/**
 	 * Run when a walk should start being tracked (GPS is locked on, the user has pushed start).
-	 * Sets trackingWalk to true and shows the tracking walk notification.
+	 * Sets trackingWalk to true, and then on the recording thread retrieves the walk in progress and the
+	 * number of its points already in the database, and shows the tracking walk notification.
 	 * 
 	 */
 	public void startTrackingWalk()
 	{
 		trackingWalk = true;
-		showTrackingNotification();
+		this.recordingHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				GPSService.this.walk = DataSource.getWalkInProgress();
+				restoreSealedPoints();
+				GPSService.this.scheduler.track(getRecordInterval());
+				sealChunks();
+				postShowTrackingNotification();
+			}
+		});
 	}
 
 	/**
-	 * Locks on to GPS and starts getting location updates. Gets the System LocationManager an
-	 * uses a custom Listener to handle the incoming data.
+	 * Locks on to GPS and starts getting location updates. Uses the LocationSource set by a test if there is
+	 * one, otherwise the phone's GPS through the System LocationManager, and uses a custom Listener to handle
+	 * the incoming data, with a SamplingScheduler deciding how often updates are requested.<br>
+	 * <br>
+	 * Run on the recording thread, which the listener is also called on, and which does all of the filtering
+	 * and writing of points. Nothing else touches the WalkLog, the scheduler, the filters or the simplifier,
+	 * so the UI thread is never held up by a fix arriving.
 	 */
 	private void startGPS()
 	{
-		this.locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+		LocationSource source = testLocationSource;
+		if (source != null && (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0)
+		{
+			Log.w(TAG, "Ignoring the test location source, as this isn't a debug build");
+			source = null;
+		}
+
+		if (source != null)
+			this.locationSource = source;
+		else
+			this.locationSource = new GpsLocationSource((LocationManager) getSystemService(Context.LOCATION_SERVICE));
 
 		this.locationListener = new CustomLocationListener();
+		this.scheduler = new SamplingScheduler(this.locationSource, this.locationListener, Looper.myLooper(),
+				getRecordInterval());
+		this.scheduler.search();
+
+		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+		this.simplifier = new TrackSimplifier(Integer.parseInt(preferences.getString(SIMPLIFY_TOLERANCE, "5")));
+
+		this.filters = new FixFilterChain().add(new StaleFixFilter()).add(new DuplicateFixFilter())
+				.add(new AccuracyFilter(MAX_ACCURACY)).add(new SpeedFilter(MAX_SPEED));
+		if (preferences.getBoolean(SMOOTH_TRACK, false)) this.filters.add(new KalmanFilter());
+	}
+
+	/**
+	 * Sets where the service gets its fixes from the next time it's started, in place of the phone's GPS. Used
+	 * by tests and benchmarks to drive the recording of a walk from a MockLocationSource or a
+	 * ReplayLocationSource.<br>
+	 * <br>
+	 * Only debug builds use the source, and it's cleared when the service is destroyed, so it has to be set
+	 * again before each start.
+	 *
+	 * @param source	The LocationSource to use, or null to go back to the phone's GPS
+	 */
+	public static void setLocationSource(LocationSource source)
+	{
+		testLocationSource = source;
+	}
 
-		this.locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this.locationListener);
+	/**
+	 * Reads the time between recorded points at walking pace from the user's preferences.
+	 *
+	 * @return	The record interval in milliseconds
+	 */
+	private long getRecordInterval()
+	{
+		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+		return 1000L * Integer.parseInt(preferences.getString(MAP_ACCURACY, "20"));
 	}
 
 	/**
 	 * Shuts down everything related to tracking a walk.<br>
 	 * <br>
-	 * Specifically, removes the locationListener, which disables GPS, sets the manager to null, sets
-	 * locked and isRunning to false, stops the notification and then stops itself.
+	 * Specifically, on the recording thread removes the locationListener, which disables GPS, clears and
+	 * closes the WalkLog (the walk has been saved or cancelled by now) and sets locked to false. Then sets
+	 * isRunning to false, stops the notification and then stops itself. The recording thread is stopped
+	 * once the service is destroyed. If the WalkLog couldn't be opened, GPS was never started, so there's
+	 * nothing to shut down on the recording thread.
 	 */
 	public void walkFinished()
 	{
-		this.locationManager.removeUpdates(this.locationListener);
-		this.locationManager = null;
-		
-		this.gpsLocked = false;
+		this.recordingHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				GPSService.this.gpsLocked = false;
+				if (GPSService.this.walkLog == null) return;
+
+				GPSService.this.scheduler.stop();
+				GPSService.this.scheduler.logCounts();
+				GPSService.this.filters.logCounts();
+				GPSService.this.simplifier.logCounts();
+				GPSService.this.walkLog.clear();
+				GPSService.this.walkLog.close();
+				GPSService.this.walkLog = null;
+				GPSService.this.locationSource = null;
+				DataSource.logStatementHits();
+			}
+		});
 
 		isRunning = false;
 
@@ -188,25 +427,38 @@ public class GPSService extends Service
 	}
 
 	/**
-	 * Shows the "Tracking walk" notification and sets up the "paused" notification.
+	 * Shows the "Tracking walk" notification on the UI thread. Used by the recording thread.
+	 */
+	private void postShowTrackingNotification()
+	{
+		this.mainHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				showTrackingNotification();
+			}
+		});
+	}
+
+	/**
+	 * Shows the "Tracking walk" notification and sets up the "paused" notification. If the walk was paused
+	 * before this ran, the paused notification is shown instead.
 	 */
 	public void showTrackingNotification()
 	{
 		// Get a Resources as it's used several times
 		Resources resources = getResources();
 
-		Walk walk = DataSource.getWalkById(0);
-		
 		// Set up the intent and pending intent
 		Intent notificationIntent = new Intent(this, MapWalkActivity.class);
-		notificationIntent.putExtra(WalkListActivity.WALK_TAG, walk);
+		notificationIntent.putExtra(WalkListActivity.WALK_TAG, this.walk);
 		notificationIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
 		PendingIntent contentIntent = PendingIntent.getActivity(this, 0, notificationIntent, PendingIntent.FLAG_UPDATE_CURRENT);
 
 		// Build a notification.
 		this.trackingNotification = new Notification.Builder(getApplicationContext())
 				.setContentTitle(resources.getString(R.string.app_name))
-				.setContentText(resources.getString(R.string.notification_walk) + " " + walk.getName())
+				.setContentText(resources.getString(R.string.notification_walk) + " " + this.walk.getName())
 				.setSmallIcon(R.drawable.notification).setTicker(resources.getString(R.string.notification_walk_ticker))
 				.setContentIntent(contentIntent).getNotification();
 		// Set the notification as a foreground service, so it can't be dismissed
@@ -215,40 +467,13 @@ public class GPSService extends Service
 		this.pausedNotification = new Notification.Builder(getApplicationContext())
 				.setContentTitle(resources.getString(R.string.app_name))
 				.setContentText(
-						resources.getString(R.string.notification_walk) + " " + walk.getName() + " "
+						resources.getString(R.string.notification_walk) + " " + this.walk.getName() + " "
 								+ resources.getString(R.string.paused)).setSmallIcon(R.drawable.notification_paused)
 				.setTicker(resources.getString(R.string.notification_paused_ticker)).setContentIntent(contentIntent)
 				.getNotification();
 
 		// Start the service in the foreground
-		startForeground(NOTIFICATION_INT, this.trackingNotification);
-
-		// Make sure that gpsLocked is true so that the timer thread loop runs.
-		if (!this.gpsLocked) this.gpsLocked = true;
-		
-		final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
-
-		// Start a new Thread - used to make the position only be updated every "updateTime" seconds
-		this.timer = new Thread() {
-			@Override
-			public void run()
-			{
-				while (GPSService.this.gpsLocked)
-				{
-					GPSService.this.readyForUpdate = true;
-					int updateRate = 1000 * (Integer.parseInt(preferences.getString(MAP_ACCURACY, "20")));
-					try
-					{
-						Thread.sleep(updateRate);
-					}
-					catch (InterruptedException e)
-					{
-						e.printStackTrace();
-					}
-				}
-			}
-		};
-		this.timer.start();
+		startForeground(NOTIFICATION_INT, this.paused ? this.pausedNotification : this.trackingNotification);
 	}
 
 	/**
@@ -319,13 +544,35 @@ public class GPSService extends Service
 	//
 	/////////////////////////
 	/**
-	 * Returns the geoPoints stored for the walk. Called by MapWalkActivity.
+	 * Adds the points recorded since the end of the provided Track to it, without waiting for the recording
+	 * thread. Called by MapWalkActivity on the UI thread each time it's told there's a new position.
+	 * 
+	 * @param track	MapWalkActivity's copy of the walk's Track
+	 * 
+	 * @return		False if too many points had been recorded since the Track was last brought up to date,
+	 * 				in which case it must be replaced with a copy of getTrack()
+	 */
+	public boolean drainPoints(Track track)
+	{
+		PointChannel channel = this.channel;
+		return channel == null ? track.size() == 0 : channel.drain(track);
+	}
+
+	/**
+	 * Returns the points recorded for the walk so far, as a slice of its Track. Called by MapWalkActivity.
+	 * Points are added to the Track on the recording thread, so the slice is taken while holding its lock -
+	 * after that it's safe to read on any thread, as points are only ever added past its end.
 	 * 
-	 * @return	The stored geoPoints for the in-progress walk.
+	 * @return	The in-progress walk's points, which are empty if the recording thread hasn't set up the walk yet
 	 */
-	public ArrayList<GeoPoint> getGeoPoints()
+	public Track getTrack()
 	{
-		return this.geoPoints;
+		Track track = this.track;
+		if (track == null) return new Track(1);
+		synchronized (track)
+		{
+			return track.slice(0, track.size());
+		}
 	}
 
 	/**
@@ -339,55 +586,286 @@ public class GPSService extends Service
 		return this.paused;
 	}
 
+
+	/**
+	 * Returns the user's current position - the last fix received while tracking, which may not have been
+	 * added to the Track, as the TrackSimplifier only adds a fix once the next one shows it's needed. Before
+	 * any fix has been received, this is the last point of the Track.
+	 * 
+	 * @return	The current position, or null if there are no points yet
+	 */
+	public GeoPoint getPosition()
+	{
+		if (this.position != null)
+			return new GeoPoint((int) (this.position.getLatitude() * 1e6), (int) (this.position.getLongitude() * 1e6));
+		Track track = getTrack();
+		if (track.size() == 0) return null;
+		return track.getGeoPoint(track.size() - 1);
+	}
+
+	/////////////////////////
+	//
+	// Walk status methods
+	//
+	/////////////////////////
+	/**
+	 * Saves the walk in progress, with the GPS points recorded for it that haven't been added to its track in
+	 * the database yet, after adding the fix the TrackSimplifier is holding back. This is done on the
+	 * recording thread, so that no fix can be recorded part way through, and onSaved is run on the UI thread
+	 * once it's finished. Used by MapWalkActivity.
+	 * 
+	 * @param receivedWalk	The walk, with the name, description and tags the user has entered
+	 * @param onSaved		Run on the UI thread once the walk has been saved
+	 */
+	public void saveWalk(final Walk receivedWalk, Runnable onSaved)
+	{
+		postToRecordingThread(new Runnable() {
+			@Override
+			public void run()
+			{
+				flushSimplifier();
+				Track track = GPSService.this.track;
+				DataSource.saveWalk(receivedWalk, track.slice(GPSService.this.sealedPoints, track.size()));
+			}
+		}, onSaved);
+	}
+
+	/**
+	 * Cancels the walk in progress, deleting it from the database. This is done on the recording thread, so
+	 * that no more points can be added to it afterwards, and onCancelled is run on the UI thread once it's
+	 * finished. Used by MapWalkActivity.
+	 * 
+	 * @param onCancelled	Run on the UI thread once the walk has been cancelled
+	 */
+	public void cancelWalk(Runnable onCancelled)
+	{
+		postToRecordingThread(new Runnable() {
+			@Override
+			public void run()
+			{
+				DataSource.cancelWalk();
+			}
+		}, onCancelled);
+	}
+
+	/**
+	 * Runs the provided Runnable on the recording thread, after anything already waiting to run there, and
+	 * then runs onFinished on the UI thread. The caller never waits for the recording thread. If the
+	 * recording thread has already stopped, which only happens once the service is destroyed, the error is
+	 * logged and onFinished is run straight away so the caller isn't left waiting.
+	 * 
+	 * @param runnable		The Runnable to run on the recording thread
+	 * @param onFinished	The Runnable to run on the UI thread afterwards
+	 */
+	private void postToRecordingThread(final Runnable runnable, final Runnable onFinished)
+	{
+		boolean posted = this.recordingHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					runnable.run();
+				}
+				finally
+				{
+					GPSService.this.mainHandler.post(onFinished);
+				}
+			}
+		});
+
+		if (!posted)
+		{
+			Log.e(TAG, "The recording thread has stopped, so the walk couldn't be finished");
+			this.mainHandler.post(onFinished);
+		}
+	}
+
+	/////////////////////////
+	//
+	// Track methods
+	//
+	/////////////////////////
+	/**
+	 * Appends the location to the WalkLog and to the walk's Track, with the time and accuracy of the fix.
+	 *
+	 * @param location	The location to add
+	 */
+	private void addPoint(Location location)
+	{
+		addPoint((int) (location.getLatitude() * 1e6), (int) (location.getLongitude() * 1e6), location.getTime(),
+				location.getAccuracy());
+	}
+
+	/**
+	 * Appends a point to the WalkLog and, once it's safely there, to the walk's Track. If the log can't take
+	 * the point (the storage is full), it's dropped altogether, so that the log and the Track still hold the
+	 * same points and a restarted service recovers the walk correctly.
+	 */
+	private void addPoint(int latitudeE6, int longitudeE6, long time, float accuracy)
+	{
+		try
+		{
+			this.walkLog.append(latitudeE6, longitudeE6, time, accuracy);
+		}
+		catch (IOException e)
+		{
+			Log.e(TAG, "Couldn't add the point to the walk log, dropping it", e);
+			return;
+		}
+		synchronized (this.track)
+		{
+			this.track.add(latitudeE6, longitudeE6, time, accuracy);
+		}
+		this.channel.write(latitudeE6, longitudeE6);
+	}
+
+	/**
+	 * Passes a fix to the TrackSimplifier, and adds the fix it returns, if any, to the walk.
+	 *
+	 * @param location	The fix to record
+	 */
+	private void recordFix(Location location)
+	{
+		this.position = location;
+		Location kept = this.simplifier.add(location);
+		if (kept != null)
+		{
+			addPoint(kept);
+			sealChunks();
+		}
+	}
+
+	/**
+	 * Adds the fix the TrackSimplifier is holding back, if any, to the walk. Used when the walk is paused or
+	 * saved, so the track ends where the user stopped.
+	 */
+	private void flushSimplifier()
+	{
+		Location kept = this.simplifier.flush();
+		if (kept != null)
+		{
+			addPoint(kept);
+			sealChunks();
+		}
+	}
+
+	/**
+	 * Adds every complete chunk of points in the Track that isn't in the database yet to the walk's
+	 * track, so that saving the walk only has to write the last, partial chunk however long the walk is.
+	 * The WalkLog is forced to storage first, so that however the app or the phone dies, the log always
+	 * holds at least the points in the database.
+	 */
+	private void sealChunks()
+	{
+		if (this.track.size() - this.sealedPoints >= DataSource.TRACK_CHUNK_SIZE) this.walkLog.force();
+		while (this.track.size() - this.sealedPoints >= DataSource.TRACK_CHUNK_SIZE)
+		{
+			int end = this.sealedPoints + DataSource.TRACK_CHUNK_SIZE;
+			DataSource.addTrackChunk(this.walk.getId(), this.track.slice(this.sealedPoints, end));
+			this.sealedPoints = end;
+		}
+	}
+
+	/**
+	 * Works out how many of the walk's points are already in the database when tracking starts. For a walk
+	 * resumed after the service was restarted, the log normally holds every one of them, but if it holds fewer
+	 * (it was written before chunks waited for the log to be forced, or the storage lost writes), only the
+	 * points in both are counted. The rest are then copied back from the database into the log and the Track,
+	 * without their times, so that all three agree again and the next chunk carries on from the right place.
+	 */
+	private void restoreSealedPoints()
+	{
+		long walkId = this.walk.getId();
+		int stored = DataSource.getStatsForWalk(walkId).getPointCount();
+		this.sealedPoints = Math.min(stored, this.track.size());
+		if (stored <= this.track.size()) return;
+
+		Log.w(TAG, "The walk log has " + this.track.size() + " points but the database has " + stored
+				+ ", restoring the rest from the database");
+		Track database = DataSource.getTrackForWalk(walkId);
+		for (int i = this.track.size(); i < Math.min(stored, database.size()); i++)
+			addPoint(database.getLatitudeE6(i), database.getLongitudeE6(i), 0, 0);
+		this.walkLog.force();
+		this.sealedPoints = Math.min(stored, this.track.size());
+	}
+
 	/////////////////////////
 	//
 	// Pause/Resume methods
 	//
 	/////////////////////////
 	/**
-	 * Run when the user pauses an in-progress walk. Shows the paused notification, sets paused
-	 * to true, unregisters the locationListener to shut off GPS (saving power), and sets GPSLocked
-	 * to false.
+	 * Run on the UI thread when the user pauses an in-progress walk, or GPS is disabled. Sets paused to true
+	 * and shows the paused notification, unless the tracking notifications haven't been set up yet, in which
+	 * case showTrackingNotification shows it. Then on the recording thread, stops the location updates to shut
+	 * off GPS (saving power), adds the fix the TrackSimplifier is holding back, forces the WalkLog to storage
+	 * and sets GPSLocked to false.
 	 */
 	public void pause()
 	{
-		startForeground(NOTIFICATION_INT, this.pausedNotification);
 		this.paused = true;
-		this.locationManager.removeUpdates(this.locationListener);
-		this.gpsLocked = false;
+		if (this.pausedNotification != null) startForeground(NOTIFICATION_INT, this.pausedNotification);
+		this.recordingHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				GPSService.this.scheduler.stop();
+				flushSimplifier();
+				GPSService.this.walkLog.force();
+				GPSService.this.gpsLocked = false;
+			}
+		});
 	}
 
 	/**
-	 * Run when the user resumes a paused walk. Shows the Waiting for GPS notification (as it needs
-	 * to reconnect to GPS), sets paused to false, resumePressed to true, and re-initialises up the
-	 * locationManager.
+	 * Run on the UI thread when the user resumes a paused walk, or GPS is enabled again. Shows the Waiting for GPS notification (as it needs
+	 * to reconnect to GPS) and sets paused to false. Then on the recording thread, sets resumePressed to
+	 * true and starts searching for GPS again.
 	 */
 	public void resume()
 	{
 		startForeground(NOTIFICATION_INT, this.waitingForGPSNotification);
 		this.paused = false;
-		this.resumePressed = true;
-		this.locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this.locationListener);
+		this.recordingHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				GPSService.this.resumePressed = true;
+				GPSService.this.scheduler.search();
+			}
+		});
 	}
 
+	/**
+	 * Tells MapWalkActivity, on the UI thread, that there's a new position. If an update is already waiting
+	 * to be run, no other is posted, so however many fixes arrive while the UI thread is busy, the map is
+	 * only redrawn once.
+	 */
+	private void postMapUpdate()
+	{
+		if (this.updatePosted.compareAndSet(false, true)) this.mainHandler.post(this.mapUpdate);
+	}
+
+
 	/////////////////////////
 	//
 	// Inner Classes
 	//
 	/////////////////////////
 	/**
-	 * Custom LocationListener class.<br>
+	 * Custom LocationListener class. Its methods are called on the recording thread, and anything that
+	 * touches an activity or a notification is posted to the UI thread.<br>
 	 * <br>
-	 * When a location is received, it stores the latitude and longitude, and then checks if "GPSLocked" is true.
-	 * If it isn't, then this is the first location received, and it informs the application that GPS is locked,
-	 * and stores the first geoPoint.<br>
+	 * When a location is received, it's passed through the FixFilterChain, and ignored if it's rejected. It then
+	 * checks if "GPSLocked" is true. If it isn't, then this is the first location received, and it informs the
+	 * application that GPS is locked, and stores the first point.<br>
 	 * <br>
 	 * Otherwise, if the resume key has been pressed, it shows the Tracking Walk notification.
 	 * <br>
-	 * Then, if it is tracking a walk (so the user has chosen "start walk"), and it's ready for an update
-	 * (i.e. the set period of time has passed), it gets the latitude and longitude, inserts them into the database with
-	 * a walk ID of 0 (0 being reserved for walks in progress), creates a new GeoPoint, adds it to the application's
-	 * temporary ArrayList which is used only while a walk is in progress, and sets readyForUpdate to false.<br>
+	 * Then, if it is tracking a walk (so the user has chosen "start walk"), and the SamplingScheduler
+	 * decides the fix should be recorded, it passes it to the TrackSimplifier, appends any fix that's kept
+	 * to the WalkLog and the walk's Track, and tells the map about the new position.<br>
 	 * <br>
 	 * @author Alex Hardwicke
 	 */
@@ -396,43 +874,43 @@ public class GPSService extends Service
 		@Override
 		public void onLocationChanged(Location location)
 		{
-			double lat = location.getLatitude();
-			double lon = location.getLongitude();
+			// Reject noisy and repeated fixes, and smooth the rest if the user has chosen to
+			location = GPSService.this.filters.filter(location);
+			if (location == null) return;
+
+			boolean record = GPSService.this.scheduler.onFix(location);
 
 			// If GPS isn't locked set it as locked in the app and service.
 			if (!GPSService.this.gpsLocked)
 			{
-				if (GPSService.this.walkListActivity != null) GPSService.this.walkListActivity.setGPSLocked();
+				GPSService.this.mainHandler.post(new Runnable() {
+					@Override
+					public void run()
+					{
+						if (GPSService.this.walkListActivity != null) GPSService.this.walkListActivity.setGPSLocked();
+					}
+				});
 
 				// Creating the first GPS point. Will be retrieved by mapWalkActivity when it's opened.
-				DataSource.createGeoPoint(0, lat, lon);
-				GeoPoint geoPoint = new GeoPoint((int) (lat * 1e6), (int) (lon * 1e6));
-				GPSService.this.geoPoints.add(geoPoint);
+				recordFix(location);
+				record = false;
 
 				GPSService.this.gpsLocked = true;
 			}
 			
 			// first location update post-user resume. show the "gps locked" notification
-			// (which also starts the update timer again) and then clears resumePressed so
-			// that the next if statement is run on the next location grab
+			// and then clears resumePressed
 			else if (GPSService.this.resumePressed)
 			{
-				showTrackingNotification();
+				postShowTrackingNotification();
 				GPSService.this.resumePressed = false;
 			}
 
-			// If tracking the walk (user has started, activity is ready for an update), record point
-			if (trackingWalk && GPSService.this.readyForUpdate)
+			// If tracking the walk (user has started, scheduler wants the fix), record point
+			if (trackingWalk && record)
 			{
-				DataSource.createGeoPoint(0, lat, lon);
-				GeoPoint geoPoint = new GeoPoint((int) (lat * 1e6), (int) (lon * 1e6));
-				GPSService.this.geoPoints.add(geoPoint);
-				if (GPSService.this.mapOpen)
-				{
-					if (GPSService.this.mapWalkActivity != null)
-						GPSService.this.mapWalkActivity.newPoint(geoPoint);
-				}
-				GPSService.this.readyForUpdate = false;
+				recordFix(location);
+				postMapUpdate();
 			}
 		}
 
@@ -441,26 +919,38 @@ public class GPSService extends Service
 		{
 			// User has disabled GPS. If not tracking a walk, show a "GPS disabled. Ending..." notification.
 			// If tracking a walk, pause.
-			if (!trackingWalk)
-			{
-				if (GPSService.this.walkListActivity.isInForeground())
-					Toast.makeText(GPSService.this.walkListActivity, getString(R.string.notification_gps_disabled), Toast.LENGTH_LONG).show();
-				else
+			GPSService.this.mainHandler.post(new Runnable() {
+				@Override
+				public void run()
 				{
-					showGPSDisabledNotification();
-					isCancelled = true;
+					if (!trackingWalk)
+					{
+						if (GPSService.this.walkListActivity.isInForeground())
+							Toast.makeText(GPSService.this.walkListActivity, getString(R.string.notification_gps_disabled), Toast.LENGTH_LONG).show();
+						else
+						{
+							showGPSDisabledNotification();
+							isCancelled = true;
+						}
+						GPSService.this.walkListActivity.cancelGPS();
+					}
+					else
+						pause();
 				}
-				GPSService.this.walkListActivity.cancelGPS();
-			}
-			else
-				pause();
+			});
 		}
 
 		@Override
 		public void onProviderEnabled(String provider)
 		{
 			// User has re-enabled GPS. Resume tracking!
-			resume();
+			GPSService.this.mainHandler.post(new Runnable() {
+				@Override
+				public void run()
+				{
+					resume();
+				}
+			});
 		}
 
 		@Override
@@ -0,0 +1,33 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Looper;
+
+/**
+ * A LocationSource that gets its fixes from the phone's GPS.
+ *
+ * @author Alex Hardwicke
+ */
+public class GpsLocationSource implements LocationSource
+{
+	private final LocationManager locationManager;
+
+	public GpsLocationSource(LocationManager locationManager)
+	{
+		this.locationManager = locationManager;
+	}
+
+	@Override
+	public void requestUpdates(long minTime, float minDistance, LocationListener listener, Looper looper)
+	{
+		this.locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, minTime, minDistance, listener,
+				looper);
+	}
+
+	@Override
+	public void removeUpdates(LocationListener listener)
+	{
+		this.locationManager.removeUpdates(listener);
+	}
+}
@@ -0,0 +1,56 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+
+/**
+ * A FixFilter that smooths the track with a simple Kalman filter, passing on a corrected copy of each fix.<br>
+ * <br>
+ * The filter keeps an estimate of the position and its variance in square metres. Between fixes the variance
+ * grows by the time passed multiplied by the square of PROCESS_NOISE, which is how fast the user is expected
+ * to wander from the estimate. Each fix then moves the estimate towards it by the share of the total variance
+ * that the estimate holds, so an accurate fix moves it most of the way and an inaccurate one only a little.
+ * The latitude and longitude are filtered separately with the same gain. The copy's accuracy is set to
+ * the estimate's.
+ *
+ * @author Alex Hardwicke
+ */
+public class KalmanFilter implements FixFilter
+{
+	private static final float PROCESS_NOISE = 3;
+	private static final float MIN_ACCURACY = 1;
+
+	private double latitude;
+	private double longitude;
+	private double variance = -1;
+	private long time;
+
+	@Override
+	public Location filter(Location location)
+	{
+		float accuracy = Math.max(location.getAccuracy(), MIN_ACCURACY);
+
+		if (this.variance < 0)
+		{
+			this.latitude = location.getLatitude();
+			this.longitude = location.getLongitude();
+			this.variance = accuracy * accuracy;
+		}
+		else
+		{
+			long elapsed = location.getTime() - this.time;
+			if (elapsed > 0) this.variance += elapsed * PROCESS_NOISE * PROCESS_NOISE / 1000;
+
+			double gain = this.variance / (this.variance + accuracy * accuracy);
+			this.latitude += gain * (location.getLatitude() - this.latitude);
+			this.longitude += gain * (location.getLongitude() - this.longitude);
+			this.variance = (1 - gain) * this.variance;
+		}
+		this.time = location.getTime();
+
+		Location smoothed = new Location(location);
+		smoothed.setLatitude(this.latitude);
+		smoothed.setLongitude(this.longitude);
+		smoothed.setAccuracy((float) Math.sqrt(this.variance));
+		return smoothed;
+	}
+}
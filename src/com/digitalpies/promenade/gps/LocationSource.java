@@ -0,0 +1,32 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.LocationListener;
+import android.os.Looper;
+
+/**
+ * Somewhere GPSService gets its fixes from. This is normally the phone's GPS, through a GpsLocationSource,
+ * but tests and benchmarks can use a MockLocationSource or a ReplayLocationSource instead, so that the whole
+ * recording path can be driven without walking anywhere.
+ *
+ * @author Alex Hardwicke
+ */
+public interface LocationSource
+{
+	/**
+	 * Starts delivering fixes to the listener, replacing any earlier request from it. As with the
+	 * LocationManager, a fix is only delivered once both minTime and minDistance have passed since the last.
+	 *
+	 * @param minTime		The minimum time between fixes, in milliseconds
+	 * @param minDistance	The minimum distance between fixes, in metres
+	 * @param listener		The listener to deliver the fixes to
+	 * @param looper		The looper of the thread to call the listener on
+	 */
+	public void requestUpdates(long minTime, float minDistance, LocationListener listener, Looper looper);
+
+	/**
+	 * Stops delivering fixes to the listener.
+	 *
+	 * @param listener	The listener to stop delivering to
+	 */
+	public void removeUpdates(LocationListener listener);
+}
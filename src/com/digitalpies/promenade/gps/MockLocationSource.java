@@ -0,0 +1,78 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * A LocationSource whose fixes are pushed in by hand, for tests. Each fix is delivered to the listener as
+ * soon as it's pushed, on the listener's thread, whatever the requested minimum time and distance - the test
+ * decides exactly which fixes are delivered. Fixes pushed while there's no listener are dropped.
+ *
+ * @author Alex Hardwicke
+ */
+public class MockLocationSource implements LocationSource
+{
+	private LocationListener listener;
+	private Handler handler;
+
+	@Override
+	public synchronized void requestUpdates(long minTime, float minDistance, LocationListener listener, Looper looper)
+	{
+		this.listener = listener;
+		this.handler = new Handler(looper);
+	}
+
+	@Override
+	public synchronized void removeUpdates(LocationListener listener)
+	{
+		if (this.listener == listener)
+		{
+			this.listener = null;
+			this.handler = null;
+		}
+	}
+
+	/**
+	 * Delivers a fix to the listener. Can be called on any thread.
+	 *
+	 * @param location	The fix
+	 *
+	 * @return			True if there was a listener to deliver it to
+	 */
+	public synchronized boolean push(final Location location)
+	{
+		if (this.listener == null) return false;
+
+		final LocationListener listener = this.listener;
+		this.handler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				listener.onLocationChanged(location);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Creates a fix with the provided values, for push().
+	 *
+	 * @param latitude	The latitude in degrees
+	 * @param longitude	The longitude in degrees
+	 * @param time		The time of the fix, in milliseconds since the epoch
+	 * @param accuracy	The accuracy of the fix in metres
+	 *
+	 * @return			The fix
+	 */
+	public static Location createLocation(double latitude, double longitude, long time, float accuracy)
+	{
+		Location location = new Location("mock");
+		location.setLatitude(latitude);
+		location.setLongitude(longitude);
+		location.setTime(time);
+		location.setAccuracy(accuracy);
+		return location;
+	}
+}
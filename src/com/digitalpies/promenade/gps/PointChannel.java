@@ -0,0 +1,78 @@
+package com.digitalpies.promenade.gps;
+
+import com.digitalpies.promenade.database.Track;
+
+/**
+ * Passes the points of the walk in progress from the recording thread to the UI thread without locking.<br>
+ * <br>
+ * The points are kept in a ring buffer of SIZE slots, as parallel int arrays. Each point has a sequence number
+ * - its index in the walk's Track - and is stored in the slot for that number. The one writer stores a point
+ * and then publishes it by raising the volatile head, so a reader that has seen the head has also seen every
+ * point before it.<br>
+ * <br>
+ * The writer never waits for readers. Instead each reader keeps its own Track, and asks for the points from
+ * the end of that Track up to the head. If the writer has got more than SIZE points ahead, the oldest of
+ * those points have been overwritten, so drain() returns false and the reader has to take a fresh copy of
+ * the whole Track from GPSService instead. As readers only keep their own position, any number of them can
+ * read the same points.
+ *
+ * @author Alex Hardwicke
+ */
+public class PointChannel
+{
+	private static final int SIZE = 256;
+	private static final int MASK = SIZE - 1;
+
+	private final int[] latitudes = new int[SIZE];
+	private final int[] longitudes = new int[SIZE];
+	private final int start;
+	private volatile int head;
+
+	/**
+	 * @param start	The sequence number of the first point that will be written - the number of points
+	 * 				already in the walk's Track
+	 */
+	public PointChannel(int start)
+	{
+		this.start = start;
+		this.head = start;
+	}
+
+	/**
+	 * Writes a point and publishes it. Must only be called by the one writing thread, once for each point
+	 * added to the walk's Track, in the same order.
+	 *
+	 * @param latitudeE6	The latitude of the point in microdegrees
+	 * @param longitudeE6	The longitude of the point in microdegrees
+	 */
+	public void write(int latitudeE6, int longitudeE6)
+	{
+		int head = this.head;
+		this.latitudes[head & MASK] = latitudeE6;
+		this.longitudes[head & MASK] = longitudeE6;
+		this.head = head + 1;
+	}
+
+	/**
+	 * Adds every published point after the end of the provided Track to it.
+	 *
+	 * @param track	The reader's Track, holding every point up to the first one it hasn't read
+	 *
+	 * @return		True if the Track is up to date, or false if the points it was missing had already been
+	 * 				overwritten, or were never written to the channel at all. In that case the Track may have been
+	 * 				partly added to, and must be replaced.
+	 */
+	public boolean drain(Track track)
+	{
+		int from = track.size();
+		int head = this.head;
+		if (from < this.start || head - from >= SIZE) return false;
+
+		for (int i = from; i < head; i++)
+			track.add(this.latitudes[i & MASK], this.longitudes[i & MASK]);
+
+		// The writer may be part way through storing the point at the head, which overwrites the slot of the
+		// point SIZE before it. If that was one of the points just read, it may have been overwritten.
+		return this.head - from < SIZE;
+	}
+}
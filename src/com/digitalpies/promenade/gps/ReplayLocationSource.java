@@ -0,0 +1,331 @@
+package com.digitalpies.promenade.gps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Xml;
+
+/**
+ * A LocationSource that plays back a recorded trace, read from a GPX file or a CSV file, for tests and
+ * benchmarks.<br>
+ * <br>
+ * The fixes are delivered with the same spacing as when they were recorded, divided by the speed - a speed
+ * of 10 plays a one hour walk in six minutes, and a speed of 0 delivers each fix as soon as the listener's
+ * thread is free. The fixes keep the times they were recorded with, so everything after the source sees the
+ * walk exactly as it was recorded, whatever the speed.<br>
+ * <br>
+ * The requested minimum time and distance are applied to the fixes' own times and positions rather than to
+ * the clock, and the fixes are delivered on the listener's own thread, so which fixes are delivered depends
+ * only on the trace and the requests made - the same trace always gives the same walk. removeUpdates()
+ * pauses the playback, and the next request carries on from where it stopped.
+ *
+ * @author Alex Hardwicke
+ */
+public class ReplayLocationSource implements LocationSource
+{
+	private static final String PROVIDER = "replay";
+	private static final float DEFAULT_ACCURACY = 10;
+	private static final float METRES_PER_HDOP = 5;
+	private static final long DEFAULT_SPACING = 1000;
+
+	private final List<Location> fixes;
+	private final float speed;
+
+	private LocationListener listener;
+	private Handler handler;
+	private long minTime;
+	private float minDistance;
+	private int next = 0;
+	private Location lastDelivered;
+	private long startUptime;
+	private long startTime;
+	private int generation = 0;
+
+	private final Runnable deliver = new Runnable() {
+		@Override
+		public void run()
+		{
+			deliverNext();
+		}
+	};
+
+	/**
+	 * @param fixes	The fixes to play back, in order
+	 * @param speed	How many times faster than real time to play them, or 0 for as fast as possible
+	 */
+	public ReplayLocationSource(List<Location> fixes, float speed)
+	{
+		this.fixes = fixes;
+		this.speed = speed;
+	}
+
+	/**
+	 * Reads the track points of a GPX file. Each point needs a lat and lon. Its time is read from its time
+	 * element, or if it doesn't have one, is a second after the point before. Its accuracy is worked out from
+	 * its hdop element, if it has one.
+	 *
+	 * @param in	The GPX file, which is closed afterwards
+	 * @param speed	How many times faster than real time to play the fixes, or 0 for as fast as possible
+	 *
+	 * @return		A ReplayLocationSource for the points
+	 *
+	 * @throws IOException	If the file can't be read or isn't valid GPX
+	 */
+	public static ReplayLocationSource fromGpx(InputStream in, float speed) throws IOException
+	{
+		List<Location> fixes = new ArrayList<Location>();
+		try
+		{
+			XmlPullParser parser = Xml.newPullParser();
+			parser.setInput(in, null);
+
+			Location point = null;
+			String element = null;
+			for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next())
+			{
+				if (event == XmlPullParser.START_TAG)
+				{
+					element = parser.getName();
+					if (element.equals("trkpt"))
+					{
+						point = new Location(PROVIDER);
+						point.setLatitude(Double.parseDouble(parser.getAttributeValue(null, "lat")));
+						point.setLongitude(Double.parseDouble(parser.getAttributeValue(null, "lon")));
+						point.setAccuracy(DEFAULT_ACCURACY);
+					}
+				}
+				else if (event == XmlPullParser.TEXT && point != null && element != null)
+				{
+					String text = parser.getText().trim();
+					if (element.equals("time"))
+						point.setTime(parseTime(text));
+					else if (element.equals("hdop"))
+						point.setAccuracy(Float.parseFloat(text) * METRES_PER_HDOP);
+				}
+				else if (event == XmlPullParser.END_TAG)
+				{
+					element = null;
+					if (parser.getName().equals("trkpt"))
+					{
+						add(fixes, point);
+						point = null;
+					}
+				}
+			}
+		}
+		catch (XmlPullParserException e)
+		{
+			throw new IOException("Couldn't parse the GPX file: " + e.getMessage());
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Couldn't parse the GPX file: " + e.getMessage());
+		}
+		finally
+		{
+			in.close();
+		}
+		return new ReplayLocationSource(fixes, speed);
+	}
+
+	/**
+	 * Reads the fixes of a CSV file, one per line as "time,latitude,longitude" or
+	 * "time,latitude,longitude,accuracy", with the time in milliseconds since the epoch and the accuracy in
+	 * metres. Blank lines, lines starting with # and a header line are skipped.
+	 *
+	 * @param in	The CSV file, which is closed afterwards
+	 * @param speed	How many times faster than real time to play the fixes, or 0 for as fast as possible
+	 *
+	 * @return		A ReplayLocationSource for the fixes
+	 *
+	 * @throws IOException	If the file can't be read or a line can't be parsed
+	 */
+	public static ReplayLocationSource fromCsv(InputStream in, float speed) throws IOException
+	{
+		List<Location> fixes = new ArrayList<Location>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try
+		{
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null)
+			{
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) continue;
+
+				String[] values = line.split(",");
+				try
+				{
+					// A header line
+					if (fixes.isEmpty() && !values[0].trim().matches("[0-9]+")) continue;
+
+					Location fix = new Location(PROVIDER);
+					fix.setTime(Long.parseLong(values[0].trim()));
+					fix.setLatitude(Double.parseDouble(values[1].trim()));
+					fix.setLongitude(Double.parseDouble(values[2].trim()));
+					fix.setAccuracy(values.length > 3 ? Float.parseFloat(values[3].trim()) : DEFAULT_ACCURACY);
+					add(fixes, fix);
+				}
+				catch (RuntimeException e)
+				{
+					throw new IOException("Couldn't parse line " + lineNumber + " of the CSV file: " + line);
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return new ReplayLocationSource(fixes, speed);
+	}
+
+	@Override
+	public synchronized void requestUpdates(long minTime, float minDistance, LocationListener listener, Looper looper)
+	{
+		stop();
+		this.minTime = minTime;
+		this.minDistance = minDistance;
+		this.listener = listener;
+		this.handler = new Handler(looper);
+		if (this.next < this.fixes.size())
+		{
+			// The clock restarts from the last fix played, so the next one still comes after its own gap
+			this.startUptime = SystemClock.uptimeMillis();
+			this.startTime = this.fixes.get(Math.max(this.next - 1, 0)).getTime();
+			post();
+		}
+	}
+
+	@Override
+	public synchronized void removeUpdates(LocationListener listener)
+	{
+		if (this.listener == listener) stop();
+	}
+
+	/**
+	 * Returns the fixes being played back, so that a test can work out what should have been recorded.
+	 *
+	 * @return	The fixes, in order, which mustn't be changed
+	 */
+	public List<Location> getFixes()
+	{
+		return Collections.unmodifiableList(this.fixes);
+	}
+
+	/**
+	 * @return	True once every fix has been played
+	 */
+	public synchronized boolean isFinished()
+	{
+		return this.next >= this.fixes.size();
+	}
+
+	/**
+	 * Delivers the next fix if it's far enough from the last one delivered, and posts the one after it.<br>
+	 * <br>
+	 * The listener is called without holding the lock, so that it can't deadlock with another thread
+	 * requesting or removing updates while it runs.
+	 */
+	private void deliverNext()
+	{
+		LocationListener listener;
+		Location fix;
+		int generation;
+		synchronized (this)
+		{
+			if (this.listener == null) return;
+
+			listener = this.listener;
+			generation = this.generation;
+			fix = this.fixes.get(this.next++);
+			if (this.lastDelivered == null || (fix.getTime() - this.lastDelivered.getTime() >= this.minTime
+					&& fix.distanceTo(this.lastDelivered) >= this.minDistance))
+				this.lastDelivered = fix;
+			else
+				fix = null;
+		}
+
+		// A copy is delivered, as the filters may change the fixes they're given
+		if (fix != null) listener.onLocationChanged(new Location(fix));
+
+		synchronized (this)
+		{
+			// If the request was replaced or removed meanwhile, the playback has already been restarted or stopped
+			if (generation == this.generation && this.next < this.fixes.size()) post();
+		}
+	}
+
+	/**
+	 * Posts the next fix to be delivered once its time has come.
+	 */
+	private void post()
+	{
+		if (this.speed <= 0)
+		{
+			this.handler.post(this.deliver);
+			return;
+		}
+		long elapsed = (long) ((this.fixes.get(this.next).getTime() - this.startTime) / this.speed);
+		this.handler.postAtTime(this.deliver, this.startUptime + elapsed);
+	}
+
+	private void stop()
+	{
+		this.generation++;
+		if (this.handler != null) this.handler.removeCallbacks(this.deliver);
+		this.listener = null;
+		this.handler = null;
+	}
+
+	/**
+	 * Adds a fix to the end of a trace, giving it a time a second after the fix before if it doesn't have one.
+	 */
+	private static void add(List<Location> fixes, Location fix)
+	{
+		if (fix.getTime() == 0)
+			fix.setTime(fixes.isEmpty() ? DEFAULT_SPACING : fixes.get(fixes.size() - 1).getTime() + DEFAULT_SPACING);
+		fixes.add(fix);
+	}
+
+	/**
+	 * Parses a GPX time, such as 2012-06-01T09:30:00Z or 2012-06-01T09:30:00.250Z. GPX times are always UTC.
+	 */
+	private static long parseTime(String text) throws IOException
+	{
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		try
+		{
+			long time = format.parse(text.substring(0, Math.min(text.length(), 19))).getTime();
+			if (text.length() > 20 && text.charAt(19) == '.')
+			{
+				// Fractions of a second, to the millisecond
+				String fraction = text.substring(20).replaceAll("[^0-9].*", "") + "000";
+				time += Integer.parseInt(fraction.substring(0, 3));
+			}
+			return time;
+		}
+		catch (ParseException e)
+		{
+			throw new IOException("Couldn't parse the GPX time " + text);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Decides how often GPSService asks its LocationSource for fixes, and which fixes are recorded.<br>
+ * <br>
+ * While searching for GPS every fix is requested, so that the lock comes as quickly as possible. Once
+ * locked and waiting for the user to start a walk, one fix is requested per record interval (the
+ * user's "Record location every" preference) to keep the lock.<br>
+ * <br>
+ * While tracking a walk, the request is worked out again from each recorded fix. At walking pace or slower
+ * a fix is requested every record interval. Faster than that, the interval is shortened so that the points
+ * stay about as far apart as they would be at walking pace. After STILL_FIXES fixes in a row below
+ * STILL_SPEED the user is taken to be standing still - the interval is lengthened and a fix is only
+ * delivered once the user has moved STILL_DISTANCE, so no fixes arrive at all while they stay put. The
+ * request is only replaced when it changes by more than REQUEST_CHANGE, as each replacement restarts
+ * the provider's schedule.<br>
+ * <br>
+ * The phone's GPS treats the interval as a hint, so a fix that arrives well before the interval is
+ * up isn't recorded. The number of fixes received and recorded are logged by logCounts().
+ *
+ * @author Alex Hardwicke
+ */
+public class SamplingScheduler
+{
+	private static final String TAG = "SamplingScheduler";
+
+	private static final float WALKING_SPEED = 1.4f;
+	private static final float STILL_SPEED = 0.5f;
+	private static final int STILL_FIXES = 3;
+	private static final int STILL_FACTOR = 4;
+	private static final float STILL_DISTANCE = 15;
+	private static final long MIN_INTERVAL = 1000;
+	private static final long MAX_INTERVAL = 2 * 60 * 1000;
+	private static final long EARLY_FIX_MARGIN = 500;
+	private static final float REQUEST_CHANGE = 0.25f;
+
+	private final LocationSource source;
+	private final LocationListener listener;
+	private final Looper looper;
+	private long recordInterval;
+	private long interval = 0;
+	private float distance = 0;
+	private boolean requested = false;
+	private boolean searching = false;
+	private boolean tracking = false;
+	private Location lastRecorded;
+	private int stillFixes = 0;
+
+	private int fixesReceived = 0;
+	private int fixesRecorded = 0;
+	private int requestCount = 0;
+
+	/**
+	 * @param source			The LocationSource to request fixes from
+	 * @param listener			The listener the fixes are delivered to
+	 * @param looper			The looper of the thread the listener is called on. The scheduler must only be
+	 * 							used on this thread.
+	 * @param recordInterval	The time between recorded points at walking pace, in milliseconds
+	 */
+	public SamplingScheduler(LocationSource source, LocationListener listener, Looper looper, long recordInterval)
+	{
+		this.source = source;
+		this.listener = listener;
+		this.looper = looper;
+		this.recordInterval = recordInterval;
+	}
+
+	/**
+	 * Requests every fix until the next one arrives. Used when GPS is started, and when a paused walk is
+	 * resumed.
+	 */
+	public void search()
+	{
+		this.searching = true;
+		request(0, 0);
+	}
+
+	/**
+	 * Starts recording a walk. The next fix is always recorded.
+	 *
+	 * @param recordInterval	The time between recorded points at walking pace, in milliseconds
+	 */
+	public void track(long recordInterval)
+	{
+		this.recordInterval = recordInterval;
+		this.tracking = true;
+		this.lastRecorded = null;
+		this.stillFixes = 0;
+		if (!this.searching) request(recordInterval, 0);
+	}
+
+	/**
+	 * Stops all location updates, shutting off GPS. search() starts them again.
+	 */
+	public void stop()
+	{
+		this.source.removeUpdates(this.listener);
+		this.requested = false;
+	}
+
+	/**
+	 * Called with every fix the listener receives. Counts the fix, updates the request if needed, and
+	 * returns whether the fix should be recorded as a point of the walk.
+	 *
+	 * @param location	The fix
+	 *
+	 * @return			True if the fix should be recorded
+	 */
+	public boolean onFix(Location location)
+	{
+		this.fixesReceived++;
+
+		if (!this.tracking)
+		{
+			// Locked, but not recording yet - only keep the lock
+			if (this.searching)
+			{
+				this.searching = false;
+				request(this.recordInterval, 0);
+			}
+			return false;
+		}
+
+		if (!this.searching && this.lastRecorded != null
+				&& location.getTime() - this.lastRecorded.getTime() < this.interval - EARLY_FIX_MARGIN) return false;
+		this.searching = false;
+
+		schedule(location);
+		this.lastRecorded = location;
+		this.fixesRecorded++;
+		return true;
+	}
+
+	/**
+	 * Logs the number of fixes received and recorded, and the number of requests made. Used when the walk
+	 * is finished.
+	 */
+	public void logCounts()
+	{
+		int percentage = this.fixesReceived == 0 ? 0 : this.fixesRecorded * 100 / this.fixesReceived;
+		Log.d(TAG, "Fixes received: " + this.fixesReceived + ", recorded: " + this.fixesRecorded + " (" + percentage
+				+ "%), requests: " + this.requestCount);
+	}
+
+	/**
+	 * Works out the interval and distance to request from the speed at the provided fix, and replaces the
+	 * request if they've changed enough.
+	 *
+	 * @param location	The fix about to be recorded
+	 */
+	private void schedule(Location location)
+	{
+		float speed = 0;
+		if (location.hasSpeed())
+			speed = location.getSpeed();
+		else if (this.lastRecorded != null && location.getTime() > this.lastRecorded.getTime())
+			speed = this.lastRecorded.distanceTo(location) * 1000 / (location.getTime() - this.lastRecorded.getTime());
+
+		if (speed < STILL_SPEED)
+			this.stillFixes++;
+		else
+			this.stillFixes = 0;
+
+		long newInterval;
+		float newDistance;
+		if (this.stillFixes >= STILL_FIXES)
+		{
+			newInterval = Math.min(this.recordInterval * STILL_FACTOR, MAX_INTERVAL);
+			newDistance = STILL_DISTANCE;
+		}
+		else
+		{
+			// The distance between points at walking pace
+			float spacing = this.recordInterval * WALKING_SPEED / 1000;
+			if (speed > WALKING_SPEED)
+				newInterval = Math.max(MIN_INTERVAL, (long) (spacing * 1000 / speed));
+			else
+				newInterval = this.recordInterval;
+			newDistance = spacing / 4;
+		}
+
+		if (!this.requested || changed(this.interval, newInterval) || changed(this.distance, newDistance))
+			request(newInterval, newDistance);
+	}
+
+	private boolean changed(float oldValue, float newValue)
+	{
+		return Math.abs(newValue - oldValue) > oldValue * REQUEST_CHANGE;
+	}
+
+	/**
+	 * Replaces the current request for GPS updates.
+	 */
+	private void request(long interval, float distance)
+	{
+		this.interval = interval;
+		this.distance = distance;
+		this.source.requestUpdates(interval, distance, this.listener, this.looper);
+		this.requested = true;
+		this.requestCount++;
+	}
+}
@@ -0,0 +1,48 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+
+/**
+ * A FixFilter that rejects fixes that would mean the user had moved faster than a set speed since the last
+ * fix it passed on. The accuracy of both fixes is taken off the distance first, so that a fix isn't
+ * rejected for noise that its accuracy already allows for.<br>
+ * <br>
+ * If the last fix passed on was itself wrong, every fix after it would be rejected. To stop this, after
+ * MAX_REJECTED fixes in a row have been rejected the next one is passed on whatever its speed.
+ *
+ * @author Alex Hardwicke
+ */
+public class SpeedFilter implements FixFilter
+{
+	private static final int MAX_REJECTED = 5;
+
+	private final float maxSpeed;
+	private Location last;
+	private int rejected = 0;
+
+	/**
+	 * @param maxSpeed	The fastest speed that's accepted, in metres per second
+	 */
+	public SpeedFilter(float maxSpeed)
+	{
+		this.maxSpeed = maxSpeed;
+	}
+
+	@Override
+	public Location filter(Location location)
+	{
+		if (this.last != null && this.rejected < MAX_REJECTED)
+		{
+			float seconds = Math.max(location.getTime() - this.last.getTime(), 1) / 1000f;
+			float distance = this.last.distanceTo(location) - this.last.getAccuracy() - location.getAccuracy();
+			if (distance / seconds > this.maxSpeed)
+			{
+				this.rejected++;
+				return null;
+			}
+		}
+		this.last = location;
+		this.rejected = 0;
+		return location;
+	}
+}
@@ -0,0 +1,25 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+
+/**
+ * A FixFilter that rejects fixes that are no newer than the last one it passed on, such as a cached fix
+ * delivered again after GPS is restarted.<br>
+ * <br>
+ * The fix times are only compared with each other, rather than with the phone's clock, as the clock can be
+ * wrong by far more than the age of a fix.
+ *
+ * @author Alex Hardwicke
+ */
+public class StaleFixFilter implements FixFilter
+{
+	private long lastTime = Long.MIN_VALUE;
+
+	@Override
+	public Location filter(Location location)
+	{
+		if (location.getTime() <= this.lastTime) return null;
+		this.lastTime = location.getTime();
+		return location;
+	}
+}
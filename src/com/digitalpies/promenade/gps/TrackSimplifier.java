@@ -0,0 +1,213 @@
+package com.digitalpies.promenade.gps;
+
+import android.location.Location;
+import android.util.Log;
+
+/**
+ * Drops the fixes of a walk that add nothing to the shape of its track, as they arrive.<br>
+ * <br>
+ * Each kept point is an anchor for the points after it. A fix within the tolerance of the anchor is
+ * dropped, which covers the user standing still. A fix further away narrows a cone of directions from the
+ * anchor - the directions in which a line would pass within the tolerance of every fix since the anchor. When
+ * a fix falls outside the cone, no straight line from the anchor can cover it, so the fix before it is kept
+ * and becomes the new anchor. The fixes in between are all within the tolerance of the line from the old
+ * anchor to the new one (this is the sleeve, or cone intersection, algorithm).<br>
+ * <br>
+ * Each fix takes constant work, and only the fixes since the anchor are held, up to MAX_DROPPED - after
+ * that many in a row, the last one is kept anyway. This also bounds how many points are lost if the app
+ * is killed, as the fix waiting to be kept isn't in the WalkLog yet.<br>
+ * <br>
+ * Distances are worked out on a flat projection around the anchor, which is accurate to well within the
+ * tolerance over the length of a walk's segment. The number of fixes received and kept, and the furthest any
+ * dropped fix was from the kept track, are logged by logCounts().
+ *
+ * @author Alex Hardwicke
+ */
+public class TrackSimplifier
+{
+	private static final String TAG = "TrackSimplifier";
+	private static final int MAX_DROPPED = 100;
+	private static final double METRES_PER_E6 = 0.111195;
+
+	private final float tolerance;
+
+	private Location anchor;
+	private Location last;
+	private double metresPerLongitudeE6;
+	private boolean coneSet = false;
+	private double coneCentre;
+	private double coneLow;
+	private double coneHigh;
+
+	// The fixes dropped since the anchor, in metres from it, used to measure the deviation
+	private final double[] droppedX = new double[MAX_DROPPED];
+	private final double[] droppedY = new double[MAX_DROPPED];
+	private int droppedCount = 0;
+
+	private int fixesReceived = 0;
+	private int fixesKept = 0;
+	private double maxDeviation = 0;
+
+	/**
+	 * @param tolerance	The furthest a dropped fix can be from the kept track, in metres. 0 keeps every fix.
+	 */
+	public TrackSimplifier(float tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Adds a fix to the track. Returns the fix to record, if the new one means that a fix should be kept - this
+	 * is the new fix itself if it's the first since the simplifier was started or flushed, otherwise it's the
+	 * fix before it.
+	 *
+	 * @param location	The new fix
+	 *
+	 * @return			The fix to record, or null if there's nothing to record yet
+	 */
+	public Location add(Location location)
+	{
+		this.fixesReceived++;
+
+		if (this.anchor == null || this.tolerance <= 0)
+		{
+			setAnchor(location);
+			this.last = null;
+			return keep(location);
+		}
+
+		double x = getX(this.anchor, location);
+		double y = getY(this.anchor, location);
+
+		Location kept = null;
+		if (!fits(x, y) || this.droppedCount == MAX_DROPPED)
+		{
+			// The previous fix is kept, and the new one is measured from it instead
+			kept = keep(this.last);
+			setAnchor(this.last);
+			x = getX(this.anchor, location);
+			y = getY(this.anchor, location);
+			fits(x, y);
+		}
+		else if (this.last != null)
+		{
+			drop(getX(this.anchor, this.last), getY(this.anchor, this.last));
+		}
+
+		this.last = location;
+		return kept;
+	}
+
+	/**
+	 * Returns the fix waiting to be kept, if there is one, and starts again so that the next fix is kept.
+	 * Used when the walk is paused or saved.
+	 *
+	 * @return	The fix to record, or null if there's nothing to record
+	 */
+	public Location flush()
+	{
+		Location kept = this.last == null ? null : keep(this.last);
+		this.anchor = null;
+		this.last = null;
+		return kept;
+	}
+
+	/**
+	 * Logs the number of fixes received and kept, and the furthest distance of a dropped fix from the
+	 * track. Used when the walk is finished.
+	 */
+	public void logCounts()
+	{
+		double ratio = this.fixesKept == 0 ? 0 : (double) this.fixesReceived / this.fixesKept;
+		Log.d(TAG, "Fixes received: " + this.fixesReceived + ", kept: " + this.fixesKept + " (" + Math.round(ratio * 10)
+				/ 10.0 + ":1), maximum deviation: " + Math.round(this.maxDeviation * 10) / 10.0 + "m");
+	}
+
+	/**
+	 * Checks whether a fix can be covered by a line from the anchor, and if so narrows the cone to the
+	 * directions that cover it.
+	 *
+	 * @param x	The fix's distance east of the anchor in metres
+	 * @param y	The fix's distance north of the anchor in metres
+	 *
+	 * @return	True if the fix is inside the cone
+	 */
+	private boolean fits(double x, double y)
+	{
+		double distance = Math.sqrt(x * x + y * y);
+		if (distance <= this.tolerance) return true;
+
+		double direction = Math.atan2(y, x);
+		double halfWidth = Math.asin(this.tolerance / distance);
+		if (!this.coneSet)
+		{
+			this.coneCentre = direction;
+			this.coneLow = -halfWidth;
+			this.coneHigh = halfWidth;
+			this.coneSet = true;
+			return true;
+		}
+
+		// The direction relative to the centre of the cone, between -PI and PI
+		double offset = direction - this.coneCentre;
+		if (offset > Math.PI) offset -= 2 * Math.PI;
+		else if (offset < -Math.PI) offset += 2 * Math.PI;
+
+		if (offset < this.coneLow || offset > this.coneHigh) return false;
+
+		this.coneLow = Math.max(this.coneLow, offset - halfWidth);
+		this.coneHigh = Math.min(this.coneHigh, offset + halfWidth);
+		return true;
+	}
+
+	private void setAnchor(Location location)
+	{
+		this.anchor = location;
+		this.metresPerLongitudeE6 = METRES_PER_E6 * Math.cos(Math.toRadians(location.getLatitude()));
+		this.coneSet = false;
+		this.droppedCount = 0;
+	}
+
+	private void drop(double x, double y)
+	{
+		this.droppedX[this.droppedCount] = x;
+		this.droppedY[this.droppedCount] = y;
+		this.droppedCount++;
+	}
+
+	/**
+	 * Counts a fix as kept, and measures how far the fixes dropped since the anchor are from the line between
+	 * the anchor and the kept fix.
+	 */
+	private Location keep(Location location)
+	{
+		if (this.droppedCount > 0)
+		{
+			double endX = getX(this.anchor, location);
+			double endY = getY(this.anchor, location);
+			double lengthSquared = endX * endX + endY * endY;
+			for (int i = 0; i < this.droppedCount; i++)
+			{
+				// Distance from the segment, using the nearest point on it
+				double t = lengthSquared == 0 ? 0 : (this.droppedX[i] * endX + this.droppedY[i] * endY) / lengthSquared;
+				t = Math.max(0, Math.min(1, t));
+				double dx = this.droppedX[i] - t * endX;
+				double dy = this.droppedY[i] - t * endY;
+				this.maxDeviation = Math.max(this.maxDeviation, Math.sqrt(dx * dx + dy * dy));
+			}
+			this.droppedCount = 0;
+		}
+		this.fixesKept++;
+		return location;
+	}
+
+	private double getX(Location from, Location to)
+	{
+		return (to.getLongitude() - from.getLongitude()) * 1e6 * this.metresPerLongitudeE6;
+	}
+
+	private double getY(Location from, Location to)
+	{
+		return (to.getLatitude() - from.getLatitude()) * 1e6 * METRES_PER_E6;
+	}
+}
@@ -0,0 +1,195 @@
+package com.digitalpies.promenade.gps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.digitalpies.promenade.database.Track;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * An append-only log of the GPS points of the walk in progress, kept in a memory-mapped file.<br>
+ * <br>
+ * The file starts with a header of a magic number, a version and the number of committed points, followed
+ * by each point as its latitude and longitude in microdegrees, the time of the fix and its accuracy. A point is written straight into
+ * the mapped memory and the count in the header is only raised once it has been, so a point that was being
+ * written when the app was killed is ignored when the log is opened again. Writes to the mapping are kept by
+ * the system even if the process dies, and are forced to storage every FORCE_SIZE points, when the walk is
+ * paused and before any of the points are added to the database, so the points survive the phone losing
+ * power as well, and the log never holds fewer points than the database.<br>
+ * <br>
+ * Opening the log only reads the header, so a service restarted in the middle of a walk has its points back
+ * straight away. The mapping is doubled in size whenever it fills up.
+ *
+ * @author Alex Hardwicke
+ */
+public class WalkLog
+{
+	private static final String TAG = "WalkLog";
+	private static final String FILE_NAME = "walk.log";
+
+	private static final int MAGIC = 0x50574C47;
+	private static final int VERSION = 2;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int COUNT_OFFSET = 8;
+	private static final int HEADER_SIZE = 12;
+	private static final int POINT_SIZE = 20;
+
+	private static final int INITIAL_SIZE = 64 * 1024;
+	private static final int FORCE_SIZE = 50;
+
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int count;
+	private int unforced = 0;
+
+	/**
+	 * Opens the log in the application's files directory, creating it if it doesn't exist. If the file
+	 * holds a log from a walk that was never finished, its points are kept.
+	 *
+	 * @param context	The context whose files directory holds the log
+	 *
+	 * @throws IOException	If the file can't be opened or mapped
+	 */
+	public WalkLog(Context context) throws IOException
+	{
+		this.channel = new RandomAccessFile(new File(context.getFilesDir(), FILE_NAME), "rw").getChannel();
+		map(Math.max(this.channel.size(), INITIAL_SIZE));
+
+		if (this.buffer.getInt(MAGIC_OFFSET) == MAGIC && this.buffer.getInt(VERSION_OFFSET) == VERSION)
+		{
+			int capacity = (this.buffer.capacity() - HEADER_SIZE) / POINT_SIZE;
+			this.count = Math.max(0, Math.min(this.buffer.getInt(COUNT_OFFSET), capacity));
+		}
+		else
+		{
+			this.buffer.putInt(MAGIC_OFFSET, MAGIC);
+			this.buffer.putInt(VERSION_OFFSET, VERSION);
+			this.buffer.putInt(COUNT_OFFSET, 0);
+			this.count = 0;
+			force();
+		}
+	}
+
+	/**
+	 * Appends a point to the end of the log, growing the mapping if it's full. If the mapping can't be grown
+	 * the point isn't appended, and the caller mustn't record it anywhere else either, so that the log still
+	 * matches the walk's Track.
+	 *
+	 * @param latitudeE6	The latitude of the point in microdegrees
+	 * @param longitudeE6	The longitude of the point in microdegrees
+	 * @param time			The time of the fix, in milliseconds since the epoch
+	 * @param accuracy		The accuracy of the fix in metres
+	 *
+	 * @throws IOException	If the log is full and can't be grown
+	 */
+	public synchronized void append(int latitudeE6, int longitudeE6, long time, float accuracy) throws IOException
+	{
+		int position = HEADER_SIZE + this.count * POINT_SIZE;
+		if (position + POINT_SIZE > this.buffer.capacity()) map(this.buffer.capacity() * 2L);
+
+		this.buffer.putInt(position, latitudeE6);
+		this.buffer.putInt(position + 4, longitudeE6);
+		this.buffer.putLong(position + 8, time);
+		this.buffer.putFloat(position + 16, accuracy);
+
+		// Only count the point once it has been completely written
+		this.count++;
+		this.buffer.putInt(COUNT_OFFSET, this.count);
+
+		if (++this.unforced >= FORCE_SIZE) force();
+	}
+
+	/**
+	 * Returns the number of points in the log.
+	 *
+	 * @return	The number of points
+	 */
+	public synchronized int size()
+	{
+		return this.count;
+	}
+
+	/**
+	 * Reads every point in the log into a Track, in the order they were appended.
+	 *
+	 * @return	The walk's Track
+	 */
+	public synchronized Track readTrack()
+	{
+		return readTrack(0, this.count);
+	}
+
+	/**
+	 * Reads the points in the log from start (inclusive) to end (exclusive) into a Track.
+	 *
+	 * @param start	The index of the first point
+	 * @param end	The index after the last point
+	 *
+	 * @return		The points
+	 */
+	public synchronized Track readTrack(int start, int end)
+	{
+		Track track = new Track(end - start);
+		for (int i = start; i < end; i++)
+		{
+			int position = HEADER_SIZE + i * POINT_SIZE;
+			track.add(this.buffer.getInt(position), this.buffer.getInt(position + 4), this.buffer.getLong(position + 8),
+					this.buffer.getFloat(position + 16));
+		}
+		return track;
+	}
+
+	/**
+	 * Makes sure every point appended so far has been written to storage.
+	 */
+	public synchronized void force()
+	{
+		this.buffer.force();
+		this.unforced = 0;
+	}
+
+	/**
+	 * Removes every point from the log. Used when the walk is finished, whether saved or cancelled, and
+	 * when a new walk is started.
+	 */
+	public synchronized void clear()
+	{
+		this.count = 0;
+		this.buffer.putInt(COUNT_OFFSET, 0);
+		force();
+	}
+
+	/**
+	 * Writes any remaining points to storage and closes the file. The log can't be used afterwards.
+	 */
+	public synchronized void close()
+	{
+		force();
+		try
+		{
+			this.channel.close();
+		}
+		catch (IOException e)
+		{
+			Log.w(TAG, "Couldn't close the log", e);
+		}
+	}
+
+	/**
+	 * Maps the first size bytes of the file, extending the file if it's shorter.
+	 *
+	 * @param size	The number of bytes to map
+	 *
+	 * @throws IOException	If the file can't be mapped
+	 */
+	private void map(long size) throws IOException
+	{
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+}
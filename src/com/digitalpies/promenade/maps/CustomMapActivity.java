@@ -28,6 +28,7 @@ import com.digitalpies.promenade.R;
 import com.digitalpies.promenade.database.DataSource;
 import com.digitalpies.promenade.database.Note;
 import com.digitalpies.promenade.database.Photo;
+import com.digitalpies.promenade.database.Track;
 import com.digitalpies.promenade.database.Walk;
 import com.digitalpies.promenade.dialogue.DeleteNoteDialogue;
 import com.digitalpies.promenade.dialogue.DeletePhotoDialogue;
@@ -73,7 +74,7 @@ public abstract class CustomMapActivity extends MapActivity
 	protected LineOverlay lineOverlay;
 	protected Walk walk;
 	protected List<Overlay> mapOverlays;
-	protected ArrayList<GeoPoint> geoPoints = new ArrayList<GeoPoint>();
+	protected Track track = new Track(0);
 
 	private ActionMode actionMode;
 	private CustomActionMode customActionMode;
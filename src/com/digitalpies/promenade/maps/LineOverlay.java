@@ -1,7 +1,6 @@
 package com.digitalpies.promenade.maps;
 
-import java.util.ArrayList;
-
+import com.digitalpies.promenade.database.Track;
 import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapView;
 import com.google.android.maps.Overlay;
@@ -19,13 +18,20 @@ import android.graphics.Point;
  */
 public class LineOverlay extends Overlay
 {
-	private ArrayList<GeoPoint> geoPoints;
+	// Mercator can't show the poles, and Google Maps stops at about 85 degrees
+	private static final int MAX_LATITUDE_E6 = 85000000;
+	private static final int MAX_LONGITUDE_E6 = 180000000;
+
+	private Track track;
+	private GeoPoint position;
 	private Projection projection;
 	private Paint line;
+	private Path path = new Path();
+	private Point point = new Point();
 	
-	public LineOverlay(ArrayList<GeoPoint> geoPoints, Projection projection)
+	public LineOverlay(Track track, Projection projection)
 	{
-		this.geoPoints = geoPoints;
+		this.track = track;
 		this.projection = projection;
 		
 		// Create a Paint, and set the settings as needed
@@ -40,40 +46,95 @@ public class LineOverlay extends Overlay
 	}
 	
 	/**
-	 * Draws a path for the provided geoPoints onto the map.<br>
-	 * <br>
-	 * Creates a Point array and path object. It then creates a Point object for each GeoPoint, and converts the
-	 * geoPoints to pixels which is stored in the Point array.<br>
+	 * Replaces the track the line is drawn along. Used while a walk is in progress, as new points are recorded.
+	 * 
+	 * @param track	The track to draw
+	 */
+	public void setTrack(Track track)
+	{
+		this.track = track;
+	}
+
+	/**
+	 * Sets the user's current position, which the line is drawn on to after the end of the track. Used while
+	 * a walk is in progress, as the last fix may not have been added to the track yet.
+	 * 
+	 * @param position	The current position, or null to end the line at the end of the track
+	 */
+	public void setPosition(GeoPoint position)
+	{
+		this.position = position;
+	}
+
+	/**
+	 * Draws a path for the provided track onto the map.<br>
 	 * <br>
-	 * It then iterates through the point array in reverse, moving to the last point, adding a line to the next
-	 * point in the Path object, and so on until it's added a line to the final point.<br>
+	 * The Projection only takes GeoPoints, so rather than creating one for every point on every draw, two
+	 * corners of the visible map are projected, and the points are converted from the track's arrays with
+	 * the same Mercator projection the map uses - x is in proportion to the longitude, and y to the Mercator
+	 * y of the latitude - scaled and offset to match the two corners.<br>
 	 * <br>
-	 * The path object and line style are then drawn onto the canvas.
+	 * The path is moved to the first point and a line is added to each point after it, and then to the
+	 * current position if there is one. The path object and line style are then drawn onto the canvas.
 	 */
 	@Override
 	public void draw(Canvas canvas, MapView mapView, boolean shadow)
 	{
 		super.draw(canvas, mapView, shadow);
 
-		// Create a Point array the same size as the GeoPoint array, and a Path object.
-		Point[] points = new Point[this.geoPoints.size()];
-		Path path = new Path();
-		
-		// Set up a Point for each GeoPoint, and convert the GeoPoint to Pixel format to go into the point.
-		for (int i = 0; i < this.geoPoints.size(); i++)
+		this.path.rewind();
+		if (this.track.size() == 0) return;
+
+		// Project the top left and bottom right corners of the map
+		GeoPoint centre = mapView.getMapCenter();
+		int top = clamp(centre.getLatitudeE6() + mapView.getLatitudeSpan() / 2, MAX_LATITUDE_E6);
+		int bottom = clamp(centre.getLatitudeE6() - mapView.getLatitudeSpan() / 2, MAX_LATITUDE_E6);
+		int left = clamp(centre.getLongitudeE6() - mapView.getLongitudeSpan() / 2, MAX_LONGITUDE_E6);
+		int right = clamp(centre.getLongitudeE6() + mapView.getLongitudeSpan() / 2, MAX_LONGITUDE_E6);
+
+		// Before the map has been laid out, it has no span to scale by
+		if (top == bottom || left == right) return;
+
+		this.projection.toPixels(new GeoPoint(top, left), this.point);
+		float topLeftX = this.point.x;
+		float topLeftY = this.point.y;
+		this.projection.toPixels(new GeoPoint(bottom, right), this.point);
+		double topY = mercatorY(top);
+		double xScale = (this.point.x - topLeftX) / (double) (right - left);
+		double yScale = (this.point.y - topLeftY) / (mercatorY(bottom) - topY);
+
+		// Convert each point to pixels and add it to the path
+		Track.Points points = this.track.points();
+		while (points.moveToNext())
 		{
-			points[i] = new Point();
-			this.projection.toPixels(this.geoPoints.get(i), points[i]);
+			float x = (float) (topLeftX + (points.getLongitudeE6() - left) * xScale);
+			float y = (float) (topLeftY + (mercatorY(points.getLatitudeE6()) - topY) * yScale);
+			if (points.getIndex() == 0)
+				this.path.moveTo(x, y);
+			else
+				this.path.lineTo(x, y);
 		}
-		
-		// Add each Point to the path.
-		for (int i = points.length - 1; i > 0; i--)
+		if (this.position != null)
 		{
-			path.moveTo(points[i].x, points[i].y);
-			path.lineTo(points[i - 1].x, points[i - 1].y - 1);
+			this.projection.toPixels(this.position, this.point);
+			this.path.lineTo(this.point.x, this.point.y);
 		}
 
 		// Draw the path onto the map.
-		canvas.drawPath(path, this.line);
+		canvas.drawPath(this.path, this.line);
+	}
+
+	/**
+	 * Returns the Mercator y of the provided latitude, which increases towards the north pole.
+	 */
+	private static double mercatorY(int latitudeE6)
+	{
+		double latitude = Math.toRadians(latitudeE6 / 1E6);
+		return Math.log(Math.tan(Math.PI / 4 + latitude / 2));
+	}
+
+	private static int clamp(int value, int max)
+	{
+		return Math.max(-max, Math.min(max, value));
 	}
 }
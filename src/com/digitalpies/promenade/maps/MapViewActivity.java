@@ -3,6 +3,7 @@ package com.digitalpies.promenade.maps;
 import com.digitalpies.promenade.R;
 import com.digitalpies.promenade.database.DataSource;
 import com.digitalpies.promenade.database.Walk;
+import com.digitalpies.promenade.database.WalkStats;
 import com.digitalpies.promenade.dialogue.WalkDetailsDialogue;
 import com.digitalpies.promenade.dialogue.WalkDialogue;
 import com.digitalpies.promenade.walklist.CustomListActivity;
@@ -45,13 +46,14 @@ public class MapViewActivity extends CustomMapActivity
 	{
 		super.onCreate(savedInstanceState);
 
-		// Getting the geoPoints and setting them on the lineOverlay
-		this.geoPoints = DataSource.getGeoPointsForWalk(this.walk);
-		this.lineOverlay = new LineOverlay(this.geoPoints, this.mapView.getProjection());
+		// Getting the track and setting it on the lineOverlay
+		this.track = DataSource.getTrackForWalk(this.walk.getId());
+		this.lineOverlay = new LineOverlay(this.track, this.mapView.getProjection());
 
 		// Finding out if the walk contains photos and/or notes
-		if (DataSource.getPhotoCountForWalk(this.walk) > 0) this.hasPhotos = true;
-		if (DataSource.getNoteCountForWalk(this.walk) > 0) this.hasNotes = true;
+		WalkStats stats = DataSource.getStatsForWalk(this.walk.getId());
+		if (stats.getPhotoCount() > 0) this.hasPhotos = true;
+		if (stats.getNoteCount() > 0) this.hasNotes = true;
 
 		boolean configurationChange = false;
 
@@ -65,10 +67,10 @@ public class MapViewActivity extends CustomMapActivity
 		
 		// Only centre & zoom if it's not being created by configuration change
 		// (to prevent the camera moving to the start on rotate) and there is
-		// at least one geoPoint (safety check)
-		if (!configurationChange && this.geoPoints.size() != 0)
+		// at least one point (safety check)
+		if (!configurationChange && this.track.size() != 0)
 		{
-			this.mapView.getController().animateTo(this.geoPoints.get(0));
+			this.mapView.getController().animateTo(this.track.getGeoPoint(0));
 			this.mapView.getController().setZoom(17);
 		}
 
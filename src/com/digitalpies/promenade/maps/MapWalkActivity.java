@@ -8,6 +8,7 @@ import java.util.Date;
 
 import com.digitalpies.promenade.R;
 import com.digitalpies.promenade.database.DataSource;
+import com.digitalpies.promenade.database.Track;
 import com.digitalpies.promenade.database.Walk;
 import com.digitalpies.promenade.dialogue.CancelWalkDialogue;
 import com.digitalpies.promenade.dialogue.NoteDialogue;
@@ -63,7 +64,8 @@ public class MapWalkActivity extends CustomMapActivity
 
 	private boolean cameraFound = false;
 	private boolean focusEnabled = true;
-	private int previousGeoPointSize = 0;
+	private GeoPoint previousPosition;
+	private boolean ending = false;
 
 	// ///////////////////////
 	//
@@ -94,7 +96,7 @@ public class MapWalkActivity extends CustomMapActivity
 	}
 
 	/**
-	 * If it's bound to a service, sets MapOpen to true, retrieves the GeoPoints, Photos and Notes,
+	 * If it's bound to a service, sets MapOpen to true, retrieves the Track, Photos and Notes,
 	 * creates the LineOverlay and draws the overlays on the map.
 	 */
 	@Override
@@ -105,11 +107,11 @@ public class MapWalkActivity extends CustomMapActivity
 		if (this.serviceBound)
 		{
 			this.service.setMapOpen(true);
-			this.geoPoints = this.service.getGeoPoints();
+			copyTrack();
 			this.photoList = DataSource.getPhotosForWalk(this.walk);
 			this.noteList = DataSource.getNotesForWalk(this.walk);
 
-			this.lineOverlay = new LineOverlay(this.geoPoints, this.mapView.getProjection());
+			this.lineOverlay = new LineOverlay(this.track, this.mapView.getProjection());
 			drawOverlays();
 		}
 	}
@@ -143,24 +145,35 @@ public class MapWalkActivity extends CustomMapActivity
 	/**
 	 * Run when the user has confirmed they wish to finish the recording of a walk.<br>
 	 * <br>
-	 * Saves the walk into the database and ends the walk.
+	 * Has the service save the walk into the database, along with every GPS point it has recorded, and
+	 * ends the walk once it has been saved. The save is done on the service's recording thread, so the UI
+	 * isn't held up by a long walk.
 	 */
 	public void saveWalk(Walk receivedWalk)
 	{
-		DataSource.saveWalk(receivedWalk);
-		endWalk();
+		if (this.ending) return;
+		this.ending = true;
+		this.service.saveWalk(receivedWalk, new Runnable() {
+			@Override
+			public void run()
+			{
+				endWalk();
+			}
+		});
 	}
 
 	/**
 	 * Run when the user has confirmed they wish to cancel the recording of a walk.<br>
 	 * <br>
-	 * If selected is true, deletes all photos for the walk from the phone. Then cancels
-	 * the walk from the database and ends the walk.
+	 * If selected is true, deletes all photos for the walk from the phone. Then has the service cancel the
+	 * walk from the database and, once it has, ends the walk, which clears its GPS points.
 	 * 
 	 * @param selected	Whether the user wishes to delete the walk's photos or not.
 	 */
 	public void cancelWalk(boolean selected)
 	{
+		if (this.ending) return;
+		this.ending = true;
 		if (selected)
 		{
 			for (int i = 0; i < this.photoList.size(); i++)
@@ -169,8 +182,13 @@ public class MapWalkActivity extends CustomMapActivity
 			}
 		}
 
-		DataSource.cancelWalk();
-		endWalk();
+		this.service.cancelWalk(new Runnable() {
+			@Override
+			public void run()
+			{
+				endWalk();
+			}
+		});
 	}
 
 	/**
@@ -195,28 +213,49 @@ public class MapWalkActivity extends CustomMapActivity
 	//
 	// ///////////////////////
 	/**
-	 * Used by the service when there's a new GeoPoint for the walk.<br>
+	 * Used by the service when there's a new position for the walk. Called on the UI thread, at most once
+	 * for however many fixes have arrived since the last call.<br>
 	 * <br>
-	 * Adds the geoPoint to the list, re-creates the line overlay, and draws the overlays.
-	 * @param geoPoint
+	 * Drains every point recorded since the last call into the activity's Track in one go, taking a new
+	 * copy of the whole Track if it's fallen too far behind, and then draws the overlays.
 	 */
-	public void newPoint(GeoPoint geoPoint)
+	public void newPoint()
 	{
-		this.geoPoints.add(geoPoint);
-		this.lineOverlay = new LineOverlay(this.geoPoints, this.mapView.getProjection());
+		if (!this.service.drainPoints(this.track))
+		{
+			copyTrack();
+			this.lineOverlay.setTrack(this.track);
+		}
 		drawOverlays();
 	}
 
 	/**
-	 * Used when the user has created a new note.
+	 * Replaces the activity's Track with a copy of the points the service has recorded so far. Later points are
+	 * added to it by newPoint.
+	 */
+	private void copyTrack()
+	{
+		Track recorded = this.service.getTrack();
+		this.track = new Track(recorded.size());
+		this.track.addAll(recorded);
+	}
+
+	/**
+	 * Used when the user has created a new note. If there's no position yet, the note can't be placed, so
+	 * the user is told to try again.
 	 * 
 	 * @param noteText	The text the user has entered.
 	 */
 	public void newNote(String noteText)
 	{
-		this.geoPoints = this.service.getGeoPoints();
-		DataSource.createNote(0, this.geoPoints.get(this.geoPoints.size() - 1).getLatitudeE6() / 1E6,
-				this.geoPoints.get(this.geoPoints.size() - 1).getLongitudeE6() / 1E6, noteText);
+		GeoPoint position = this.service.getPosition();
+		if (position == null)
+		{
+			Toast.makeText(this, R.string.toast_no_position, Toast.LENGTH_LONG).show();
+			return;
+		}
+		DataSource.createNote(this.walk.getId(), position.getLatitudeE6() / 1E6, position.getLongitudeE6() / 1E6,
+				noteText);
 		this.noteList = DataSource.getNotesForWalk(this.walk);
 		drawOverlays();
 	}
@@ -232,7 +271,8 @@ public class MapWalkActivity extends CustomMapActivity
 	 * Clears the current overlays, zooms to the final point if enabled and adds the line to the overlay. Then draws
 	 * the photo and note icons, if any, sets the positionView background to the animated icon resource, gets
 	 * the AnimationDrawable that has been set and starts the animation. It then adds positionView to the map,
-	 * centered at the most recent geoPoint, and invalidates the mapView.
+	 * centered at the most recent point, and invalidates the mapView. Until the first fix arrives there's no
+	 * position, so only the photo and note icons are drawn.
 	 * 
 	 */
 	@Override
@@ -242,16 +282,24 @@ public class MapWalkActivity extends CustomMapActivity
 		if (super.isItemTapped()) return;
 		super.drawOverlays();
 
-		// If focus is enabled and there's a new point
-		if (this.focusEnabled && this.geoPoints.size() > this.previousGeoPointSize)
+		// If focus is enabled and there's a new position
+		GeoPoint position = this.service.getPosition();
+		if (this.focusEnabled && position != null && !position.equals(this.previousPosition))
 		{
-			this.previousGeoPointSize = this.geoPoints.size();
-			this.mapView.getController().animateTo(this.geoPoints.get(this.geoPoints.size() - 1));
+			this.previousPosition = position;
+			this.mapView.getController().animateTo(position);
 		}
+		this.lineOverlay.setPosition(position);
 
 		drawPhotoIcons();
 		drawNoteIcons();
 
+		if (position == null)
+		{
+			this.mapView.invalidate();
+			return;
+		}
+
 		this.positionView.setBackgroundResource(R.drawable.animated_icon);
 		AnimationDrawable frameAnimation = (AnimationDrawable) this.positionView.getBackground();
 
@@ -260,7 +308,7 @@ public class MapWalkActivity extends CustomMapActivity
 		this.mapView.addView(this.positionView);
 
 		MapView.LayoutParams layoutParams = new MapView.LayoutParams(MapView.LayoutParams.WRAP_CONTENT,
-				MapView.LayoutParams.WRAP_CONTENT, this.geoPoints.get(this.geoPoints.size() - 1),
+				MapView.LayoutParams.WRAP_CONTENT, position,
 				MapView.LayoutParams.CENTER);
 		this.positionView.setLayoutParams(layoutParams);
 
@@ -433,7 +481,8 @@ public class MapWalkActivity extends CustomMapActivity
 	 * folder path and filename for it (In the form PyyyyMMddhhmmss.jpg) and renames the photo.<br>
 	 * <br>
 	 * It then provides additional EXIF data to the photo file in the form of GPS positions, and
-	 * finally, inserts the photo into the database.
+	 * finally, inserts the photo into the database. If there's no position yet, the photo can't be placed,
+	 * so it's left in the folder without being added to the walk, and the user is told.
 	 */
 	@Override
 	public void onActivityResult(int requestCode, int resultCode, Intent data)
@@ -466,12 +515,15 @@ public class MapWalkActivity extends CustomMapActivity
 				// Want to set the EXIF data (location) for the new photo
 				ExifInterface exif = new ExifInterface(newPath.getAbsolutePath());
 
-				// Getting GPS coordinate. If geoPoints is empty (happens rarely if the user tries to
-				// take a photo the instant the activity opens), update it.
-				if (this.geoPoints.size() == 0) this.geoPoints = this.service.getGeoPoints();
-
-				double latitude = this.geoPoints.get(this.geoPoints.size() - 1).getLatitudeE6() / 1E6;
-				double longitude = this.geoPoints.get(this.geoPoints.size() - 1).getLongitudeE6() / 1E6;
+				// Getting GPS coordinate
+				GeoPoint position = this.service.getPosition();
+				if (position == null)
+				{
+					Toast.makeText(this, R.string.toast_no_position, Toast.LENGTH_LONG).show();
+					return;
+				}
+				double latitude = position.getLatitudeE6() / 1E6;
+				double longitude = position.getLongitudeE6() / 1E6;
 
 				// Setting lat
 				exif.setAttribute(ExifInterface.TAG_GPS_LATITUDE, decimalToDMS(latitude));
@@ -491,7 +543,7 @@ public class MapWalkActivity extends CustomMapActivity
 				exif.saveAttributes();
 
 				// Insert the photo into the database
-				DataSource.createPhoto(0, latitude, longitude, newPath.getAbsolutePath());
+				DataSource.createPhoto(this.walk.getId(), latitude, longitude, newPath.getAbsolutePath());
 			}
 			catch (FileNotFoundException e)
 			{
@@ -552,7 +604,7 @@ public class MapWalkActivity extends CustomMapActivity
 	 * service with a reference to the current activity, sets serviceBound to true, tells the
 	 * service that the map is open, gets the service paused status and updates the menu.<br>
 	 * <br>
-	 * Then retrieves the GeoPoints from the service, and the notes and photos from the database,
+	 * Then retrieves the Track from the service, and the notes and photos from the database,
 	 * creates the lineOverlay, and draws the overlays on the map.
 	 * 
 	 * @author Alex Hardwicke
@@ -572,10 +624,10 @@ public class MapWalkActivity extends CustomMapActivity
 			MapWalkActivity.this.paused = MapWalkActivity.this.service.getPaused();
 			invalidateOptionsMenu();
 
-			MapWalkActivity.this.geoPoints = MapWalkActivity.this.service.getGeoPoints();
+			copyTrack();
 			MapWalkActivity.this.photoList = DataSource.getPhotosForWalk(MapWalkActivity.this.walk);
 			MapWalkActivity.this.noteList = DataSource.getNotesForWalk(MapWalkActivity.this.walk);
-			MapWalkActivity.this.lineOverlay = new LineOverlay(MapWalkActivity.this.geoPoints,
+			MapWalkActivity.this.lineOverlay = new LineOverlay(MapWalkActivity.this.track,
 					MapWalkActivity.this.mapView.getProjection());
 			drawOverlays();
 		}
@@ -2,10 +2,10 @@ package com.digitalpies.promenade.walklist;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.digitalpies.promenade.R;
 import com.digitalpies.promenade.database.DataSource;
-import com.digitalpies.promenade.database.Photo;
 import com.digitalpies.promenade.database.Walk;
 import com.digitalpies.promenade.dialogue.DeleteWalkDialogue;
 import com.digitalpies.promenade.dialogue.DeletingWalksDialogue;
@@ -46,9 +46,9 @@ import android.widget.AdapterView.OnItemClickListener;
  * 
  * @author Alex Hardwicke
  */
-public abstract class CustomListActivity extends ListActivity implements OnItemClickListener
+public abstract class CustomListActivity extends ListActivity implements OnItemClickListener, PagedWalkList.Listener
 {
-	protected ArrayList<Walk> walks = new ArrayList<Walk>();
+	protected PagedWalkList walks;
 	protected SharedPreferences preferences;
 	protected ListAdapter adapter;
 
@@ -227,11 +227,38 @@ public abstract class CustomListActivity extends ListActivity implements OnItemC
 	@Override
 	public void onItemClick(AdapterView<?> adapterView, View view, int position, long arg3)
 	{
+		// Ignore taps on rows that are still loading
+		Walk walk = this.walks.get(position);
+		if (walk == null) return;
+
 		Intent intent = new Intent(this, com.digitalpies.promenade.maps.MapViewActivity.class);
-		intent.putExtra(WALK_TAG, this.walks.get(position));
+		intent.putExtra(WALK_TAG, walk);
 		startActivity(intent);
 	}
 
+	/**
+	 * Replaces the walks shown in the list with a new PagedWalkList reading from the provided source.
+	 * The old list is closed so that its pages still loading don't update the adapter.
+	 * 
+	 * @param source	Provides the walks to show
+	 */
+	protected void setWalks(PagedWalkList.PageSource source)
+	{
+		if (this.walks != null) this.walks.close();
+		this.walks = new PagedWalkList(source, this);
+		this.adapter.setWalks(this.walks);
+		this.adapter.notifyDataSetChanged();
+	}
+
+	/**
+	 * Run by the PagedWalkList when a page of walks has loaded. Redraws the list.
+	 */
+	@Override
+	public void onPageLoaded(PagedWalkList list)
+	{
+		this.adapter.notifyDataSetChanged();
+	}
+
 	@Override
 	public boolean onSearchRequested()
 	{
@@ -302,69 +329,49 @@ public abstract class CustomListActivity extends ListActivity implements OnItemC
 	 * <br>
 	 * Manages a selection menu with edit walk and delete walk options. If one item is
 	 * selected, both the edit walk and delete walk options are available. If more than
-	 * one item is selected, only the delete walk option is available.
+	 * one item is selected, only the delete walk option is available.<br>
+	 * <br>
+	 * Each walk is kept as it's checked, while its row is on screen and so its page is loaded. The
+	 * PagedWalkList only keeps a few pages, so the walks may no longer be in it by the time the user picks
+	 * an option.
 	 * 
 	 * @author Alex Hardwicke
 	 */
 	protected class CustomMultiChoiceModeListener implements MultiChoiceModeListener
 	{
+		private final HashMap<Integer, Walk> checkedWalks = new HashMap<Integer, Walk>();
+
 		@Override
 		public boolean onActionItemClicked(ActionMode mode, MenuItem item)
 		{
-			// Get the checked items
-			SparseBooleanArray sba = getListView().getCheckedItemPositions();
+			ArrayList<Walk> selectedWalks = getSelectedWalks();
+			if (selectedWalks == null)
+			{
+				Toast.makeText(CustomListActivity.this, R.string.toast_walks_loading, Toast.LENGTH_SHORT).show();
+				return true;
+			}
+
+			// Only show the dialogues if one doesn't already exist (can happen if user taps quickly on the button)
+			FragmentManager manager = getFragmentManager();
 			switch (item.getItemId())
 			{
 			case R.id.edit_walk_button:
-				for (int i = 0; i < sba.size(); i++)
+				if (manager.findFragmentByTag(DIALOGUE_FRAGMENT_EDIT_WALK) == null)
 				{
-					// If this item is checked
-					if (sba.valueAt(i))
-					{
-						// Show the edit walk dialogue and break the loop.
-						// Only show the dialogue if one doesn't already exist (can happen if user taps quickly on the
-						// button)
-						FragmentManager manager = getFragmentManager();
-						if (manager.findFragmentByTag(DIALOGUE_FRAGMENT_EDIT_WALK) == null)
-						{
-							DialogFragment newFragment = WalkDialogue.newInstance(EDIT_WALK_TASK,
-									CustomListActivity.this.walks.get(sba.keyAt(i)));
-							newFragment.show(manager, DIALOGUE_FRAGMENT_EDIT_WALK);
-						}
-						break;
-					}
+					DialogFragment newFragment = WalkDialogue.newInstance(EDIT_WALK_TASK, selectedWalks.get(0));
+					newFragment.show(manager, DIALOGUE_FRAGMENT_EDIT_WALK);
 				}
 				mode.finish();
 				return true;
 			case R.id.view_walk_details_button:
-				for (int i = 0; i < sba.size(); i++)
+				if (manager.findFragmentByTag(DIALOGUE_FRAGMENT_VIEW_WALK_DETAILS) == null)
 				{
-					// If this item is checked
-					if (sba.valueAt(i))
-					{
-						// Show the view walk dialogue and break the loop.
-						// Only show the dialogue if one doesn't already exist (can happen if user taps quickly on the
-						// button)
-						FragmentManager manager = getFragmentManager();
-						if (manager.findFragmentByTag(DIALOGUE_FRAGMENT_VIEW_WALK_DETAILS) == null)
-						{
-							DialogFragment newFragment = WalkDetailsDialogue.newInstance(CustomListActivity.this.walks
-									.get(sba.keyAt(i)));
-							newFragment.show(manager, DIALOGUE_FRAGMENT_VIEW_WALK_DETAILS);
-						}
-						break;
-					}
+					DialogFragment newFragment = WalkDetailsDialogue.newInstance(selectedWalks.get(0));
+					newFragment.show(manager, DIALOGUE_FRAGMENT_VIEW_WALK_DETAILS);
 				}
 				mode.finish();
 				return true;
 			case R.id.delete_walk_button:
-				// Create an ArrayList<Walk> and add all of the selected walks to it, and then pass that
-				// on to showDeleteWalk.
-				ArrayList<Walk> selectedWalks = new ArrayList<Walk>();
-				for (int i = 0; i < sba.size(); i++)
-				{
-					if (sba.valueAt(i)) selectedWalks.add(CustomListActivity.this.walks.get(sba.keyAt(i)));
-				}
 				showDeleteWalk(selectedWalks);
 				mode.finish();
 				return true;
@@ -372,6 +379,29 @@ public abstract class CustomListActivity extends ListActivity implements OnItemC
 			return false;
 		}
 
+		/**
+		 * Returns the checked walks, in list order. A walk checked before the activity was recreated (the
+		 * ListView restores its checked rows) wasn't kept, so it's taken from the PagedWalkList - if its
+		 * page isn't loaded, get starts loading it.
+		 * 
+		 * @return	The checked walks, or null if any of them are still loading
+		 */
+		private ArrayList<Walk> getSelectedWalks()
+		{
+			SparseBooleanArray sba = getListView().getCheckedItemPositions();
+			ArrayList<Walk> selectedWalks = new ArrayList<Walk>();
+			for (int i = 0; i < sba.size(); i++)
+			{
+				if (!sba.valueAt(i)) continue;
+
+				Walk walk = this.checkedWalks.get(sba.keyAt(i));
+				if (walk == null) walk = CustomListActivity.this.walks.get(sba.keyAt(i));
+				if (walk == null) return null;
+				selectedWalks.add(walk);
+			}
+			return selectedWalks;
+		}
+
 		@Override
 		public boolean onCreateActionMode(ActionMode mode, Menu menu)
 		{
@@ -384,6 +414,7 @@ public abstract class CustomListActivity extends ListActivity implements OnItemC
 		@Override
 		public void onDestroyActionMode(ActionMode mode)
 		{
+			this.checkedWalks.clear();
 		}
 
 		/**
@@ -420,21 +451,40 @@ public abstract class CustomListActivity extends ListActivity implements OnItemC
 			return false;
 		}
 
+		/**
+		 * Run when a row is checked or unchecked. Keeps or forgets its walk, and invalidates the mode so the
+		 * menu is updated. Rows that are still loading can't be checked, as with tapping them.
+		 */
 		@Override
 		public void onItemCheckedStateChanged(ActionMode mode, int position, long id, boolean checked)
 		{
-			// Invalidate the mode when a new item is selected
+			if (checked)
+			{
+				Walk walk = CustomListActivity.this.walks.get(position);
+				if (walk == null)
+				{
+					getListView().setItemChecked(position, false);
+					return;
+				}
+				this.checkedWalks.put(position, walk);
+			}
+			else
+				this.checkedWalks.remove(position);
+
 			mode.invalidate();
 		}
 	}
 
 	/**
-	 * An implementation of AsyncTask used to delete photos and update a progress
-	 * dialogue while this happens.
+	 * An implementation of AsyncTask used to delete walks and their photos and update a progress
+	 * dialogue while this happens.<br>
+	 * <br>
+	 * The walks are deleted by DataSource.deleteWalks, which removes them in chunks, one transaction
+	 * per chunk. The task is its DeleteListener - AsyncTask's isCancelled stops it between chunks.
 	 * 
 	 * @author Alex Hardwicke
 	 */
-	protected class DeleteTask extends AsyncTask<Boolean, Integer, Bundle>
+	protected class DeleteTask extends AsyncTask<Boolean, Integer, Bundle> implements DataSource.DeleteListener
 	{
 		private CustomListActivity theActivity;
 		private boolean completed;
@@ -480,46 +530,45 @@ public abstract class CustomListActivity extends ListActivity implements OnItemC
 		/**
 		 * The main method that is run by the AsyncTask.<br>
 		 * <br>
-		 * Iterates through the walk list. Checks if cancelled has been set to true. If it
-		 * has, it breaks the loop.<br>
+		 * Collects the IDs of the walks and passes them to DataSource.deleteWalks, which deletes
+		 * them a chunk at a time and runs onChunkDeleted after each chunk.
+		 */
+		@Override
+		protected Bundle doInBackground(Boolean... params)
+		{
+			long[] ids = new long[this.selectedWalks.size()];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = this.selectedWalks.get(i).getId();
+
+			DataSource.deleteWalks(ids, this);
+			return null;
+		}
+
+		/**
+		 * Run on the AsyncTask's thread after each chunk of walks is deleted.<br>
 		 * <br>
-		 * Assuming it hasn't broken, it then checks if it should delete photos. If so, it
-		 * gets all photos for the provided walk and iterates through those photos. For each
-		 * photo it deletes it, and checks if it succeeded in deleting.<br>
-		 * <br>If it didn't, and this is the first photo that failed to delete in this
-		 * AsyncTask, it sets shouldShowDeleteErrorToast to true. This is then checked at the
-		 * nearest opportunity and a toast is shown to inform the user.<br>
+		 * If photos should be deleted, deletes the file of each photo that belonged to the chunk's
+		 * walks, and checks if it succeeded in deleting. If it didn't, and this is the first photo
+		 * that failed to delete in this AsyncTask, it sets shouldShowDeleteErrorToast to true. This
+		 * is then checked at the nearest opportunity and a toast is shown to inform the user.<br>
 		 * <br>
-		 * It then deletes the walk from the Database and publishes the progress (updating the
-		 * progress dialogue).
+		 * It then publishes the progress (updating the progress dialogue).
 		 */
 		@Override
-		protected Bundle doInBackground(Boolean... params)
+		public void onChunkDeleted(int deleted, ArrayList<String> photoFiles)
 		{
-			for (int i = 0; i < this.selectedWalks.size(); i++)
+			if (this.deletePhotos)
 			{
-				Walk walk = this.selectedWalks.get(i);
-				if (this.deletePhotos)
+				for (String photoFile : photoFiles)
 				{
-					ArrayList<Photo> photos = DataSource.getPhotosForWalk(walk);
-					for (Photo photo : photos)
+					boolean fileDeleted = new File(photoFile).delete();
+					if (!this.shownDeleteErrorToast && !fileDeleted)
 					{
-						// Stop deleting photo files as soon as the user clicks cancel!
-						if (isCancelled()) break;
-						File file = new File(photo.getFile());
-						boolean deleted = file.delete();
-						if (!this.shownDeleteErrorToast && !deleted)
-						{
-							this.shouldShowDeleteErrorToast = true;
-						}
+						this.shouldShowDeleteErrorToast = true;
 					}
 				}
-				// Don't delete if cancelled!
-				if (isCancelled()) break;
-				DataSource.deleteWalk(walk);
-				if (this.theActivity != null) publishProgress(i);
 			}
-			return null;
+			if (this.theActivity != null) publishProgress(deleted);
 		}
 
 		/**
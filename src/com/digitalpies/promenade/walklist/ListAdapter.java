@@ -19,43 +19,37 @@ import android.widget.TextView;
 
 /**
  * ListAdapter is an adapter used by CustomListActivity (and as such, WalkListActivity and SearchableActivity).
- * It takes in an ArrayList<Walk>, which contains all of the walks that are going to be displayed, and then
- * processes them so that they are displayed on the ListView.
+ * It takes in a PagedWalkList, which contains all of the walks that are going to be displayed, and then
+ * processes them so that they are displayed on the ListView.<br>
+ * <br>
+ * Walks whose page hasn't loaded yet are shown as blank rows. The activity calls notifyDataSetChanged
+ * when the page arrives, and they're filled in.
  * 
  * @author Alex Hardwicke
  */
 public class ListAdapter extends BaseAdapter
 {
 	private final Context context;
-	private ArrayList<Walk> walks;
+	private PagedWalkList walks;
 	private LayoutInflater inflater;
 	
-	public ListAdapter(Context context, ArrayList<Walk> newWalks)
+	public ListAdapter(Context context)
 	{
 		super();
 		this.context = context;
-		this.walks = new ArrayList<Walk>();
 
 		this.inflater = (LayoutInflater) this.context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		
-		// Don't show walk ID 0 (in-progress walk)
-		for (Walk walk : newWalks)
-		{
-			if (walk.getId() != 0) 
-				this.walks.add(walk);
-		}
 	}
 	
-	public void setWalks(ArrayList<Walk> newWalks)
+	/**
+	 * Sets the walks to display. The list never contains the in-progress walk, as it's left out by
+	 * the list's PageSource.
+	 * 
+	 * @param newWalks	The walks to display
+	 */
+	public void setWalks(PagedWalkList newWalks)
 	{
-		this.walks = new ArrayList<Walk>();
-
-		// Don't show walk ID 0 (in-progress walk)
-		for (Walk walk : newWalks)
-		{
-			if (walk.getId() != 0) 
-				this.walks.add(walk);
-		}
+		this.walks = newWalks;
 	}
 
 	/**
@@ -70,8 +64,30 @@ public class ListAdapter extends BaseAdapter
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent)
 	{
-		// Retrieve the walk for the current position and the name, date and tags for that walk
+		if (convertView == null)
+		{
+			// Get a LayoutInflater and use it to inflate the layout xml
+			convertView = this.inflater.inflate(R.layout.list_walk_list_view, parent, false);
+		}
+
+		// Retrieve the three TextViews for the data
+		TextView nameTextView = (TextView) convertView.findViewById(R.id.name_text_view);
+		TextView dateTextView = (TextView) convertView.findViewById(R.id.date_text_view);
+		TextView descriptionTextView = (TextView) convertView.findViewById(R.id.description_text_view);
+		TextView tagsTextView = (TextView) convertView.findViewById(R.id.tags_text_view);
+
+		// Retrieve the walk for the current position. If its page is still loading, show a blank row.
 		Walk walk = this.walks.get(position);
+		if (walk == null)
+		{
+			nameTextView.setText("");
+			dateTextView.setText("");
+			descriptionTextView.setText("");
+			tagsTextView.setText("");
+			return convertView;
+		}
+
+		// Retrieve the name, date and tags for the walk
 		String name = walk.getName();
 		Long dateLong = walk.getDate();
 		String description = walk.getDescription();
@@ -84,18 +100,6 @@ public class ListAdapter extends BaseAdapter
 			tags += tagList.get(tagList.size() - 1).getName();
 		}
 		String dateString = getDate(dateLong);
-		
-		if (convertView == null)
-		{
-			// Get a LayoutInflater and use it to inflate the layout xml
-			convertView = this.inflater.inflate(R.layout.list_walk_list_view, parent, false);
-		}
-
-		// Retrieve the three TextViews for the data
-		TextView nameTextView = (TextView) convertView.findViewById(R.id.name_text_view);
-		TextView dateTextView = (TextView) convertView.findViewById(R.id.date_text_view);
-		TextView descriptionTextView = (TextView) convertView.findViewById(R.id.description_text_view);
-		TextView tagsTextView = (TextView) convertView.findViewById(R.id.tags_text_view);
 
 		// Set the TextViews to contain the appropriate data
 		nameTextView.setText(name);
@@ -109,6 +113,7 @@ public class ListAdapter extends BaseAdapter
 	@Override
 	public int getCount()
 	{
+		if (this.walks == null) return 0;
 		return this.walks.size();
 	}
 
@@ -121,7 +126,8 @@ public class ListAdapter extends BaseAdapter
 	@Override
 	public long getItemId(int position)
 	{
-		return this.walks.get(position).getId();
+		Walk walk = this.walks.get(position);
+		return walk == null ? -1 : walk.getId();
 	}
 	
 	public static String getDate(long dateLong)
@@ -0,0 +1,186 @@
+package com.digitalpies.promenade.walklist;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import com.digitalpies.promenade.database.Walk;
+
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * A read-only list of walks that only holds the pages of walks near where the user is looking.<br>
+ * <br>
+ * The walks are read PAGE_SIZE at a time from a PageSource. Pages are only ever loaded by AsyncTasks, so
+ * the UI thread never waits on the database, and at most MAX_PAGES are kept in memory - the least recently
+ * used page is dropped when another is loaded. Anything that needs a walk after its page may have been
+ * dropped, such as the walks selected in the list, must keep the walk itself. The total number of walks is loaded along with the
+ * first page, and size() returns 0 until it has been.<br>
+ * <br>
+ * get returns null for a walk whose page isn't loaded yet, and starts loading it. The Listener is told
+ * each time a page arrives so that the list can be redrawn.
+ *
+ * @author Alex Hardwicke
+ */
+public class PagedWalkList
+{
+	private static final String TAG = "PagedWalkList";
+	private static final int PAGE_SIZE = 50;
+	private static final int MAX_PAGES = 6;
+
+	/**
+	 * Provides the walks for a PagedWalkList. Both methods are called on a background thread.
+	 */
+	public interface PageSource
+	{
+		/**
+		 * @return	The total number of walks in the list
+		 */
+		public int getCount();
+
+		/**
+		 * Retrieves a page of walks.
+		 *
+		 * @param offset	The position of the first walk in the page
+		 * @param limit		The maximum number of walks in the page
+		 *
+		 * @return			The walks in the page, in list order
+		 */
+		public ArrayList<Walk> getPage(int offset, int limit);
+	}
+
+	/**
+	 * Told when the PagedWalkList has loaded more walks. Called on the UI thread.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Run when a page of walks has finished loading. The first time this is run, the size of the
+		 * list has also been loaded.
+		 *
+		 * @param list	The list that loaded the page
+		 */
+		public void onPageLoaded(PagedWalkList list);
+	}
+
+	private final PageSource source;
+	private final Listener listener;
+	private final LruCache<Integer, ArrayList<Walk>> pages = new LruCache<Integer, ArrayList<Walk>>(MAX_PAGES);
+	private final HashSet<Integer> loadingPages = new HashSet<Integer>();
+	private int count = 0;
+	private boolean countLoaded = false;
+	private boolean closed = false;
+
+	/**
+	 * Creates the list and starts loading its size and first page.
+	 *
+	 * @param source	Provides the walks
+	 * @param listener	Told when each page of walks has loaded. Can be null.
+	 */
+	public PagedWalkList(PageSource source, Listener listener)
+	{
+		this.source = source;
+		this.listener = listener;
+		loadPage(0);
+	}
+
+	/**
+	 * Returns the number of walks in the list, or 0 if this hasn't been loaded yet.
+	 *
+	 * @return	The number of walks
+	 */
+	public int size()
+	{
+		return this.count;
+	}
+
+	/**
+	 * Returns true once the number of walks in the list has been loaded.
+	 *
+	 * @return	True if size() is correct
+	 */
+	public boolean isCountLoaded()
+	{
+		return this.countLoaded;
+	}
+
+	/**
+	 * Returns the walk at the provided position, if its page has been loaded. If it hasn't, starts loading
+	 * the page and returns null. When the position is in the second half of its page, the next page is
+	 * loaded too, so that it's ready by the time the user scrolls to it.
+	 *
+	 * @param position	The position of the walk
+	 *
+	 * @return			The walk, or null if it isn't loaded yet
+	 */
+	public Walk get(int position)
+	{
+		int page = position / PAGE_SIZE;
+		int index = position % PAGE_SIZE;
+
+		if (index >= PAGE_SIZE / 2 && (page + 1) * PAGE_SIZE < this.count && this.pages.get(page + 1) == null)
+			loadPage(page + 1);
+
+		ArrayList<Walk> walks = this.pages.get(page);
+		if (walks == null)
+		{
+			loadPage(page);
+			return null;
+		}
+		return index < walks.size() ? walks.get(index) : null;
+	}
+
+	/**
+	 * Stops the list telling its Listener about pages that finish loading. Used when the list is replaced.
+	 */
+	public void close()
+	{
+		this.closed = true;
+	}
+
+	/**
+	 * Starts an AsyncTask to load the provided page, unless it's already loading. Page 0 also loads the size
+	 * of the list, if it hasn't been loaded yet.
+	 *
+	 * @param page	The page to load
+	 */
+	private void loadPage(final int page)
+	{
+		if (this.closed || this.loadingPages.contains(page)) return;
+		this.loadingPages.add(page);
+
+		final boolean loadCount = !this.countLoaded;
+		new AsyncTask<Void, Void, ArrayList<Walk>>() {
+			private int loadedCount;
+
+			@Override
+			protected ArrayList<Walk> doInBackground(Void... params)
+			{
+				// The load time is logged so that any wait on the database (such as behind a walk being
+				// recorded) can be seen
+				long start = SystemClock.uptimeMillis();
+				if (loadCount) this.loadedCount = PagedWalkList.this.source.getCount();
+				ArrayList<Walk> walks = PagedWalkList.this.source.getPage(page * PAGE_SIZE, PAGE_SIZE);
+				Log.d(TAG, "Loaded page " + page + " in " + (SystemClock.uptimeMillis() - start) + "ms");
+				return walks;
+			}
+
+			@Override
+			protected void onPostExecute(ArrayList<Walk> walks)
+			{
+				PagedWalkList.this.loadingPages.remove(page);
+				if (loadCount)
+				{
+					PagedWalkList.this.count = this.loadedCount;
+					PagedWalkList.this.countLoaded = true;
+				}
+				PagedWalkList.this.pages.put(page, walks);
+
+				if (!PagedWalkList.this.closed && PagedWalkList.this.listener != null)
+					PagedWalkList.this.listener.onPageLoaded(PagedWalkList.this);
+			}
+		}.execute();
+	}
+}
@@ -1,9 +1,22 @@
 package com.digitalpies.promenade.walklist;
 
+import java.util.HashSet;
+
+import com.digitalpies.promenade.database.DataSource;
+import com.digitalpies.promenade.database.SearchTerms;
+
+import android.app.SearchManager;
 import android.content.SearchRecentSuggestionsProvider;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
 
 /**
- * A very simple SearchSuggestionProvider.<br>
+ * The SearchSuggestionProvider. Offers the user's recent queries that match what they've typed, followed by
+ * completions of the word they're typing from the names, descriptions and tags of their walks.<br>
+ * <br>
+ * The completions come from the search_terms table, most used first, through a SuggestionCache - so typing
+ * another letter usually filters the terms already read rather than querying the database.<br>
  * <br>
  * Has to be a separate public class to be used in the AndroidManifest file.
  * 
@@ -13,9 +26,64 @@ public class SearchSuggestionProvider extends SearchRecentSuggestionsProvider
 {
 	public final static String AUTHORITY = "com.digitalpies.promenade.walklist.SearchSuggestionProvider";
 	public final static int MODE = DATABASE_MODE_QUERIES;
+
+	private static final int MAX_COMPLETIONS = 10;
+	private static final String[] COLUMNS = { "_id", SearchManager.SUGGEST_COLUMN_TEXT_1,
+			SearchManager.SUGGEST_COLUMN_QUERY, SearchManager.SUGGEST_COLUMN_ICON_1 };
+
+	private final SuggestionCache cache = new SuggestionCache();
 	
 	public SearchSuggestionProvider()
 	{
 		setupSuggestions(AUTHORITY, MODE);
 	}
+
+	/**
+	 * Returns the recent queries matching the typed text (as SearchRecentSuggestionsProvider does), followed
+	 * by the typed text with its last word completed by each matching search term. Completions that are
+	 * already a recent query aren't repeated.
+	 */
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+	{
+		Cursor recent = super.query(uri, projection, selection, selectionArgs, sortOrder);
+		String text = (selectionArgs == null || selectionArgs[0] == null) ? "" : selectionArgs[0];
+
+		// Split off the word being typed. If the text ends between words, there's nothing to complete.
+		int start = text.length();
+		while (start > 0 && SearchTerms.isTermChar(text.charAt(start - 1)))
+			start--;
+		if (start == text.length() || recent == null) return recent;
+		String prefix = SearchTerms.normalise(text.substring(start));
+		String typed = text.substring(0, start);
+
+		MatrixCursor suggestions = new MatrixCursor(COLUMNS);
+		int id = 0;
+
+		// Copy the recent queries across
+		int textColumn = recent.getColumnIndex(SearchManager.SUGGEST_COLUMN_TEXT_1);
+		int queryColumn = recent.getColumnIndex(SearchManager.SUGGEST_COLUMN_QUERY);
+		int iconColumn = recent.getColumnIndex(SearchManager.SUGGEST_COLUMN_ICON_1);
+		HashSet<String> recentQueries = new HashSet<String>();
+		recent.moveToFirst();
+		while (!recent.isAfterLast())
+		{
+			String query = recent.getString(queryColumn);
+			recentQueries.add(SearchTerms.normalise(query));
+			suggestions.addRow(new Object[] { id++, recent.getString(textColumn), query,
+					iconColumn == -1 ? null : recent.getString(iconColumn) });
+			recent.moveToNext();
+		}
+		recent.close();
+
+		// Then the completions
+		DataSource.openDataSource(getContext());
+		for (String term : this.cache.get(prefix, MAX_COMPLETIONS))
+		{
+			String completion = typed + term;
+			if (recentQueries.contains(SearchTerms.normalise(completion))) continue;
+			suggestions.addRow(new Object[] { id++, completion, completion, null });
+		}
+		return suggestions;
+	}
 }
@@ -32,6 +32,10 @@ public class SearchableActivity extends CustomListActivity
 		// Let the user tap the "home" button to go back to the main list
 		getActionBar().setDisplayHomeAsUpEnabled(true);
 		getActionBar().setIcon(R.drawable.ic_menu_find);
+
+		// Set up the list. The walks are loaded in onResume.
+		this.adapter = new ListAdapter(this);
+		setListAdapter(this.adapter);
 		
 		Intent intent = getIntent();
 		if (Intent.ACTION_SEARCH.equals(intent.getAction()))
@@ -65,19 +69,24 @@ public class SearchableActivity extends CustomListActivity
 		getActionBar().setSubtitle(getString(R.string.search_with_colon) + " " + this.query);
 		
 		// Get the sort value
-		int checkedItem = this.preferences.getInt(PreferenceActivity.SORT_LIST, CustomListActivity.DATE_DESCENDING);
+		final int checkedItem = this.preferences.getInt(PreferenceActivity.SORT_LIST,
+				CustomListActivity.DATE_DESCENDING);
+		final String searchQuery = this.query;
 
-		// Retrieve the search result for the query
-		this.walks = DataSource.search(this.query, checkedItem);
-		
-		// If null returned, create an empty ArrayList to prevent NullPointerExceptions
-		if (this.walks == null)
-			this.walks = new ArrayList<Walk>();
-		
-		// Set up the list
-		this.adapter = new ListAdapter(this, this.walks);
-		setListAdapter(this.adapter);
-		this.adapter.notifyDataSetChanged();
+		// Retrieve the search results for the query a page at a time, in the background
+		setWalks(new PagedWalkList.PageSource() {
+			@Override
+			public int getCount()
+			{
+				return DataSource.getSearchCount(searchQuery);
+			}
+
+			@Override
+			public ArrayList<Walk> getPage(int offset, int limit)
+			{
+				return DataSource.search(searchQuery, checkedItem, offset, limit);
+			}
+		});
 	}
 
 	@Override
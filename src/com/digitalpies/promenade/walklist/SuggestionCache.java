@@ -0,0 +1,83 @@
+package com.digitalpies.promenade.walklist;
+
+import java.util.ArrayList;
+
+import com.digitalpies.promenade.database.DataSource;
+
+import android.util.LruCache;
+
+/**
+ * Caches the search terms that start with each prefix the user has typed, for SearchSuggestionProvider.<br>
+ * <br>
+ * Up to CANDIDATES terms are read for a prefix. If fewer than that were found, the list holds every term
+ * with the prefix, so the terms for a longer prefix (the user typing another letter) are found by filtering
+ * the cached list rather than querying the database again. The filtered list keeps the database's ranking.<br>
+ * <br>
+ * Every cached list is dropped when DataSource's search terms generation changes, as a walk has been saved,
+ * edited or deleted since they were read.
+ *
+ * @author Alex Hardwicke
+ */
+final class SuggestionCache
+{
+	private static final int CANDIDATES = 100;
+	private static final int MAX_PREFIXES = 32;
+
+	private final LruCache<String, ArrayList<String>> terms = new LruCache<String, ArrayList<String>>(MAX_PREFIXES);
+	private int generation = -1;
+
+	/**
+	 * Returns the most used terms that start with the provided prefix.
+	 *
+	 * @param prefix	The normalised prefix
+	 * @param count		The maximum number of terms to return
+	 *
+	 * @return			The terms, most used first
+	 */
+	public synchronized ArrayList<String> get(String prefix, int count)
+	{
+		int currentGeneration = DataSource.getSearchTermsGeneration();
+		if (currentGeneration != this.generation)
+		{
+			this.terms.evictAll();
+			this.generation = currentGeneration;
+		}
+
+		ArrayList<String> prefixTerms = this.terms.get(prefix);
+		if (prefixTerms == null)
+		{
+			prefixTerms = narrow(prefix);
+			if (prefixTerms == null) prefixTerms = DataSource.getSearchTerms(prefix, CANDIDATES);
+			this.terms.put(prefix, prefixTerms);
+		}
+		return new ArrayList<String>(prefixTerms.subList(0, Math.min(count, prefixTerms.size())));
+	}
+
+	/**
+	 * Finds the terms for the provided prefix from the cached terms of the longest shorter prefix, if that
+	 * list is complete.
+	 *
+	 * @param prefix	The prefix
+	 *
+	 * @return			The terms, or null if they have to be read from the database
+	 */
+	private ArrayList<String> narrow(String prefix)
+	{
+		for (int length = prefix.length() - 1; length > 0; length--)
+		{
+			ArrayList<String> shorterTerms = this.terms.get(prefix.substring(0, length));
+			if (shorterTerms == null) continue;
+
+			// A full list may have been cut off before some of this prefix's terms
+			if (shorterTerms.size() >= CANDIDATES) return null;
+
+			ArrayList<String> prefixTerms = new ArrayList<String>();
+			for (String term : shorterTerms)
+			{
+				if (term.startsWith(prefix)) prefixTerms.add(term);
+			}
+			return prefixTerms;
+		}
+		return null;
+	}
+}
@@ -1,6 +1,7 @@
 package com.digitalpies.promenade.walklist;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 
 import com.digitalpies.promenade.R;
 import com.digitalpies.promenade.PreferenceActivity;
@@ -79,9 +80,8 @@ public class WalkListActivity extends CustomListActivity
 	{
 		super.onCreate(savedInstanceState);
 
-		// Getting the walks, creating a WalkListAdapter and setting it as the ListAdapter.
-		this.walks = new ArrayList<Walk>();
-		this.adapter = new ListAdapter(this, this.walks);
+		// Creating a ListAdapter and setting it as the ListAdapter. The walks are loaded in onResume.
+		this.adapter = new ListAdapter(this);
 		setListAdapter(this.adapter);
 
 		if (savedInstanceState != null)
@@ -302,7 +302,7 @@ public class WalkListActivity extends CustomListActivity
 			}
 			return true;
 		case R.id.resume_walk_button:
-			Walk walk = DataSource.getWalkById(0);
+			Walk walk = DataSource.getWalkInProgress();
 			intent = new Intent(this, com.digitalpies.promenade.maps.MapWalkActivity.class);
 			intent.putExtra(WALK_TAG, walk);
 			intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
@@ -355,30 +355,27 @@ public class WalkListActivity extends CustomListActivity
 
 	/**
 	 * Shows a list of all tags in a dialogue pop-up which enables the user to remove certain tags
-	 * from all walks. Each tag is a separate check-box in a scrollable list.
+	 * from all walks. Each tag is a separate check-box in a scrollable list, labelled with the number
+	 * of walks that have it.
 	 */
 	private void showTagRemoveList()
 	{
 		// Get a list of all tags. If there are no tags, show a Toast and end.
-		final ArrayList<Tag> tags = DataSource.getAllTags();
+		LinkedHashMap<Tag, Integer> tagCounts = DataSource.getTagCounts();
+		final ArrayList<Tag> tags = new ArrayList<Tag>(tagCounts.keySet());
 		if (tags.size() == 0)
 			Toast.makeText(this, R.string.toast_no_tags_entered, Toast.LENGTH_SHORT).show();
 		else
 		{
 			// Convert the tags to a String (so that they can be set as multiple choice items)
 			// and create a boolean array used to keep track of which have been ticked by the user.
-			String[] tagsString = new String[tags.size()];
-			// Assigning the String values and then setting the boolean array if needed
-			for (int i = 0; i < tags.size(); i++)
-			{
-				tagsString[i] = tags.get(i).getName();
-			}
+			String[] tagsString = tagLabels(tags, tagCounts);
 
 			// Only show the dialogue if one doesn't already exist (can happen if user taps quickly on the button)
 			FragmentManager manager = getFragmentManager();
 			if (manager.findFragmentByTag(CustomListActivity.DIALOGUE_FRAGMENT_REMOVE_TAG_LIST) == null)
 			{
-				DialogFragment newFragment = TagRemoveDialogue.newInstance(this.walks, tagsString, tags);
+				DialogFragment newFragment = TagRemoveDialogue.newInstance(tagsString, tags);
 				newFragment.show(manager, DIALOGUE_FRAGMENT_REMOVE_TAG_LIST);
 			}
 		}
@@ -387,34 +384,34 @@ public class WalkListActivity extends CustomListActivity
 	/**
 	 * Shows a list of all tags in a dialogue pop-up which enables the user to filter the walk list
 	 * to only show walks containing at least one of the selected tags. Each tag is a separate
-	 * check-box in a scrollable list.
+	 * check-box in a scrollable list, labelled with the number of walks that have it.
 	 */
 	private void showTagList()
 	{
 		// Get a list of all tags. If there are no tags, show a Toast and end.
-		final ArrayList<Tag> tags = DataSource.getAllTags();
+		LinkedHashMap<Tag, Integer> tagCounts = DataSource.getTagCounts();
+		final ArrayList<Tag> tags = new ArrayList<Tag>(tagCounts.keySet());
 		if (tags.size() == 0)
 			Toast.makeText(this, R.string.toast_no_tags_entered, Toast.LENGTH_SHORT).show();
 		else
 		{
 			// Convert the tags to a String (so that they can be set as multiple choice items)
 			// and create a boolean array used to keep track of which have been ticked by the user.
-			String[] tagsString = new String[tags.size()];
+			String[] tagsString = tagLabels(tags, tagCounts);
 			final boolean[] checkedItems = new boolean[tags.size()];
-			// Assigning the String values and then setting the boolean array if needed
+			// Setting the boolean array if needed
 			for (int i = 0; i < tags.size(); i++)
 			{
-				tagsString[i] = tags.get(i).getName();
 				checkedItems[i] = false;
 
 				// If tags are already checked (means some of the booleans should be ticked)
 				if (this.checkedTags != null)
 				{
-					// Go through each checked tag - if it matches something in the CharSequence,
-					// then the tag should already be ticked
+					// Go through each checked tag - if it matches the tag, then the tag should
+					// already be ticked
 					for (Tag checkedTag : this.checkedTags)
 					{
-						if (tagsString[i].equals(checkedTag.getName()))
+						if (tags.get(i).equals(checkedTag))
 						{
 							checkedItems[i] = true;
 						}
@@ -432,14 +429,31 @@ public class WalkListActivity extends CustomListActivity
 		}
 	}
 
+	/**
+	 * Creates the labels for the tag dialogues' check-boxes - each tag's name, followed by the number of
+	 * walks that have it.
+	 * 
+	 * @param tags		The tags, in the order they're listed
+	 * @param tagCounts	The number of walks that have each tag, from DataSource.getTagCounts
+	 * 
+	 * @return			The labels, in the same order as the tags
+	 */
+	private String[] tagLabels(ArrayList<Tag> tags, LinkedHashMap<Tag, Integer> tagCounts)
+	{
+		String[] labels = new String[tags.size()];
+		for (int i = 0; i < tags.size(); i++)
+			labels[i] = getString(R.string.tag_with_count, tags.get(i).getName(), tagCounts.get(tags.get(i)));
+		return labels;
+	}
+
 	// ///////////////////////
 	//
 	// ListView manipulation methods
 	//
 	// ///////////////////////
 	/**
-	 * Updates the walks List by retrieving the current walks from the DataSource, sends them
-	 * to the adapter, and informs the adapter that the DataSet has changed.
+	 * Updates the walks List by giving the adapter a new PagedWalkList, which reads the current walks
+	 * from the DataSource a page at a time in the background.
 	 */
 	@Override
 	public void updateWalksList()
@@ -449,11 +463,37 @@ public class WalkListActivity extends CustomListActivity
 			filterWalksByTag(this.checkedTags);
 		else
 		{
-			// Get the sort order from the preferences, defaulting to
-			int sortValue = this.preferences.getInt(PreferenceActivity.SORT_LIST, DATE_DESCENDING);
-			this.walks = DataSource.getAllWalks(sortValue);
-			this.adapter.setWalks(this.walks);
-			this.adapter.notifyDataSetChanged();
+			// Get the sort order from the preferences, defaulting to date descending
+			final int sortValue = this.preferences.getInt(PreferenceActivity.SORT_LIST, DATE_DESCENDING);
+			setWalks(new PagedWalkList.PageSource() {
+				@Override
+				public int getCount()
+				{
+					return DataSource.getWalkCount();
+				}
+
+				@Override
+				public ArrayList<Walk> getPage(int offset, int limit)
+				{
+					return DataSource.getWalks(sortValue, offset, limit);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Run by the PagedWalkList when a page of walks has loaded. Redraws the list, and if the list is
+	 * filtered by tags and no walks are left (which implies it was already filtered and the user has
+	 * deleted the last walk in the list), shows a Toast and displays all walks.
+	 */
+	@Override
+	public void onPageLoaded(PagedWalkList list)
+	{
+		super.onPageLoaded(list);
+		if (this.filteredByTags && list.size() == 0)
+		{
+			Toast.makeText(this, R.string.toast_no_tagged_items_remaining, Toast.LENGTH_LONG).show();
+			displayAll();
 		}
 	}
 
@@ -473,11 +513,8 @@ public class WalkListActivity extends CustomListActivity
 	 * <br>
 	 * Saves the checked tags (so that they can be used in the future). If no tags were selected, shows
 	 * a Toast for the user stating that. Otherwise, sets filteredByTags to true, gets the sort value,
-	 * retrieves a complete list of walks, and creates an ArrayList containing a copy of those values.<br>
-	 * <br>
-	 * It then iterates through each walk, checking if the Walk contains any of the selected tags.
-	 * If it does, it toggles a boolean and breaks. It then removes the walk if the boolean hasn't
-	 * been toggled.
+	 * and gives the adapter a PagedWalkList of the walks that contain any of the selected tags. The
+	 * DataSource filters, sorts and pages them in a single query.
 	 * 
 	 * @param receivedCheckedTags <i>ArrayList<Tag></i>	The tags the user wishes to view.
 	 */
@@ -495,40 +532,24 @@ public class WalkListActivity extends CustomListActivity
 
 		this.filteredByTags = true;
 
-		int checkedItem = this.preferences.getInt(PreferenceActivity.SORT_LIST, CustomListActivity.DATE_DESCENDING);
+		final int checkedItem = this.preferences.getInt(PreferenceActivity.SORT_LIST,
+				CustomListActivity.DATE_DESCENDING);
+		final ArrayList<Tag> tags = new ArrayList<Tag>(receivedCheckedTags);
 
-		this.walks = DataSource.getAllWalks(checkedItem);
-		ArrayList<Walk> allWalks = new ArrayList<Walk>(this.walks);
+		setWalks(new PagedWalkList.PageSource() {
+			@Override
+			public int getCount()
+			{
+				return DataSource.getWalkCountForTags(tags, false);
+			}
 
-		// Iterate through each Walk - retrieves the tags in a List, and uses retainAll to see if the
-		// walk contains any of the checked tags. If not, or if the walk has no tags, it's removed.
-		for (Walk walk : allWalks)
-		{
-			if (walk.getTags() != null)
+			@Override
+			public ArrayList<Walk> getPage(int offset, int limit)
 			{
-				ArrayList<Tag> tagList = new ArrayList<Tag>(walk.getTags());
-				tagList.retainAll(this.checkedTags);
-				if (tagList.size() == 0)
-				{
-					this.walks.remove(walk);
-				}
+				return DataSource.getWalksByTags(tags, false, checkedItem, offset, limit);
 			}
-			else
-				this.walks.remove(walk);
-		}
-		
-		// If no walks left (which implies it was already filtered and the user has deleted the last walk in the list)
-		if (this.walks.size() == 0)
-		{
-			Toast.makeText(this, R.string.toast_no_tagged_items_remaining, Toast.LENGTH_LONG).show();
-			displayAll();
-		}
-		else
-		{
-			this.adapter.setWalks(this.walks);
-			this.adapter.notifyDataSetChanged();
-			invalidateOptionsMenu();
-		}
+		});
+		invalidateOptionsMenu();
 	}
 
 	// ///////////////////////
@@ -644,7 +665,7 @@ public class WalkListActivity extends CustomListActivity
 			// In foreground (so user hasn't browsed away). Launch the activity!
 			if (this.isInForeground())
 			{
-				Walk walk = DataSource.getWalkById(0);
+				Walk walk = DataSource.getWalkInProgress();
 				Intent intent = new Intent(this, com.digitalpies.promenade.maps.MapWalkActivity.class);
 				intent.putExtra(WALK_TAG, walk);
 				intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
@@ -0,0 +1,192 @@
+package com.digitalpies.promenade.database;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpies.promenade.walklist.CustomListActivity;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Tests that the walk list and the map can read while GPS chunks are being added and walks deleted on another
+ * thread. The database uses write-ahead logging and non-exclusive transactions, so a page of walks or a
+ * track should be read from the last commit without waiting for the writer's transaction to end.<br>
+ * <br>
+ * DataSource is opened on a copy of the database with a "test." prefix, and the seeded walks are deleted
+ * afterwards.
+ *
+ * @author Alex Hardwicke
+ */
+public class ContentionTest extends AndroidTestCase
+{
+	private static final String TAG = "ContentionTest";
+	private static final long TIMEOUT = 10000;
+
+	private static final int SEEDED_WALKS = 100;
+	private static final int PAGE_SIZE = 50;
+	// How long the writer is kept busy while the reads are timed
+	private static final long WRITE_TIME = 5000;
+
+	private ArrayList<Long> walkIds = new ArrayList<Long>();
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		DataSource.openDataSource(new RenamingDelegatingContext(getContext(), "test."));
+
+		SQLiteDatabase database = DataSource.getDatabase();
+		database.beginTransactionNonExclusive();
+		try
+		{
+			for (int i = 0; i < SEEDED_WALKS; i++)
+			{
+				Walk walk = DataSource.createTemporaryWalk("Contention test " + i, "", new ArrayList<Tag>());
+				DataSource.saveWalk(walk, track(DataSource.TRACK_CHUNK_SIZE));
+				this.walkIds.add(walk.getId());
+			}
+			database.setTransactionSuccessful();
+		}
+		finally
+		{
+			database.endTransaction();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		DataSource.cancelWalk();
+		long[] ids = new long[this.walkIds.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = this.walkIds.get(i);
+		DataSource.deleteWalks(ids, null);
+		super.tearDown();
+	}
+
+	public void testReadsDuringOpenTransaction() throws Exception
+	{
+		final CountDownLatch inTransaction = new CountDownLatch(1);
+		final CountDownLatch readsDone = new CountDownLatch(1);
+		final boolean[] readWhileOpen = new boolean[1];
+		final long[] deleted = { this.walkIds.get(this.walkIds.size() - 1) };
+		int walkCount = DataSource.getWalkCount();
+
+		// Adds a chunk and deletes a walk in one transaction, and holds it open until the reads are done
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				SQLiteDatabase database = DataSource.getDatabase();
+				database.beginTransactionNonExclusive();
+				try
+				{
+					Walk walk = DataSource.createTemporaryWalk("Contention test writer", "",
+							new ArrayList<Tag>());
+					DataSource.addTrackChunk(walk.getId(), track(DataSource.TRACK_CHUNK_SIZE));
+					DataSource.deleteWalks(deleted, null);
+					inTransaction.countDown();
+					readWhileOpen[0] = readsDone.await(TIMEOUT, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					// Left as not read while open
+				}
+				finally
+				{
+					database.endTransaction();
+				}
+			}
+		});
+		writer.start();
+		assertTrue("The writer didn't start its transaction",
+				inTransaction.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		DataSource.clearCaches();
+		ArrayList<Walk> page = DataSource.getWalks(CustomListActivity.DATE_DESCENDING, 0, PAGE_SIZE);
+		Track track = DataSource.getTrackForWalk(this.walkIds.get(0));
+		readsDone.countDown();
+		writer.join(TIMEOUT);
+
+		assertTrue("The reads waited for the writer's transaction", readWhileOpen[0]);
+		// The transaction was never marked successful, so the reads and the database still have the old walks
+		assertEquals(PAGE_SIZE, page.size());
+		assertEquals(DataSource.TRACK_CHUNK_SIZE, track.size());
+		assertEquals(walkCount, DataSource.getWalkCount());
+	}
+
+	@LargeTest
+	public void testReadLatencyUnderWrites() throws Exception
+	{
+		long[] idle = timeReads(null);
+
+		final long end = SystemClock.uptimeMillis() + WRITE_TIME;
+		// Records and saves walks a chunk at a time, deleting each one after it's saved
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				while (SystemClock.uptimeMillis() < end)
+				{
+					Walk walk = DataSource.createTemporaryWalk("Contention test writer", "",
+							new ArrayList<Tag>());
+					for (int i = 0; i < 4; i++)
+						DataSource.addTrackChunk(walk.getId(), track(DataSource.TRACK_CHUNK_SIZE));
+					DataSource.saveWalk(walk, track(100));
+					DataSource.deleteWalks(new long[] { walk.getId() }, null);
+				}
+			}
+		});
+		writer.start();
+		long[] contended = timeReads(writer);
+		writer.join(TIMEOUT);
+
+		Log.i(TAG, "Idle: " + idle[0] + " reads, max page " + idle[1] + "ms, max track " + idle[2] + "ms. "
+				+ "Under writes: " + contended[0] + " reads, max page " + contended[1] + "ms, max track "
+				+ contended[2] + "ms");
+		assertTrue(contended[0] > 0);
+	}
+
+	/**
+	 * Reads the first page of walks and a walk's track, with the caches emptied first, until the writer has
+	 * finished - or for a second if there's no writer.
+	 *
+	 * @return	The number of reads, then the longest page read and the longest track read in milliseconds
+	 */
+	private long[] timeReads(Thread writer)
+	{
+		long[] results = new long[3];
+		long end = SystemClock.uptimeMillis() + 1000;
+		while (writer == null ? SystemClock.uptimeMillis() < end : writer.isAlive())
+		{
+			DataSource.clearCaches();
+			long start = SystemClock.uptimeMillis();
+			DataSource.getWalks(CustomListActivity.DATE_DESCENDING, 0, PAGE_SIZE);
+			long afterPage = SystemClock.uptimeMillis();
+			DataSource.getTrackForWalk(this.walkIds.get((int) (results[0] % this.walkIds.size())));
+			long afterTrack = SystemClock.uptimeMillis();
+
+			results[0]++;
+			results[1] = Math.max(results[1], afterPage - start);
+			results[2] = Math.max(results[2], afterTrack - afterPage);
+		}
+		return results;
+	}
+
+	/**
+	 * Creates a track of the provided number of points, heading north-west.
+	 */
+	private static Track track(int size)
+	{
+		Track track = new Track(size);
+		for (int i = 0; i < size; i++)
+			track.add(63825800 + i * 180, 20263000 - i * 40);
+		return track;
+	}
+}
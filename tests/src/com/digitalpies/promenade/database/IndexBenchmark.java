@@ -0,0 +1,168 @@
+package com.digitalpies.promenade.database;
+
+import java.util.ArrayList;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Times what MapWalkActivity reads when it opens a walk - getTrackForWalk, getPhotosForWalk and
+ * getNotesForWalk - as the database grows, with the walk_id indexes added in database version 10 and again
+ * after they've been dropped. The times are logged under the IndexBenchmark tag.<br>
+ * <br>
+ * The photos and notes are found through their walk_id indexes, so without them each read scans the whole
+ * table. Saved tracks are found through the tracks table's primary key, which isn't dropped, so
+ * getTrackForWalk should take the same time either way - only walks the upgrade hasn't converted yet are
+ * read from the gps table.<br>
+ * <br>
+ * DataSource is opened on a copy of the database with a "test." prefix, and the indexes are recreated and the
+ * seeded walks deleted afterwards. Seeding takes a while, so it's a large test - run with "-e size small" to
+ * leave it out.
+ *
+ * @author Alex Hardwicke
+ */
+@LargeTest
+public class IndexBenchmark extends AndroidTestCase
+{
+	private static final String TAG = "IndexBenchmark";
+
+	// The number of walks in the database for each run
+	private static final int[] WALK_COUNTS = { 100, 1000, 4000 };
+	// The walks opened for each run, spread across the database
+	private static final int SAMPLES = 50;
+	private static final int POINTS_PER_WALK = 500;
+	private static final int PHOTOS_PER_WALK = 2;
+	private static final int NOTES_PER_WALK = 3;
+
+	private static final String[] INDEXES = { SQLiteHelper.INDEX_GPS_WALK_ID, SQLiteHelper.INDEX_PHOTOS_WALK_ID,
+			SQLiteHelper.INDEX_NOTES_WALK_ID };
+	private static final String[] INDEX_CREATES = { SQLiteHelper.GPS_INDEX_CREATE,
+			SQLiteHelper.PHOTOS_INDEX_CREATE, SQLiteHelper.NOTES_INDEX_CREATE };
+
+	private ArrayList<Long> walkIds = new ArrayList<Long>();
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		DataSource.openDataSource(new RenamingDelegatingContext(getContext(), "test."));
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		createIndexes();
+
+		long[] ids = new long[this.walkIds.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = this.walkIds.get(i);
+		DataSource.deleteWalks(ids, null);
+		super.tearDown();
+	}
+
+	public void testMapOpenLatency()
+	{
+		for (int walkCount : WALK_COUNTS)
+		{
+			seedWalks(walkCount);
+
+			long[] indexed = timeMapOpens();
+			dropIndexes();
+			long[] unindexed = timeMapOpens();
+			createIndexes();
+
+			Log.i(TAG, walkCount + " walks, mean ms per walk with indexes / without: track "
+					+ mean(indexed[0]) + " / " + mean(unindexed[0]) + ", photos " + mean(indexed[1]) + " / "
+					+ mean(unindexed[1]) + ", notes " + mean(indexed[2]) + " / " + mean(unindexed[2]));
+			// The indexes change how the rows are found, not which rows
+			assertEquals(indexed[3], unindexed[3]);
+		}
+	}
+
+	/**
+	 * Saves walks until there are walkCount of them, each with a track of POINTS_PER_WALK points and a few
+	 * photos and notes. They're all added in one transaction, so seeding doesn't wait on a commit per walk.
+	 */
+	private void seedWalks(int walkCount)
+	{
+		SQLiteDatabase database = DataSource.getDatabase();
+		database.beginTransactionNonExclusive();
+		try
+		{
+			while (this.walkIds.size() < walkCount)
+			{
+				Walk walk = DataSource.createTemporaryWalk("Index benchmark " + this.walkIds.size(), "",
+						new ArrayList<Tag>());
+				Track track = new Track(POINTS_PER_WALK);
+				for (int i = 0; i < POINTS_PER_WALK; i++)
+					track.add(63825800 + i * 180, 20263000 - i * 40);
+				for (int i = 0; i < PHOTOS_PER_WALK; i++)
+					DataSource.createPhoto(walk.getId(), 63.8258, 20.263, "/sdcard/benchmark_" + i + ".jpg");
+				for (int i = 0; i < NOTES_PER_WALK; i++)
+					DataSource.createNote(walk.getId(), 63.8258, 20.263, "Note " + i);
+				DataSource.saveWalk(walk, track);
+				this.walkIds.add(walk.getId());
+			}
+			database.setTransactionSuccessful();
+		}
+		finally
+		{
+			database.endTransaction();
+		}
+	}
+
+	/**
+	 * Opens SAMPLES of the seeded walks the way MapWalkActivity does, with the caches emptied first so every
+	 * read comes from the database.
+	 *
+	 * @return	The total nanoseconds spent reading tracks, photos and notes, then the number of rows read
+	 */
+	private long[] timeMapOpens()
+	{
+		DataSource.clearCaches();
+		long[] totals = new long[4];
+		for (int i = 0; i < SAMPLES; i++)
+		{
+			long id = this.walkIds.get(i * this.walkIds.size() / SAMPLES);
+			Walk walk = DataSource.getWalkById(id);
+
+			long start = System.nanoTime();
+			Track track = DataSource.getTrackForWalk(id);
+			long afterTrack = System.nanoTime();
+			ArrayList<Photo> photos = DataSource.getPhotosForWalk(walk);
+			long afterPhotos = System.nanoTime();
+			ArrayList<Note> notes = DataSource.getNotesForWalk(walk);
+			long afterNotes = System.nanoTime();
+
+			totals[0] += afterTrack - start;
+			totals[1] += afterPhotos - afterTrack;
+			totals[2] += afterNotes - afterPhotos;
+			totals[3] += track.size() + photos.size() + notes.size();
+		}
+		return totals;
+	}
+
+	private static void dropIndexes()
+	{
+		for (String index : INDEXES)
+			DataSource.getDatabase().execSQL("drop index if exists " + index);
+	}
+
+	private static void createIndexes()
+	{
+		dropIndexes();
+		for (String create : INDEX_CREATES)
+			DataSource.getDatabase().execSQL(create);
+	}
+
+	/**
+	 * Turns a total from timeMapOpens into milliseconds per walk.
+	 */
+	private static double mean(long totalNanos)
+	{
+		return totalNanos / (double) SAMPLES / 1000000;
+	}
+}
@@ -0,0 +1,104 @@
+package com.digitalpies.promenade.database;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import com.digitalpies.promenade.walklist.CustomListActivity;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+/**
+ * Tests that renaming a tag to the name of a tag that already exists merges the two - on walks that had
+ * both, only one is left - and that the tag strings stored in the walks and search tables are rebuilt to
+ * match. DataSource is opened on a copy of the database with a "test." prefix, and the walks are deleted
+ * afterwards.
+ *
+ * @author Alex Hardwicke
+ */
+public class TagRenameTest extends AndroidTestCase
+{
+	private static final String FROM = "renamefrom";
+	private static final String INTO = "renameinto";
+	private static final String KEEP = "renamekeep";
+
+	private long[] ids;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		DataSource.openDataSource(new RenamingDelegatingContext(getContext(), "test."));
+
+		// A walk with both tags, one with the renamed tag and another, and one that only has the existing tag
+		this.ids = new long[] { saveWalk(FROM, INTO), saveWalk(FROM, KEEP), saveWalk(INTO) };
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		DataSource.deleteWalks(this.ids, null);
+		super.tearDown();
+	}
+
+	public void testRenameIntoExistingTag()
+	{
+		DataSource.renameTag(new Tag(FROM), INTO);
+
+		String padding = DataSource.TAG_PADDING;
+		String[] expected = { INTO + padding, INTO + padding + KEEP + padding, INTO + padding };
+		for (int i = 0; i < this.ids.length; i++)
+		{
+			assertEquals(expected[i], readTagString(SQLiteHelper.TABLE_WALKS, SQLiteHelper.WALKS_TAGS,
+					SQLiteHelper.COLUMN_ID, this.ids[i]));
+			assertEquals(expected[i], readTagString(SQLiteHelper.TABLE_SEARCH, SQLiteHelper.SEARCH_WALK_TAGS,
+					SQLiteHelper.SEARCH_DOCID, this.ids[i]));
+		}
+		assertEquals(1, DataSource.getWalkById(this.ids[0]).getTags().size());
+
+		LinkedHashMap<Tag, Integer> counts = DataSource.getTagCounts();
+		assertFalse(counts.containsKey(new Tag(FROM)));
+		assertEquals(Integer.valueOf(3), counts.get(new Tag(INTO)));
+		assertEquals(Integer.valueOf(1), counts.get(new Tag(KEEP)));
+
+		assertEquals(0, DataSource.getSearchCount(FROM));
+		assertEquals(3, DataSource.search(INTO, CustomListActivity.DATE_DESCENDING, 0, 10).size());
+		assertTrue(DataSource.getSearchTerms(FROM, 10).isEmpty());
+		assertTrue(DataSource.getSearchTerms(INTO, 10).contains(INTO));
+	}
+
+	/**
+	 * Creates and saves a walk with the provided tags and no points.
+	 *
+	 * @return	The walk's ID
+	 */
+	private static long saveWalk(String... tagNames)
+	{
+		ArrayList<Tag> tags = new ArrayList<Tag>();
+		for (String name : tagNames)
+			tags.add(new Tag(name));
+
+		Walk walk = DataSource.createTemporaryWalk("Tag rename test", "", tags);
+		DataSource.saveWalk(walk, new Track(1));
+		return walk.getId();
+	}
+
+	/**
+	 * Reads the tag string stored for a walk in the walks or search table.
+	 */
+	private static String readTagString(String table, String tagsColumn, String idColumn, long id)
+	{
+		Cursor cursor = DataSource.getDatabase().rawQuery("SELECT " + tagsColumn + " FROM " + table + " WHERE "
+				+ idColumn + " = ?", new String[] { Long.toString(id) });
+		try
+		{
+			assertTrue(cursor.moveToFirst());
+			return cursor.getString(0);
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.digitalpies.promenade.database;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+/**
+ * Tests that tracks come back from TrackCodec exactly as they went in, both encoded and decoded directly and
+ * stored through DataSource a chunk at a time. DataSource is opened on a copy of the database with a "test."
+ * prefix, so the app's own walks aren't touched.
+ *
+ * @author Alex Hardwicke
+ */
+public class TrackCodecTest extends AndroidTestCase
+{
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		DataSource.openDataSource(new RenamingDelegatingContext(getContext(), "test."));
+	}
+
+	public void testEncodeDecodeRoundTrip()
+	{
+		Track track = randomTrack(1000);
+		// The largest jumps there can be, from one corner of the world to the other
+		track.add(90000000, 180000000);
+		track.add(-90000000, -180000000);
+		track.add(0, 0);
+
+		Track decoded = new Track(1);
+		TrackCodec.decode(TrackCodec.encode(track, 0, track.size()), track.size(), decoded);
+		assertTracksEqual(track, decoded);
+
+		// A chunk from the middle of a track starts again from 0, so it decodes on its own
+		decoded = new Track(1);
+		TrackCodec.decode(TrackCodec.encode(track, 100, 300), 200, decoded);
+		assertTracksEqual(track.slice(100, 300), decoded);
+	}
+
+	public void testStoredTrackRoundTrip()
+	{
+		// Two full chunks added during the walk, and a partial one when it's saved
+		Track track = randomTrack(DataSource.TRACK_CHUNK_SIZE * 2 + 100);
+		Walk walk = DataSource.createTemporaryWalk("Track codec test", "", new ArrayList<Tag>());
+		try
+		{
+			DataSource.addTrackChunk(walk.getId(), track.slice(0, DataSource.TRACK_CHUNK_SIZE));
+			DataSource.addTrackChunk(walk.getId(),
+					track.slice(DataSource.TRACK_CHUNK_SIZE, DataSource.TRACK_CHUNK_SIZE * 2));
+			DataSource.saveWalk(walk, track.slice(DataSource.TRACK_CHUNK_SIZE * 2, track.size()));
+
+			assertTracksEqual(track, DataSource.getTrackForWalk(walk.getId()));
+			assertEquals(track.size(), DataSource.getStatsForWalk(walk.getId()).getPointCount());
+		}
+		finally
+		{
+			DataSource.deleteWalks(new long[] { walk.getId() }, null);
+		}
+	}
+
+	/**
+	 * Creates a track that wanders from a fixed start, the same every time.
+	 */
+	private static Track randomTrack(int size)
+	{
+		Random random = new Random(42);
+		Track track = new Track(size);
+		int latitude = 63825800;
+		int longitude = 20263000;
+		for (int i = 0; i < size; i++)
+		{
+			latitude += random.nextInt(2001) - 1000;
+			longitude += random.nextInt(2001) - 1000;
+			track.add(latitude, longitude);
+		}
+		return track;
+	}
+
+	private static void assertTracksEqual(Track expected, Track actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < actual.size(); i++)
+		{
+			assertEquals("Latitude " + i, expected.getLatitudeE6(i), actual.getLatitudeE6(i));
+			assertEquals("Longitude " + i, expected.getLongitudeE6(i), actual.getLongitudeE6(i));
+		}
+	}
+}
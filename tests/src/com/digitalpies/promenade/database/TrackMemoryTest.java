@@ -0,0 +1,75 @@
+package com.digitalpies.promenade.database;
+
+import java.util.ArrayList;
+
+import com.google.android.maps.GeoPoint;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Measures the heap taken by a track of 100,000 points, held as a Track and as an ArrayList of GeoPoints -
+ * the figures given in Track's class comment. The sizes are logged under the TrackMemoryTest tag. Each is
+ * the growth in used heap across the allocation, with the garbage collector run before each reading, so
+ * they're estimates and vary a little between runs and between VMs.
+ *
+ * @author Alex Hardwicke
+ */
+public class TrackMemoryTest extends TestCase
+{
+	private static final String TAG = "TrackMemoryTest";
+	private static final int POINTS = 100000;
+
+	// Keeps each allocation reachable while the heap is measured
+	private Object held;
+
+	public void testTrackSmallerThanGeoPoints()
+	{
+		long before = usedHeap();
+		Track track = new Track(POINTS);
+		for (int i = 0; i < POINTS; i++)
+			track.add(latitude(i), longitude(i));
+		this.held = track;
+		long trackBytes = usedHeap() - before;
+		this.held = null;
+
+		before = usedHeap();
+		ArrayList<GeoPoint> points = new ArrayList<GeoPoint>();
+		for (int i = 0; i < POINTS; i++)
+			points.add(new GeoPoint(latitude(i), longitude(i)));
+		this.held = points;
+		long geoPointBytes = usedHeap() - before;
+		this.held = null;
+
+		Log.i(TAG, POINTS + " points: Track " + trackBytes / 1024 + "KB, ArrayList<GeoPoint> " + geoPointBytes
+				/ 1024 + "KB");
+		// Two ints per point, with a little room for the measurement's noise
+		assertTrue(trackBytes < POINTS * 8 * 1.1);
+		assertTrue(trackBytes * 2 < geoPointBytes);
+	}
+
+	/**
+	 * Returns the heap in use once the garbage collector has run.
+	 */
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+		{
+			System.gc();
+			System.runFinalization();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static int latitude(int i)
+	{
+		return 63825800 + i * 18;
+	}
+
+	private static int longitude(int i)
+	{
+		return 20263000 - i * 4;
+	}
+}
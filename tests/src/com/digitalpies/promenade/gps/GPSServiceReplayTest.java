@@ -0,0 +1,261 @@
+package com.digitalpies.promenade.gps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpies.promenade.database.DataSource;
+import com.digitalpies.promenade.database.Tag;
+import com.digitalpies.promenade.database.Walk;
+import com.digitalpies.promenade.database.WalkStats;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.test.RenamingDelegatingContext;
+
+/**
+ * Replays a fixed GPX walk through GPSService and checks the walk it stores.<br>
+ * <br>
+ * The walk's fixes are 20 seconds and about 20 metres apart, so with the record interval at 20 seconds and
+ * the simplifier's tolerance at 0, every fix passes the filters and the scheduler and is recorded. The
+ * replay is held back until the walk is being tracked, so the stored walk is the same on every run.<br>
+ * <br>
+ * DataSource is opened on a copy of the database with a "test." prefix, and the recording preferences are
+ * put back afterwards. The service uses the app's own walk log, so this mustn't be run while a walk is in
+ * progress.
+ *
+ * @author Alex Hardwicke
+ */
+public class GPSServiceReplayTest extends InstrumentationTestCase
+{
+	private static final String GPX_FILE = "replay_walk.gpx";
+	private static final long TIMEOUT = 10000;
+
+	private static final String MAP_ACCURACY = "map_accuracy";
+	private static final String SIMPLIFY_TOLERANCE = "simplify_tolerance";
+	private static final String SMOOTH_TRACK = "smooth_track";
+
+	private Context context;
+	private SharedPreferences preferences;
+	private Map<String, Object> savedPreferences;
+	private GPSService service;
+	private ServiceConnection connection;
+	private Walk walk;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		this.context = getInstrumentation().getTargetContext();
+		DataSource.openDataSource(new RenamingDelegatingContext(this.context, "test."));
+
+		this.preferences = PreferenceManager.getDefaultSharedPreferences(this.context);
+		this.savedPreferences = new HashMap<String, Object>(this.preferences.getAll());
+		this.preferences.edit().putString(MAP_ACCURACY, "20").putString(SIMPLIFY_TOLERANCE, "0")
+				.putBoolean(SMOOTH_TRACK, false).commit();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		if (this.service != null)
+		{
+			getInstrumentation().runOnMainSync(new Runnable() {
+				@Override
+				public void run()
+				{
+					GPSServiceReplayTest.this.service.walkFinished();
+				}
+			});
+			this.context.unbindService(this.connection);
+		}
+		GPSService.trackingWalk = false;
+		GPSService.setLocationSource(null);
+		if (this.walk != null) DataSource.deleteWalks(new long[] { this.walk.getId() }, null);
+
+		SharedPreferences.Editor editor = this.preferences.edit();
+		for (String key : new String[] { MAP_ACCURACY, SIMPLIFY_TOLERANCE, SMOOTH_TRACK })
+		{
+			Object value = this.savedPreferences.get(key);
+			if (value == null)
+				editor.remove(key);
+			else if (value instanceof Boolean)
+				editor.putBoolean(key, (Boolean) value);
+			else
+				editor.putString(key, value.toString());
+		}
+		editor.commit();
+		super.tearDown();
+	}
+
+	public void testReplayedWalkStored() throws Exception
+	{
+		ReplayLocationSource replay = ReplayLocationSource.fromGpx(
+				getInstrumentation().getContext().getAssets().open(GPX_FILE), 0);
+		GatedLocationSource source = new GatedLocationSource(replay);
+		GPSService.setLocationSource(source);
+
+		this.walk = DataSource.createTemporaryWalk("Replay test", "", new ArrayList<Tag>());
+		startService();
+		assertTrue("GPS wasn't started", source.awaitRequest(TIMEOUT));
+
+		// Tracking is started on the recording thread before the first fix is delivered there
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run()
+			{
+				GPSServiceReplayTest.this.service.startTrackingWalk();
+			}
+		});
+		source.open();
+
+		long end = SystemClock.uptimeMillis() + TIMEOUT;
+		while (!replay.isFinished() && SystemClock.uptimeMillis() < end)
+			SystemClock.sleep(50);
+		assertTrue("The replay didn't finish", replay.isFinished());
+
+		// Saving runs on the recording thread after the last fix
+		final CountDownLatch saved = new CountDownLatch(1);
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run()
+			{
+				GPSServiceReplayTest.this.service.saveWalk(GPSServiceReplayTest.this.walk, new Runnable() {
+					@Override
+					public void run()
+					{
+						saved.countDown();
+					}
+				});
+			}
+		});
+		assertTrue("The walk wasn't saved", saved.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		List<Location> fixes = replay.getFixes();
+		WalkStats stats = DataSource.getStatsForWalk(this.walk.getId());
+		assertEquals(fixes.size(), stats.getPointCount());
+		assertEquals(fixes.size(), DataSource.getTrackForWalk(this.walk.getId()).size());
+		assertEquals(expectedDistance(fixes), stats.getDistance(), 0.01);
+	}
+
+	/**
+	 * Starts GPSService the way WalkListActivity does, and binds to it.
+	 */
+	private void startService() throws InterruptedException
+	{
+		final CountDownLatch bound = new CountDownLatch(1);
+		this.connection = new ServiceConnection() {
+			@Override
+			public void onServiceConnected(ComponentName name, IBinder binder)
+			{
+				GPSServiceReplayTest.this.service = ((GPSService.LocalBinder) binder).getService();
+				bound.countDown();
+			}
+
+			@Override
+			public void onServiceDisconnected(ComponentName name)
+			{
+			}
+		};
+
+		Intent intent = new Intent(this.context, GPSService.class);
+		this.context.startService(intent);
+		assertTrue(this.context.bindService(intent, this.connection, 0));
+		assertTrue("The service didn't bind", bound.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Adds up the distance between the fixes, at the microdegree positions GPSService stores them at.
+	 */
+	private static double expectedDistance(List<Location> fixes)
+	{
+		double distance = 0;
+		float[] results = new float[1];
+		for (int i = 1; i < fixes.size(); i++)
+		{
+			Location from = fixes.get(i - 1);
+			Location to = fixes.get(i);
+			Location.distanceBetween((int) (from.getLatitude() * 1e6) / 1E6, (int) (from.getLongitude() * 1e6) / 1E6,
+					(int) (to.getLatitude() * 1e6) / 1E6, (int) (to.getLongitude() * 1e6) / 1E6, results);
+			distance += results[0];
+		}
+		return distance;
+	}
+
+	/**
+	 * A LocationSource that holds on to the requests made of it until it's opened, and then passes them on to
+	 * the source it wraps.
+	 *
+	 * @author Alex Hardwicke
+	 */
+	private static class GatedLocationSource implements LocationSource
+	{
+		private final LocationSource source;
+		private boolean open = false;
+		private long minTime;
+		private float minDistance;
+		private LocationListener listener;
+		private Looper looper;
+
+		GatedLocationSource(LocationSource source)
+		{
+			this.source = source;
+		}
+
+		@Override
+		public synchronized void requestUpdates(long minTime, float minDistance, LocationListener listener,
+				Looper looper)
+		{
+			this.minTime = minTime;
+			this.minDistance = minDistance;
+			this.listener = listener;
+			this.looper = looper;
+			if (this.open) this.source.requestUpdates(minTime, minDistance, listener, looper);
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void removeUpdates(LocationListener listener)
+		{
+			if (this.listener == listener) this.listener = null;
+			this.source.removeUpdates(listener);
+		}
+
+		/**
+		 * Waits for updates to be requested.
+		 *
+		 * @return	False if none were requested within the timeout
+		 */
+		synchronized boolean awaitRequest(long timeout) throws InterruptedException
+		{
+			long end = SystemClock.uptimeMillis() + timeout;
+			long remaining;
+			while (this.listener == null && (remaining = end - SystemClock.uptimeMillis()) > 0)
+				wait(remaining);
+			return this.listener != null;
+		}
+
+		/**
+		 * Passes on the current request, and every one after it.
+		 */
+		synchronized void open()
+		{
+			this.open = true;
+			if (this.listener != null)
+				this.source.requestUpdates(this.minTime, this.minDistance, this.listener, this.looper);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.digitalpies.promenade.gps;
+
+import com.digitalpies.promenade.database.Track;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that PointChannel hands over every point in order as its ring buffer wraps around, and that
+ * drain() refuses when the points a reader is missing have been overwritten or were never written.
+ *
+ * @author Alex Hardwicke
+ */
+public class PointChannelTest extends TestCase
+{
+	// The number of slots in PointChannel's ring buffer
+	private static final int SIZE = 256;
+
+	public void testDrainAcrossWrapAround()
+	{
+		PointChannel channel = new PointChannel(0);
+		Track reader = new Track(1);
+
+		// Drained every 100 points, so the reader never falls a whole ring behind
+		for (int i = 0; i < SIZE * 4; i++)
+		{
+			channel.write(i, -i);
+			if (i % 100 == 99) assertTrue(channel.drain(reader));
+		}
+		assertTrue(channel.drain(reader));
+
+		assertEquals(SIZE * 4, reader.size());
+		for (int i = 0; i < reader.size(); i++)
+		{
+			assertEquals(i, reader.getLatitudeE6(i));
+			assertEquals(-i, reader.getLongitudeE6(i));
+		}
+	}
+
+	public void testDrainFailsOnceOverwritten()
+	{
+		PointChannel channel = new PointChannel(0);
+		for (int i = 0; i <= SIZE; i++)
+			channel.write(i, -i);
+
+		// The first point's slot now holds the last point
+		assertFalse(channel.drain(new Track(1)));
+
+		// A reader that already has the first two points is still less than a ring behind
+		Track reader = new Track(SIZE + 1);
+		reader.add(0, 0);
+		reader.add(1, -1);
+		assertTrue(channel.drain(reader));
+		assertEquals(SIZE + 1, reader.size());
+		assertEquals(SIZE, reader.getLatitudeE6(SIZE));
+	}
+
+	public void testDrainFailsBeforeStart()
+	{
+		// A channel for a walk resumed with 10 points already in its Track
+		PointChannel channel = new PointChannel(10);
+		channel.write(10, -10);
+
+		Track early = new Track(5);
+		for (int i = 0; i < 5; i++)
+			early.add(i, -i);
+		assertFalse(channel.drain(early));
+
+		Track reader = new Track(11);
+		for (int i = 0; i < 10; i++)
+			reader.add(i, -i);
+		assertTrue(channel.drain(reader));
+		assertEquals(11, reader.size());
+		assertEquals(10, reader.getLatitudeE6(10));
+	}
+}
@@ -0,0 +1,135 @@
+package com.digitalpies.promenade.gps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.digitalpies.promenade.database.Track;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests that a WalkLog that was never closed, as when the app is killed, gives back every point appended to
+ * it when it's opened again, and nothing that wasn't completely written. The log is kept in its own
+ * directory, so the app's walk in progress isn't touched.
+ *
+ * @author Alex Hardwicke
+ */
+public class WalkLogTest extends AndroidTestCase
+{
+	// The log's layout - a 12 byte header, then 20 bytes per point
+	private static final int HEADER_SIZE = 12;
+	private static final int POINT_SIZE = 20;
+	// More than fit in the log's first mapping, so it has to grow
+	private static final int POINTS = 5000;
+
+	private File directory;
+	private Context logContext;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		this.directory = new File(getContext().getCacheDir(), "walk_log_test");
+		this.directory.mkdirs();
+		new File(this.directory, "walk.log").delete();
+
+		this.logContext = new ContextWrapper(getContext()) {
+			@Override
+			public File getFilesDir()
+			{
+				return WalkLogTest.this.directory;
+			}
+		};
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		new File(this.directory, "walk.log").delete();
+		this.directory.delete();
+		super.tearDown();
+	}
+
+	public void testPointsRecoveredAfterKill() throws IOException
+	{
+		WalkLog log = new WalkLog(this.logContext);
+		for (int i = 0; i < POINTS; i++)
+			log.append(latitude(i), longitude(i), time(i), accuracy(i));
+
+		// The first log is left open, as if the app had been killed
+		WalkLog recovered = new WalkLog(this.logContext);
+		assertEquals(POINTS, recovered.size());
+
+		Track track = recovered.readTrack();
+		assertEquals(POINTS, track.size());
+		for (int i = 0; i < POINTS; i++)
+		{
+			assertEquals(latitude(i), track.getLatitudeE6(i));
+			assertEquals(longitude(i), track.getLongitudeE6(i));
+			assertEquals(time(i), track.getTime(i));
+			assertEquals(accuracy(i), track.getAccuracy(i));
+		}
+
+		recovered.close();
+		log.close();
+	}
+
+	public void testPartlyWrittenPointIgnored() throws IOException
+	{
+		WalkLog log = new WalkLog(this.logContext);
+		for (int i = 0; i < 10; i++)
+			log.append(latitude(i), longitude(i), time(i), accuracy(i));
+		log.close();
+
+		// Half of an 11th point, written without raising the count
+		RandomAccessFile file = new RandomAccessFile(new File(this.directory, "walk.log"), "rw");
+		file.seek(HEADER_SIZE + 10 * POINT_SIZE);
+		file.writeInt(latitude(10));
+		file.writeInt(longitude(10));
+		file.close();
+
+		WalkLog recovered = new WalkLog(this.logContext);
+		assertEquals(10, recovered.size());
+		assertEquals(latitude(9), recovered.readTrack().getLatitudeE6(9));
+		recovered.close();
+	}
+
+	public void testClearedLogRecoveredEmpty() throws IOException
+	{
+		WalkLog log = new WalkLog(this.logContext);
+		for (int i = 0; i < 10; i++)
+			log.append(latitude(i), longitude(i), time(i), accuracy(i));
+		log.clear();
+		log.append(latitude(20), longitude(20), time(20), accuracy(20));
+
+		WalkLog recovered = new WalkLog(this.logContext);
+		assertEquals(1, recovered.size());
+		assertEquals(latitude(20), recovered.readTrack().getLatitudeE6(0));
+
+		recovered.close();
+		log.close();
+	}
+
+	private static int latitude(int i)
+	{
+		return 63825800 + i * 180;
+	}
+
+	private static int longitude(int i)
+	{
+		return 20263000 - i * 40;
+	}
+
+	private static long time(int i)
+	{
+		return 1343815200000L + i * 20000L;
+	}
+
+	private static float accuracy(int i)
+	{
+		return 5 + i % 7;
+	}
+}